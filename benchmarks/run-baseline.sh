@@ -0,0 +1,11 @@
+#!/bin/sh
+# Builds the benchmarks and runs all of them with the allocation profiler.
+# The results are written in baseline/<name>.json, so the runs of two releases can be compared.
+# Usage: ./run-baseline.sh [name] [extra JMH options, e.g. a benchmark regex or -p size=800x600]
+set -e
+cd "$(dirname "$0")"
+NAME=${1:-$(git rev-parse --short HEAD 2>/dev/null || date +%Y%m%d)}
+[ $# -gt 0 ] && shift
+mvn -B -q package
+mkdir -p baseline
+java -jar target/benchmarks.jar -prof gc -rf json -rff "baseline/$NAME.json" "$@"
@@ -0,0 +1,77 @@
+package bench;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Class that creates the canvases the benchmarks work on. Every canvas is drawn from
+ * the same seed, so the runs of different releases compare the same pixels
+ * */
+public final class Canvases {
+
+	/**
+	 * The sizes of the canvases the benchmarks run at, from a small window to 4K
+	 * */
+	public static final String SMALL = "800x600";
+	public static final String FULL_HD = "1920x1080";
+	public static final String UHD_4K = "3840x2160";
+
+	private Canvases() {}
+
+	/**
+	 * Method that returns the width of a size written as widthxheight
+	 * */
+	public static int width(String size) {
+		return Integer.parseInt(size.substring(0, size.indexOf('x')));
+	}//end width method
+
+	/**
+	 * Method that returns the height of a size written as widthxheight
+	 * */
+	public static int height(String size) {
+		return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+	}//end height method
+
+	/**
+	 * Method that draws a typical canvas: a white background with strokes of a few colors,
+	 * some filled shapes and a gradient where an image was inserted
+	 * @param size The size of the canvas, widthxheight
+	 * */
+	public static BufferedImage drawing(String size) {
+		int width = width(size);
+		int height = height(size);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.setPaint(new GradientPaint(100, 50, Color.ORANGE, 100 + width / 4, 50 + height / 4, Color.BLUE));
+		g.fillRect(100, 50, width / 4, height / 4);
+		Random random = new Random(42);
+		Color[] colors = {Color.BLACK, Color.RED, Color.BLUE, new Color(0x2e7d32)};
+		for(int i = 0; i < 60; i++) {
+			g.setColor(colors[i % colors.length]);
+			g.setStroke(new BasicStroke(1 + random.nextInt(8)));
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			for(int j = 0; j < 20; j++) {
+				int nx = Math.max(0, Math.min(width - 1, x + random.nextInt(81) - 40));
+				int ny = Math.max(0, Math.min(height - 1, y + random.nextInt(81) - 40));
+				g.drawLine(x, y, nx, ny);
+				x = nx;
+				y = ny;
+			}//end for
+		}//end for
+		for(int i = 0; i < 10; i++) {
+			g.setColor(colors[i % colors.length]);
+			g.fillOval(random.nextInt(width), random.nextInt(height), 20 + random.nextInt(120), 20 + random.nextInt(120));
+		}//end for
+		g.dispose();
+		return image;
+	}//end drawing method
+}//end Canvases class
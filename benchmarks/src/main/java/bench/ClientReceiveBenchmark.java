@@ -0,0 +1,81 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.DrawingPanel;
+import packet.MessageType;
+import packet.Packet;
+import packet.PacketCodec;
+
+/**
+ * Benchmark of what the client does with a frame of the server, from the stream to the canvas:
+ * NetworkClient.processConnection reads the frame, the decoder decodes it in its reusable
+ * pixels and the canvas copies them. The stream is a buffer, so no socket is measured
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ClientReceiveBenchmark {
+
+	@Param({Canvases.SMALL, Canvases.FULL_HD, Canvases.UHD_4K})
+	public String size;
+
+	@Param({"raw", "deflate"})
+	public String format;
+
+	private final PacketCodec codec = new PacketCodec();
+	private byte[] stream;
+	private int[] reused;
+	private DrawingPanel panel;
+
+	@Setup
+	public void setUp() throws IOException {
+		int[] pixels = PacketCodec.getPixels(Canvases.drawing(size));
+		Packet packet = new Packet(MessageType.SHARE_FULL, "bench");
+		packet.setImage(pixels);
+		packet.setImageWidth(Canvases.width(size));
+		packet.setImageHeight(Canvases.height(size));
+		packet.setPixelFormat(PacketCodec.formatOf(format));
+		ByteBuffer frame = codec.encode(packet);
+		stream = new byte[frame.remaining()];
+		frame.get(stream);
+		reused = new int[pixels.length];
+		panel = new DrawingPanel(null);
+		panel.setSize(Canvases.width(size), Canvases.height(size));
+	}//end setUp method
+
+	@Benchmark
+	public Packet readAndDecode() throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream));
+		return codec.decode(PacketCodec.readFrame(in), reused);
+	}//end readAndDecode method
+
+	@Benchmark
+	public DrawingPanel readDecodeAndApply() throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream));
+		Packet packet = codec.decode(PacketCodec.readFrame(in), reused);
+		panel.applyReceived(PacketCodec.toImage(packet.getImage(), packet.getImageWidth(), packet.getImageHeight()),
+				Collections.<Packet>emptyList());
+		return panel;
+	}//end readDecodeAndApply method
+}//end ClientReceiveBenchmark class
@@ -0,0 +1,53 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.DrawingPanel;
+
+/**
+ * Benchmark of DrawingPanel.imageFilter, which filters an inserted image and renders it on the canvas
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageFilterBenchmark {
+
+	@Param({Canvases.SMALL, Canvases.FULL_HD, Canvases.UHD_4K})
+	public String size;
+
+	@Param({"Gray Scale", "Negative", "Red Filter"})
+	public String filter;
+
+	private DrawingPanel panel;
+
+	@Setup
+	public void setUp() {
+		panel = new DrawingPanel(null);
+		panel.setSize(Canvases.width(size), Canvases.height(size));
+		panel.setBackBuffer(new BufferedImage(Canvases.width(size), Canvases.height(size), BufferedImage.TYPE_INT_RGB));
+		//the inserted image is a quarter of the canvas, like a picture opened from the menu
+		panel.setImage(Canvases.drawing(Canvases.width(size) / 2 + "x" + Canvases.height(size) / 2));
+	}//end setUp method
+
+	@Benchmark
+	public DrawingPanel imageFilter() {
+		panel.imageFilter(filter);
+		return panel;
+	}//end imageFilter method
+}//end ImageFilterBenchmark class
@@ -0,0 +1,97 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.DrawingPanel;
+import packet.MessageType;
+import packet.Packet;
+import packet.PacketCodec;
+
+/**
+ * Benchmark of the serialization of the packets: a full canvas and a share of every tile,
+ * encoded with every pixel format and decoded again
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PacketCodecBenchmark {
+
+	@Param({Canvases.SMALL, Canvases.FULL_HD, Canvases.UHD_4K})
+	public String size;
+
+	@Param({"raw", "deflate", "rle", "palette"})
+	public String format;
+
+	private final PacketCodec codec = new PacketCodec();
+	private Packet image;
+	private Packet tiles;
+	private byte[] imageFrame;
+	private byte[] tilesFrame;
+	private int[] reused;
+
+	@Setup
+	public void setUp() throws IOException {
+		byte pixelFormat = PacketCodec.formatOf(format);
+		int[] pixels = PacketCodec.getPixels(Canvases.drawing(size));
+		image = new Packet(MessageType.SHARE_FULL, "bench");
+		image.setImage(pixels.clone());
+		image.setImageWidth(Canvases.width(size));
+		image.setImageHeight(Canvases.height(size));
+		image.setPixelFormat(pixelFormat);
+		DrawingPanel panel = new DrawingPanel(null);
+		panel.setBackBuffer(Canvases.drawing(size));
+		tiles = new Packet(MessageType.SHARE_TILES, "bench");
+		tiles.setTiles(panel.takeDirtyTiles());
+		tiles.setPixelFormat(pixelFormat);
+		imageFrame = frameOf(codec.encode(image));
+		tilesFrame = frameOf(codec.encode(tiles));
+		reused = new int[pixels.length];
+	}//end setUp method
+
+	/**
+	 * Method that returns the bytes of an encoded frame after its length, as readFrame returns them
+	 * */
+	private static byte[] frameOf(ByteBuffer encoded) {
+		byte[] frame = new byte[encoded.remaining() - 4];
+		encoded.position(encoded.position() + 4);
+		encoded.get(frame);
+		return frame;
+	}//end frameOf method
+
+	@Benchmark
+	public ByteBuffer encodeImage() throws IOException {
+		return codec.encode(image);
+	}//end encodeImage method
+
+	@Benchmark
+	public ByteBuffer encodeTiles() throws IOException {
+		return codec.encode(tiles);
+	}//end encodeTiles method
+
+	@Benchmark
+	public Packet decodeImage() throws IOException {
+		return codec.decode(imageFrame, reused);
+	}//end decodeImage method
+
+	@Benchmark
+	public Packet decodeTiles() throws IOException {
+		return codec.decode(tilesFrame);
+	}//end decodeTiles method
+}//end PacketCodecBenchmark class
@@ -0,0 +1,54 @@
+package bench;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.DrawingPanel;
+
+/**
+ * Benchmark of PaintClient.getScreenShot, which draws the canvas of the drawing panel in a new image.
+ * The method is private to the client window, so the benchmark does the same two steps
+ * on a panel that is not shown
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScreenShotBenchmark {
+
+	@Param({Canvases.SMALL, Canvases.FULL_HD, Canvases.UHD_4K})
+	public String size;
+
+	private DrawingPanel panel;
+
+	@Setup
+	public void setUp() {
+		panel = new DrawingPanel(null);
+		panel.setSize(Canvases.width(size), Canvases.height(size));
+		panel.setBackBuffer(Canvases.drawing(size));
+	}//end setUp method
+
+	@Benchmark
+	public BufferedImage getScreenShot() {
+		BufferedImage image = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		panel.paintCanvas(g);
+		g.dispose();
+		return image;
+	}//end getScreenShot method
+}//end ScreenShotBenchmark class
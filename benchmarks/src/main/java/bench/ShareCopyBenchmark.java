@@ -0,0 +1,65 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.DrawingPanel;
+import packet.Tile;
+
+/**
+ * Benchmark of the pixel copies of a share: the sender copies the changed tiles out of its
+ * canvas and the receiver copies them into its own. Every tile of the canvas is changed,
+ * which is the worst case of a share
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShareCopyBenchmark {
+
+	@Param({Canvases.SMALL, Canvases.FULL_HD, Canvases.UHD_4K})
+	public String size;
+
+	private DrawingPanel sender;
+	private DrawingPanel receiver;
+	private BufferedImage canvas;
+	private List<Tile> tiles;
+
+	@Setup
+	public void setUp() {
+		canvas = Canvases.drawing(size);
+		sender = new DrawingPanel(null);
+		receiver = new DrawingPanel(null);
+		receiver.setBackBuffer(new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_RGB));
+		sender.setBackBuffer(canvas);
+		tiles = sender.takeDirtyTiles();
+	}//end setUp method
+
+	@Benchmark
+	public List<Tile> takeDirtyTiles() {
+		//setting the same canvas again marks all of its tiles as changed
+		sender.setBackBuffer(canvas);
+		return sender.takeDirtyTiles();
+	}//end takeDirtyTiles method
+
+	@Benchmark
+	public DrawingPanel applyTiles() {
+		receiver.applyTiles(tiles);
+		return receiver;
+	}//end applyTiles method
+}//end ShareCopyBenchmark class
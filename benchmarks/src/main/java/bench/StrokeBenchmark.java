@@ -0,0 +1,146 @@
+package bench;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.DrawingPanel;
+import packet.StrokeEngine;
+import packet.StrokeOp;
+import packet.TiledCanvas;
+
+/**
+ * Benchmark of a drag of the mouse with the curve and the eraser tools: the mouse handler of
+ * DrawingPanel drawing a segment with the StrokeEngine, marking the dirty tiles and the
+ * damage of the frame, and the engine alone against the Graphics2D it replaces. The preview
+ * drags an oval of the same width and paints the panel, which draws the shape being dragged
+ * over the canvas, whatever the tool.
+ * With -prof gc, gc.alloc.rate.norm of drag and engine must stay at 0 bytes
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StrokeBenchmark {
+
+	/**
+	 * The number of mouse positions the drag goes through, a zigzag across the canvas
+	 * */
+	private static final int POSITIONS = 64;
+
+	@Param({"CURVE", "ERASE"})
+	public String tool;
+
+	@Param({"1", "10"})
+	public int width;
+
+	private DrawingPanel panel;
+	private MouseMotionListener handler;
+	private final MouseEvent[] drags = new MouseEvent[POSITIONS];
+	private int next = 0;
+
+	private DrawingPanel previewPanel;
+	private MouseMotionListener previewHandler;
+	private Graphics2D previewGraphics;
+
+	private BufferedImage image;
+	private StrokeEngine engine;
+	private final StrokeOp op = new StrokeOp();
+	private final Rectangle bounds = new Rectangle();
+
+	@Setup
+	public void setUp() {
+		int canvasWidth = Canvases.width(Canvases.FULL_HD);
+		int canvasHeight = Canvases.height(Canvases.FULL_HD);
+		panel = new DrawingPanel(null);
+		panel.setSize(canvasWidth, canvasHeight);
+		panel.setBackBuffer(new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB));
+		panel.setCurrentTool(tool);
+		panel.setStrokeWidth(width);
+		for(int i = 0; i < POSITIONS; i++) {
+			//the mouse moves a few pixels between two events, like a fast drag
+			int x = 100 + i * 12;
+			int y = 100 + (i % 2) * 9;
+			drags[i] = new MouseEvent(panel, MouseEvent.MOUSE_DRAGGED, 0, MouseEvent.BUTTON1_DOWN_MASK, x, y, 0, false);
+		}//end for
+		handler = panel.getMouseMotionListeners()[0];
+		panel.getMouseListeners()[0].mousePressed(new MouseEvent(panel, MouseEvent.MOUSE_PRESSED, 0, MouseEvent.BUTTON1_DOWN_MASK, 100, 100, 1, false));
+
+		previewPanel = new DrawingPanel(null);
+		previewPanel.setSize(canvasWidth, canvasHeight);
+		previewPanel.setBackBuffer(new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB));
+		previewPanel.setCurrentTool("OVAL");
+		previewPanel.setStrokeWidth(width);
+		previewHandler = previewPanel.getMouseMotionListeners()[0];
+		previewPanel.getMouseListeners()[0].mousePressed(new MouseEvent(previewPanel, MouseEvent.MOUSE_PRESSED, 0, MouseEvent.BUTTON1_DOWN_MASK, 100, 100, 1, false));
+		//the repaint of a drag only asks for the region of the shape
+		previewGraphics = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB).createGraphics();
+		previewGraphics.setClip(90, 90, POSITIONS * 12 + 40, 40);
+
+		image = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB);
+		engine = new StrokeEngine(new TiledCanvas(canvasWidth, canvasHeight));
+		op.setTool(StrokeOp.Tool.valueOf(tool));
+		op.setStrokeWidth(width);
+	}//end setUp method
+
+	@Benchmark
+	public DrawingPanel drag() {
+		handler.mouseDragged(drags[next]);
+		next = (next + 1) % POSITIONS;
+		return panel;
+	}//end drag method
+
+	@Benchmark
+	public Rectangle engine() {
+		moveOp();
+		engine.paint(op, bounds);
+		return bounds;
+	}//end engine method
+
+	/**
+	 * The preview of a shape tool, drawn with its operation on every repaint of the drag
+	 * */
+	@Benchmark
+	public DrawingPanel preview() {
+		previewHandler.mouseDragged(drags[next]);
+		next = (next + 1) % POSITIONS;
+		previewPanel.paint(previewGraphics);
+		return previewPanel;
+	}//end preview method
+
+	/**
+	 * The path that was used before the engine, a new graphics for every segment
+	 * */
+	@Benchmark
+	public Rectangle graphics() {
+		moveOp();
+		Graphics g = image.getGraphics();
+		Rectangle changed = op.paint(g);
+		g.dispose();
+		return changed;
+	}//end graphics method
+
+	private void moveOp() {
+		int i = next;
+		next = (next + 1) % POSITIONS;
+		op.setPoints(100 + i * 12, 100 + (i % 2) * 9, 112 + i * 12, 100 + ((i + 1) % 2) * 9);
+	}//end moveOp method
+}//end StrokeBenchmark class
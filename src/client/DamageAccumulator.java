@@ -0,0 +1,172 @@
+package client;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class that collects the regions of the canvas that must be repainted during a frame and
+ * merges them into a small bounded set. A region that touches another one is merged with
+ * it, and when there are too many regions the two whose union wastes the least area are
+ * merged, so a frame never repaints more than a few rectangles. The rectangles are reused
+ * from frame to frame, so adding a region makes no garbage
+ * */
+public class DamageAccumulator {
+
+	/**
+	 * The largest number of regions kept for a frame when none is given
+	 * */
+	public static final int DEFAULT_MAX_REGIONS = 8;
+
+	private final int maxRegions;
+	private final List<Rectangle> regions = new ArrayList<>();
+	/**
+	 * The rectangles of the regions that were cleared, reused by the next regions
+	 * */
+	private final List<Rectangle> free = new ArrayList<>();
+
+	/**
+	 * Constructor for the DamageAccumulator class with the default number of regions
+	 * */
+	public DamageAccumulator() {
+		this(DEFAULT_MAX_REGIONS);
+	}//end DamageAccumulator constructor
+
+	/**
+	 * Constructor for the DamageAccumulator class
+	 * @param maxRegions The largest number of regions kept for a frame
+	 * */
+	public DamageAccumulator(int maxRegions) {
+		if(maxRegions <= 0) {
+			throw new IllegalArgumentException("There must be at least one region");
+		}//end if
+		this.maxRegions = maxRegions;
+	}//end DamageAccumulator constructor
+
+	/**
+	 * Method that adds a damaged region
+	 * @param x, y The top left corner of the region
+	 * @param w, h The size of the region, nothing is added if it is empty
+	 * */
+	public void add(int x, int y, int w, int h) {
+		if(w <= 0 || h <= 0) {
+			return;
+		}//end if
+		Rectangle region = null;
+		for(int i = 0; i < regions.size() && region == null; i++) {
+			if(touches(regions.get(i), x, y, w, h)) {
+				region = regions.get(i);
+				grow(region, x, y, w, h);
+			}//end if
+		}//end for
+		if(region == null) {
+			region = free.isEmpty() ? new Rectangle() : free.remove(free.size() - 1);
+			region.setBounds(x, y, w, h);
+			regions.add(region);
+		}//end if
+		//a region swallows the ones it touches, and the result can touch others
+		boolean merged = true;
+		while(merged) {
+			merged = false;
+			for(int i = 0; i < regions.size(); i++) {
+				Rectangle other = regions.get(i);
+				if(other != region && touches(region, other.x, other.y, other.width, other.height)) {
+					grow(region, other.x, other.y, other.width, other.height);
+					free.add(regions.remove(i));
+					merged = true;
+					break;
+				}//end if
+			}//end for
+		}//end while
+		while(regions.size() > maxRegions) {
+			mergeCheapestPair();
+		}//end while
+	}//end add method
+
+	/**
+	 * Method that adds a damaged region
+	 * @param region The region, it is copied
+	 * */
+	public void add(Rectangle region) {
+		add(region.x, region.y, region.width, region.height);
+	}//end add method
+
+	/**
+	 * Method that tells if a rectangle overlaps or shares an edge with a region
+	 * */
+	private static boolean touches(Rectangle a, int x, int y, int w, int h) {
+		return a.x <= x + w && x <= a.x + a.width && a.y <= y + h && y <= a.y + a.height;
+	}//end touches method
+
+	/**
+	 * Method that grows a rectangle in place so it holds a region too
+	 * */
+	private static void grow(Rectangle r, int x, int y, int w, int h) {
+		int x1 = Math.min(r.x, x);
+		int y1 = Math.min(r.y, y);
+		int x2 = Math.max(r.x + r.width, x + w);
+		int y2 = Math.max(r.y + r.height, y + h);
+		r.setBounds(x1, y1, x2 - x1, y2 - y1);
+	}//end grow method
+
+	/**
+	 * Method that merges the two regions whose union adds the least area that wasn't damaged
+	 * */
+	private void mergeCheapestPair() {
+		int first = 0, second = 1;
+		long cheapest = Long.MAX_VALUE;
+		for(int i = 0; i < regions.size(); i++) {
+			Rectangle a = regions.get(i);
+			for(int j = i + 1; j < regions.size(); j++) {
+				Rectangle b = regions.get(j);
+				long unionWidth = Math.max(a.x + a.width, b.x + b.width) - Math.min(a.x, b.x);
+				long unionHeight = Math.max(a.y + a.height, b.y + b.height) - Math.min(a.y, b.y);
+				long waste = unionWidth * unionHeight - area(a) - area(b);
+				if(waste < cheapest) {
+					cheapest = waste;
+					first = i;
+					second = j;
+				}//end if
+			}//end for
+		}//end for
+		Rectangle b = regions.remove(second);
+		grow(regions.get(first), b.x, b.y, b.width, b.height);
+		free.add(b);
+	}//end mergeCheapestPair method
+
+	private static long area(Rectangle r) {
+		return (long) r.width * r.height;
+	}//end area method
+
+	/**
+	 * Method that tells if nothing was damaged since the regions were cleared
+	 * */
+	public boolean isEmpty() {
+		return regions.isEmpty();
+	}//end isEmpty method
+
+	/**
+	 * Method that returns the number of merged regions
+	 * */
+	public int size() {
+		return regions.size();
+	}//end size method
+
+	/**
+	 * Method that returns a merged region, it must not be changed and is only valid until the regions are cleared
+	 * @param index The index of the region, from 0 to size
+	 * */
+	public Rectangle get(int index) {
+		return regions.get(index);
+	}//end get method
+
+	/**
+	 * Method that forgets the regions, for the next frame
+	 * */
+	public void clear() {
+		for(int i = 0; i < regions.size(); i++) {
+			free.add(regions.get(i));
+		}//end for
+		regions.clear();
+	}//end clear method
+}//end DamageAccumulator class
@@ -0,0 +1,126 @@
+package client;
+
+import java.util.BitSet;
+
+import packet.TiledCanvas;
+
+/**
+ * Class that splits the canvas into fixed-size tiles and remembers which of them
+ * were changed since the last time they were taken
+ * */
+public class DirtyTileTracker {
+
+	/**
+	 * The size in pixels of the side of a tile, the same as the tiles of the canvas
+	 * */
+	public static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+
+	private int width, height;
+	private int columns, rows;
+	private BitSet dirty = new BitSet();
+
+	/**
+	 * Constructor for the DirtyTileTracker class
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 * */
+	public DirtyTileTracker(int width, int height) {
+		resize(width, height);
+	}//end DirtyTileTracker constructor
+
+	/**
+	 * Method that changes the size of the tracked canvas and forgets the dirty tiles
+	 * @param width The new width of the canvas
+	 * @param height The new height of the canvas
+	 * */
+	public void resize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		dirty.clear();
+	}//end resize method
+
+	/**
+	 * Method that changes the size of the tracked canvas and keeps the dirty tiles that are still on it
+	 * @param width The new width of the canvas
+	 * @param height The new height of the canvas
+	 * */
+	public void grow(int width, int height) {
+		int oldColumns = columns;
+		BitSet old = dirty;
+		resize(width, height);
+		dirty = new BitSet();
+		for(int i = old.nextSetBit(0); i >= 0; i = old.nextSetBit(i + 1)) {
+			int column = i % oldColumns;
+			int row = i / oldColumns;
+			if(column < columns && row < rows) {
+				dirty.set(row * columns + column);
+			}//end if
+		}//end for
+	}//end grow method
+
+	/**
+	 * Method that marks as dirty all the tiles that intersect the rectangle
+	 * @param x, y The top left corner of the rectangle
+	 * @param w, h The size of the rectangle
+	 * */
+	public void mark(int x, int y, int w, int h) {
+		int x1 = Math.max(x, 0);
+		int y1 = Math.max(y, 0);
+		int x2 = Math.min(x + w, width);
+		int y2 = Math.min(y + h, height);
+		if(x1 >= x2 || y1 >= y2) {
+			return;
+		}//end if
+		int lastColumn = (x2 - 1) / TILE_SIZE;
+		int lastRow = (y2 - 1) / TILE_SIZE;
+		for(int row = y1 / TILE_SIZE; row <= lastRow; row++) {
+			dirty.set(row * columns + x1 / TILE_SIZE, row * columns + lastColumn + 1);
+		}//end for
+	}//end mark method
+
+	/**
+	 * Method that marks the whole canvas as dirty
+	 * */
+	public void markAll() {
+		dirty.set(0, columns * rows);
+	}//end markAll method
+
+	/**
+	 * Method that tells if there is any dirty tile
+	 * */
+	public boolean isEmpty() {
+		return dirty.isEmpty();
+	}//end isEmpty method
+
+	/**
+	 * Method that returns the index of the next dirty tile starting from the given index
+	 * or -1 if there is none
+	 * @param fromIndex The index from where the search starts
+	 * */
+	public int nextDirty(int fromIndex) {
+		return dirty.nextSetBit(fromIndex);
+	}//end nextDirty method
+
+	/**
+	 * Method that forgets all the dirty tiles
+	 * */
+	public void clear() {
+		dirty.clear();
+	}//end clear method
+
+	//Getters that translate the index of a tile into its bounds on the canvas
+	public int getTileX(int index) {
+		return (index % columns) * TILE_SIZE;
+	}//end getTileX
+	public int getTileY(int index) {
+		return (index / columns) * TILE_SIZE;
+	}//end getTileY
+	public int getTileWidth(int index) {
+		return Math.min(TILE_SIZE, width - getTileX(index));
+	}//end getTileWidth
+	public int getTileHeight(int index) {
+		return Math.min(TILE_SIZE, height - getTileY(index));
+	}//end getTileHeight
+}//end DirtyTileTracker class
@@ -1,22 +1,36 @@
 package client;
 
-import java.awt.BasicStroke;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.StringTokenizer;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
+import javax.swing.Timer;
+
+import packet.Packet;
+import packet.StrokeEngine;
+import packet.StrokeOp;
+import packet.Tile;
+import packet.TiledCanvas;
 
 /**
  * Class that handles the drawing on the screen
@@ -33,6 +47,35 @@ public class DrawingPanel extends Canvas{
 	// they are drawn on top of the current picture
 	private final static EnumSet<Tool> SHAPE_TOOLS = EnumSet.range(Tool.LINE, Tool.SELECT);
 	
+	/**
+	 * How the backBuffer is put on the screen. REPAINT copies the whole backBuffer in paint,
+	 * ACCELERATED keeps a copy of the backBuffer in video memory, uploads only the regions
+	 * that changed and presents the frames, with the shape being dragged, through a buffer strategy.
+	 * REPAINT is the default, ACCELERATED falls back to it when the video memory keeps being lost
+	 * */
+	public enum RenderMode {REPAINT, ACCELERATED};
+	/**
+	 * The name of the property changed when the render mode changes, also when it falls back
+	 * */
+	public static final String RENDER_MODE_PROPERTY = "renderMode";
+	/**
+	 * The number of buffers of the buffer strategy, the screen and one page that is flipped on it
+	 * */
+	private static final int BUFFER_COUNT = 2;
+	/**
+	 * The number of times in a row the video memory can be lost before ACCELERATED falls back to REPAINT
+	 * */
+	private static final int MAX_LOST_CONTENTS = 8;
+	/**
+	 * The time between two frames in milliseconds, about the refresh rate of a screen
+	 * */
+	public static final int FRAME_INTERVAL = 16;
+	/**
+	 * How the regions painted by a frame and the repaint rate are shown by the debug overlay
+	 * */
+	private static final Color DAMAGE_COLOR = new Color(255, 0, 0, 160);
+	private static final Rectangle RATE_BOX = new Rectangle(0, 0, 280, 18);
+	
 	/**
 	 * The currently selected drawing tool. It can be changed from the comboBox inside the GUI
 	 * */
@@ -50,12 +93,70 @@ public class DrawingPanel extends Canvas{
 	private int strokeWidth = 1;
 	private int captureCounter = 0;
 	/**
-	 * This is the backBuffer that holds the drawn canvas
+	 * This is the backBuffer that holds the drawn canvas, a grid of tiles that are only
+	 * allocated where something was drawn. It grows with the panel and never shrinks
 	 * */
-	private BufferedImage backBuffer, image, filteredImage, selectedImage;
+	private TiledCanvas backBuffer;
+	private BufferedImage image, filteredImage, selectedImage;
+	/**
+	 * The tiles of the backBuffer that were changed since the last share
+	 * */
+	private DirtyTileTracker dirtyTiles;
+	/**
+	 * The engine that draws the operations on the backBuffer, made again with the backBuffer
+	 * */
+	private StrokeEngine strokeEngine;
+	/**
+	 * The undo and redo history of the operations of the user, made again with the backBuffer
+	 * */
+	private final UndoHistory history = new UndoHistory();
+	/**
+	 * The operations reused while the mouse is dragged and while a shape is previewed, and
+	 * the region changed by the last operation, so drawing makes no garbage
+	 * */
+	private final StrokeOp dragStroke = new StrokeOp();
+	private final StrokeOp previewStroke = new StrokeOp();
+	private final Rectangle strokeBounds = new Rectangle();
+	/**
+	 * The listener that receives every drawing operation of the user
+	 * */
+	private StrokeListener strokeListener;
 	private Font font;
 	private String text;
-	private String lineType = "Straight";
+	private StrokeOp.LineType lineType = StrokeOp.LineType.STRAIGHT;
+	
+	private RenderMode renderMode = RenderMode.REPAINT;
+	/**
+	 * The number of times the video memory was lost since a frame was last presented without losing it
+	 * */
+	private int lostContents;
+	/**
+	 * The copy of the backBuffer in video memory used by the ACCELERATED mode
+	 * */
+	private VolatileImage acceleratedBuffer;
+	/**
+	 * The region of the backBuffer that changed since it was uploaded to the acceleratedBuffer,
+	 * null if nothing changed
+	 * */
+	private Rectangle staleRegion;
+	/**
+	 * The regions that must be repainted at the next frame, and the regions painted by the last one
+	 * */
+	private DamageAccumulator damage = new DamageAccumulator();
+	private DamageAccumulator frameRegions = new DamageAccumulator();
+	/**
+	 * Timer that paints the damaged regions once per frame, so the many small repaints asked
+	 * while the mouse is dragged become one. It stops when a frame has nothing to paint
+	 * */
+	private final Timer frameTimer;
+	/**
+	 * Whether the regions painted by the last frame and the number of repaints per second are
+	 * drawn on top of the canvas
+	 * */
+	private boolean showDamage = false;
+	private int framesThisSecond, requestsThisSecond;
+	private int framesPerSecond, requestsPerSecond;
+	private long secondStart = System.nanoTime();
 	
 	/**
 	 * Constructor for the DrawingPanel class
@@ -67,6 +168,14 @@ public class DrawingPanel extends Canvas{
 		MouseHandler mouseHandler = new MouseHandler();
 		addMouseListener(mouseHandler);
 		addMouseMotionListener(mouseHandler);
+		frameTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				paintFrame();
+			}//end actionPerformed
+		});
+		//the first damage after a pause is painted right away, the next ones wait for their frame
+		frameTimer.setInitialDelay(0);
 	}//end constructor for DrawingPanel class
 	
 	//Setters for the attributes of the class
@@ -104,140 +213,641 @@ public class DrawingPanel extends Canvas{
 		return this.getWidth();
 	}
 	public void setLineType(String lineType) {
-		this.lineType = new String(lineType);
+		this.lineType = StrokeOp.lineTypeOf(lineType);
 	}
 	public void setImage(BufferedImage srcImage) {
 		image = srcImage;
 	}
 	public void setBackBuffer(BufferedImage srcImage) {
-		backBuffer = srcImage;
+		backBuffer = new TiledCanvas(srcImage.getWidth(), srcImage.getHeight());
+		backBuffer.write(srcImage, 0, 0);
+		createStrokeEngine();
+		if(dirtyTiles == null) {
+			dirtyTiles = new DirtyTileTracker(srcImage.getWidth(), srcImage.getHeight());
+		}else {
+			dirtyTiles.resize(srcImage.getWidth(), srcImage.getHeight());
+		}//end if else
+		dirtyTiles.markAll();
+		markStale(null);
 	}
 	
+	/**
+	 * Method that chooses how the backBuffer is put on the screen
+	 * @param mode REPAINT to copy the whole backBuffer on every repaint, ACCELERATED to go through video memory
+	 * */
+	public void setRenderMode(RenderMode mode) {
+		if(mode == renderMode) {
+			return;
+		}//end if
+		RenderMode old = renderMode;
+		renderMode = mode;
+		lostContents = 0;
+		if(mode == RenderMode.REPAINT) {
+			releaseAcceleratedBuffer();
+			//a single buffer lets paint draw on the screen again
+			if(getBufferStrategy() != null) {
+				createBufferStrategy(1);
+			}//end if
+		}//end if
+		damageAll();
+		firePropertyChange(RENDER_MODE_PROPERTY, old, mode);
+	}//end setRenderMode method
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}//end getRenderMode method
+	
+	/**
+	 * Method that shows or hides the debug overlay with the regions painted by every frame
+	 * and the number of repaints per second
+	 * */
+	public void setShowDamage(boolean showDamage) {
+		this.showDamage = showDamage;
+		damageAll();
+	}//end setShowDamage method
+	
+	/**
+	 * Method that asks for a region of the canvas to be repainted at the next frame
+	 * @param x, y The top left corner of the region
+	 * @param w, h The size of the region
+	 * */
+	private void addDamage(int x, int y, int w, int h) {
+		damage.add(x, y, w, h);
+		requestsThisSecond++;
+		//a canvas that is not on the screen only collects the damage, it is painted when it is shown
+		if(!frameTimer.isRunning() && isDisplayable()) {
+			frameTimer.start();
+		}//end if
+	}//end addDamage method
+	
+	/**
+	 * Method that asks for the whole canvas to be repainted at the next frame
+	 * */
+	private void damageAll() {
+		addDamage(0, 0, getWidth(), getHeight());
+	}//end damageAll method
+	
+	/**
+	 * Method of the frame timer that paints the regions damaged since the last frame.
+	 * The accelerated mode presents a single frame, the other one paints every region
+	 * with the graphics of the canvas
+	 * */
+	private void paintFrame() {
+		long now = System.nanoTime();
+		if(now - secondStart >= 1000000000L) {
+			framesPerSecond = framesThisSecond;
+			requestsPerSecond = requestsThisSecond;
+			framesThisSecond = requestsThisSecond = 0;
+			secondStart = now;
+			if(showDamage) {
+				addDamage(RATE_BOX.x, RATE_BOX.y, RATE_BOX.width, RATE_BOX.height);
+			}//end if
+		}//end if
+		if(damage.isEmpty()) {
+			//the overlay keeps the timer running to refresh the rate
+			if(!showDamage) {
+				frameTimer.stop();
+			}//end if
+			return;
+		}//end if
+		//the two sets are swapped, the one of the last frame collects the next damage once it is painted
+		DamageAccumulator previous = frameRegions;
+		frameRegions = damage;
+		damage = previous;
+		framesThisSecond++;
+		try {
+			paintRegions(previous);
+		}finally {
+			previous.clear();
+		}//end try finally
+	}//end paintFrame method
+	
+	/**
+	 * Method that paints the regions of the frame
+	 * @param previous The regions painted by the last frame, whose outlines are erased
+	 * */
+	private void paintRegions(DamageAccumulator previous) {
+		if(!isDisplayable()) {
+			return;
+		}//end if
+		ensureBackBuffer();
+		if(renderMode == RenderMode.ACCELERATED) {
+			for(int i = 0; i < frameRegions.size(); i++) {
+				markStale(frameRegions.get(i));
+			}//end for
+			present();
+			return;
+		}//end if
+		Graphics g = getGraphics();
+		if(g == null) {
+			return;
+		}//end if
+		for(int i = 0; i < frameRegions.size(); i++) {
+			paintClipped(g, frameRegions.get(i));
+		}//end for
+		if(showDamage) {
+			//the outlines of the last frame are erased
+			for(int i = 0; i < previous.size(); i++) {
+				paintClipped(g, previous.get(i));
+			}//end for
+		}//end if
+		g.dispose();
+	}//end paintRegions method
+	
+	private void paintClipped(Graphics g, Rectangle region) {
+		Graphics clipped = g.create();
+		clipped.clipRect(region.x, region.y, region.width, region.height);
+		paint(clipped);
+		clipped.dispose();
+	}//end paintClipped method
+	
+	/**
+	 * Method that draws the debug overlay, the outline of the regions painted by the last
+	 * frame and the number of frames and repaint requests in the last second
+	 * */
+	private void paintDamage(Graphics g) {
+		g.setColor(DAMAGE_COLOR);
+		for(int i = 0; i < frameRegions.size(); i++) {
+			Rectangle region = frameRegions.get(i);
+			g.drawRect(region.x, region.y, region.width - 1, region.height - 1);
+		}//end for
+		g.setColor(Color.WHITE);
+		g.fillRect(RATE_BOX.x, RATE_BOX.y, RATE_BOX.width, RATE_BOX.height);
+		g.setColor(Color.RED);
+		g.drawString(framesPerSecond + " repaints/s for " + requestsPerSecond + " requests/s", RATE_BOX.x + 4, RATE_BOX.y + 13);
+	}//end paintDamage method
+	
 	
 	//overriding the paint method of the canvas
 	@Override
 	public void paint(Graphics g) {
-		super.paint(g);
+		ensureBackBuffer();
 		
-		if(backBuffer == null) {
-			createBackBuffer();
-		}
+		if(renderMode == RenderMode.ACCELERATED && isDisplayable()) {
+			//the window system asks for the regions it exposed, they are uploaded again
+			markStale(g.getClipBounds());
+			present();
+			return;
+		}//end if
+		
+		super.paint(g);
 		
-		/* Copy the off-screen canvas to the current drawing panel.
-		 * Since the image is already completely available, the ImageObsever,
-		 * parameter is not needed
+		/* Copy the tiles of the off-screen canvas under the clip to the current
+		 * drawing panel, the blank ones are only filled
 		 * */
-		g.drawImage(backBuffer, 0, 0, null);
+		Rectangle clip = g.getClipBounds();
+		backBuffer.draw(g, clip != null ? clip : new Rectangle(0, 0, getWidth(), getHeight()));
 		
 		if(dragging && SHAPE_TOOLS.contains(currentTool)) {
 			g.setColor(currentColor);
 			putCurrentShape(g);
 		}//end if
+		if(showDamage) {
+			paintDamage(g);
+		}//end if
 	}//end paint method
 	
 	
 	/**
-	 * This method creates the off-screen canvas and fills it with the current 
-	 * fill color.
+	 * Method that draws what the canvas shows on any graphics, like an image for a
+	 * screenshot, without going through the screen
+	 * @param g The graphics the canvas is drawn on
+	 * */
+	public void paintCanvas(Graphics g) {
+		ensureBackBuffer();
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		backBuffer.draw(g, new Rectangle(0, 0, getWidth(), getHeight()));
+	}//end paintCanvas method
+	
+	/**
+	 * This method creates the off-screen canvas, blank until something is drawn on it.
 	 * */
 	private void createBackBuffer() {
-		backBuffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-		Graphics osg = backBuffer.getGraphics();
-		osg.setColor(fillColor);
-		osg.fillRect(0,  0, getWidth(), getHeight());
-		osg.dispose();
+		backBuffer = new TiledCanvas(getWidth(), getHeight());
+		createStrokeEngine();
+		dirtyTiles = new DirtyTileTracker(getWidth(), getHeight());
+		markStale(null);
 	}//end createBackBuffer method
 	
+	/**
+	 * Method that creates the off-screen canvas if it is missing and grows it when the panel
+	 * became larger than it, what was drawn is kept
+	 * */
+	private void ensureBackBuffer() {
+		if(backBuffer == null) {
+			createBackBuffer();
+		}else if(backBuffer.ensureSize(getWidth(), getHeight())) {
+			dirtyTiles.grow(backBuffer.getWidth(), backBuffer.getHeight());
+			markStale(null);
+		}//end if else
+	}//end ensureBackBuffer method
+	
+	/**
+	 * Method that makes the engine and the history of the new backBuffer and frees the engine
+	 * of the old backBuffer
+	 * */
+	private void createStrokeEngine() {
+		if(strokeEngine != null) {
+			strokeEngine.dispose();
+		}//end if
+		strokeEngine = new StrokeEngine(backBuffer);
+		history.setCanvas(backBuffer);
+	}//end createStrokeEngine method
+	
+	/**
+	 * Method that remembers that a region of the backBuffer must be uploaded again to the
+	 * acceleratedBuffer before the next frame is presented
+	 * @param region The region that changed, null for the whole backBuffer
+	 * */
+	private void markStale(Rectangle region) {
+		if(region == null) {
+			region = new Rectangle(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}//end if
+		if(staleRegion == null) {
+			staleRegion = new Rectangle(region);
+		}else {
+			staleRegion.add(region);
+		}//end if else
+	}//end markStale method
+	
+	/**
+	 * Method that presents a frame through the buffer strategy: the stale regions of the
+	 * backBuffer are uploaded to video memory, the acceleratedBuffer is drawn on the back page
+	 * with the shape being dragged and the page is flipped on the screen. It starts again
+	 * while the video memory or the pages are lost, and falls back to REPAINT when they are
+	 * lost too many times in a row
+	 * */
+	private void present() {
+		//a panel that is hidden or not laid out yet has no pages and no video memory to fill
+		if(getWidth() <= 0 || getHeight() <= 0) {
+			return;
+		}//end if
+		BufferStrategy strategy = getBufferStrategy();
+		if(strategy == null) {
+			createBufferStrategy(BUFFER_COUNT);
+			strategy = getBufferStrategy();
+		}//end if
+		int attempts = 0;
+		do {
+			do {
+				//every attempt after the first one is made because the video memory was lost
+				if(attempts++ > 0 && ++lostContents >= MAX_LOST_CONTENTS) {
+					setRenderMode(RenderMode.REPAINT);
+					return;
+				}//end if
+				uploadStaleRegion();
+				Graphics g = strategy.getDrawGraphics();
+				if(getWidth() > acceleratedBuffer.getWidth() || getHeight() > acceleratedBuffer.getHeight()) {
+					//the content of a page is undefined outside of the canvas
+					g.setColor(getBackground());
+					g.fillRect(0, 0, getWidth(), getHeight());
+				}//end if
+				g.drawImage(acceleratedBuffer, 0, 0, null);
+				if(dragging && SHAPE_TOOLS.contains(currentTool)) {
+					g.setColor(currentColor);
+					putCurrentShape(g);
+				}//end if
+				if(showDamage) {
+					paintDamage(g);
+				}//end if
+				g.dispose();
+			}while(strategy.contentsRestored() || acceleratedBuffer.contentsLost());
+			strategy.show();
+		}while(strategy.contentsLost());
+		if(attempts == 1) {
+			lostContents = 0;
+		}//end if
+		//the frame reaches the screen now instead of waiting in the queue of the window system
+		Toolkit.getDefaultToolkit().sync();
+	}//end present method
+	
+	/**
+	 * Method that creates the acceleratedBuffer when it is missing or was lost and copies the
+	 * stale region of the backBuffer on it, so a small drawing uploads only a few pixels
+	 * */
+	private void uploadStaleRegion() {
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		int width = backBuffer.getWidth();
+		int height = backBuffer.getHeight();
+		int state = acceleratedBuffer == null ? VolatileImage.IMAGE_INCOMPATIBLE : acceleratedBuffer.validate(config);
+		if(state == VolatileImage.IMAGE_INCOMPATIBLE || acceleratedBuffer.getWidth() != width || acceleratedBuffer.getHeight() != height) {
+			releaseAcceleratedBuffer();
+			acceleratedBuffer = config.createCompatibleVolatileImage(width, height);
+			markStale(null);
+		}else if(state == VolatileImage.IMAGE_RESTORED) {
+			markStale(null);
+		}//end if else
+		if(staleRegion == null) {
+			return;
+		}//end if
+		Rectangle region = staleRegion.intersection(new Rectangle(0, 0, width, height));
+		staleRegion = null;
+		if(region.isEmpty()) {
+			return;
+		}//end if
+		Graphics g = acceleratedBuffer.getGraphics();
+		backBuffer.draw(g, region);
+		g.dispose();
+	}//end uploadStaleRegion method
+	
+	/**
+	 * Method that frees the video memory of the acceleratedBuffer
+	 * */
+	private void releaseAcceleratedBuffer() {
+		if(acceleratedBuffer != null) {
+			acceleratedBuffer.flush();
+			acceleratedBuffer = null;
+		}//end if
+	}//end releaseAcceleratedBuffer method
+	
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		damageAll();
+	}//end addNotify method
+	
+	@Override
+	public void removeNotify() {
+		//the buffer strategy goes away with the peer, the video memory is freed with it
+		frameTimer.stop();
+		releaseAcceleratedBuffer();
+		super.removeNotify();
+	}//end removeNotify method
+	
+	/**
+	 * Method that marks a region of the backBuffer as changed so it is sent on the next share
+	 * @param x, y The top left corner of the region
+	 * @param w, h The size of the region
+	 * */
+	private void markDirty(int x, int y, int w, int h) {
+		if(dirtyTiles != null) {
+			dirtyTiles.mark(x, y, w, h);
+		}//end if
+	}//end markDirty method
+	
+	/**
+	 * Method that marks the region between two points as changed, enlarged by the
+	 * given pen size
+	 * */
+	private void markDirtyBetween(int x1, int y1, int x2, int y2, int pen) {
+		markDirty(Math.min(x1, x2) - pen, Math.min(y1, y2) - pen, Math.abs(x2 - x1) + 2 * pen + 1, Math.abs(y2 - y1) + 2 * pen + 1);
+	}//end markDirtyBetween method
+	
+	/**
+	 * Method that copies the tiles that were changed since the last call and forgets them
+	 * @return the list of changed tiles, empty if nothing was drawn
+	 * */
+	public List<Tile> takeDirtyTiles() {
+		List<Tile> tiles = new ArrayList<>();
+		if(backBuffer == null) {
+			return tiles;
+		}//end if
+		for(int i = dirtyTiles.nextDirty(0); i >= 0; i = dirtyTiles.nextDirty(i + 1)) {
+			int x = dirtyTiles.getTileX(i);
+			int y = dirtyTiles.getTileY(i);
+			int w = dirtyTiles.getTileWidth(i);
+			int h = dirtyTiles.getTileHeight(i);
+			int[] pixels = new int[w * h];
+			backBuffer.read(x, y, w, h, pixels, 0, w);
+			tiles.add(new Tile(x, y, w, h, pixels));
+		}//end for
+		dirtyTiles.clear();
+		return tiles;
+	}//end takeDirtyTiles method
+	
+	/**
+	 * Method that patches the backBuffer in place with the tiles received from another client.
+	 * The patched tiles are not marked as changed, so they are not shared back
+	 * @param tiles The tiles that will be copied on the canvas
+	 * */
+	public void applyTiles(List<Tile> tiles) {
+		history.pause();
+		Rectangle bounds = patchTiles(tiles);
+		history.resume();
+		if(bounds != null) {
+			addDamage(bounds.x, bounds.y, bounds.width, bounds.height);
+		}//end if
+	}//end applyTiles method
+	
+	/**
+	 * Method that applies everything that was received from the server in one go and
+	 * repaints the union of the changed regions once. Nothing is marked as changed, so
+	 * nothing is shared back
+	 * @param image The full canvas that was received, or null. It is copied, so the caller can reuse it
+	 * @param packets The tiles and drawing operations received after the full canvas, in order
+	 * */
+	public void applyReceived(BufferedImage image, List<Packet> packets) {
+		Rectangle damaged = null;
+		//what the other clients drew is not undone by this one
+		history.pause();
+		if(image != null) {
+			if(backBuffer == null) {
+				createBackBuffer();
+			}//end if
+			if(backBuffer.getWidth() != image.getWidth() || backBuffer.getHeight() != image.getHeight()) {
+				backBuffer.resize(image.getWidth(), image.getHeight());
+				markStale(null);
+			}//end if
+			//the rows are copied in bulk into the tiles, the blank ones stay unallocated
+			backBuffer.write(image, 0, 0);
+			dirtyTiles.resize(image.getWidth(), image.getHeight());
+			damaged = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+			history.changedByOthers(damaged);
+		}//end if
+		for(Packet packet : packets) {
+			Rectangle bounds = null;
+			if(packet.getStroke() != null) {
+				bounds = replayStroke(packet.getStroke());
+				//only the entries under each change are forgotten, not under the union of the batch
+				history.changedByOthers(bounds);
+			}else if(packet.getTiles() != null) {
+				bounds = patchTiles(packet.getTiles());
+			}//end if else
+			if(bounds != null) {
+				damaged = damaged == null ? bounds : damaged.union(bounds);
+			}//end if
+		}//end for
+		history.resume();
+		if(damaged != null) {
+			addDamage(damaged.x, damaged.y, damaged.width, damaged.height);
+		}//end if
+	}//end applyReceived method
+	
+	/**
+	 * Method that copies the tiles on the backBuffer without repainting, the undo entries under
+	 * every tile are forgotten
+	 * @return the region that was changed, or null if no tile was on the backBuffer
+	 * */
+	private Rectangle patchTiles(List<Tile> tiles) {
+		if(backBuffer == null) {
+			createBackBuffer();
+		}//end if
+		Rectangle damaged = null;
+		for(Tile tile : tiles) {
+			//the tile is clipped to the backBuffer
+			Rectangle bounds = backBuffer.write(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), tile.getPixels(), 0, tile.getWidth());
+			if(bounds == null) {
+				continue;
+			}//end if
+			history.changedByOthers(bounds);
+			damaged = damaged == null ? bounds : damaged.union(bounds);
+		}//end for
+		return damaged;
+	}//end patchTiles method
+	
 	/**
 	 * A utility method to draw the shape that was selected
 	 * This method isn't used when current tool is Tool.Curve
 	 * */
 	private void putCurrentShape(Graphics g) {
-		switch(currentTool) {
-		case LINE:
-			Graphics2D g2d = (Graphics2D) g.create();
-			if(lineType.equals("Straight")) {
-				g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_BEVEL));
-			}else if(lineType.equals("Dotted")) {
-				g2d.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[] {strokeWidth, 10*strokeWidth}, 0));
-			}else {
-				g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[] {strokeWidth}, 0));
-			}
-			g2d.drawLine(startX, startY, currentX, currentY);
-			g2d.dispose();
-			break;
-		case OVAL:
-			putOval(g,false,startX, startY, currentX, currentY);
-	        break;
-	    case RECT:
-	        putRect(g,false,startX, startY, currentX, currentY);
-	        break;
-	    case FILLED_OVAL:
-	        putOval(g,true,startX, startY, currentX, currentY);
-	        break;
-	    case FILLED_RECT:
-	        putRect(g,true,startX, startY, currentX, currentY);
-	        break;
-	    case SELECT:
-	    	getSelected(g, startX, startY, currentX, currentY);
-	    	break;
-		}
+		if(currentTool == Tool.SELECT) {
+			getSelected(g, startX, startY, currentX, currentY);
+		}else {
+			currentShape().paint(g);
+		}//end if else
 	}// end putCurrentShape method
 	
 	/**
-	 * This method draws a filled or unfilled rectangle with corners at the points (x1, y1)
-	 * and (x2, y2).
-	 * @param g the graphics context where the rectangle is drawn
-	 * @param filled tells if the rectangle is drawn filled or unfilled
-	 * */
-	private void putRect(Graphics g, boolean filled, int x1, int y1, int x2, int y2) {
-		 if (x1 == x2 || y1 == y2)
-	         return;
-	      if (x2 < x1) {  // Swap x1,x2 if necessary to make x2 > x1.
-	         int temp = x1;
-	         x1 = x2;
-	         x2 = temp;
-	      }//end if
-	      if (y2 < y1) {  // Swap y1,y2 if necessary to make y2 > y1.
-	         int temp = y1;
-	         y1 = y2;
-	         y2 = temp;
-	      }//end if
-	      if (filled)
-	         g.fillRect(x1,y1,x2-x1,y2-y1);
-	      else
-	         g.drawRect(x1,y1,x2-x1,y2-y1);		
-	}// end putRect method
+	 * Method that returns the shape that is being dragged as a drawing operation
+	 * */
+	private StrokeOp currentShape() {
+		return setStroke(previewStroke, StrokeOp.Tool.valueOf(currentTool.name()), startX, startY, currentX, currentY);
+	}//end currentShape method
 	
-	 /**
-	  * Draws a filled or unfilled oval in the rectangle with corners at the 
-	  * points (x1,y1) and (x2,y2).
-	  * @param g the graphics context where the oval is drawn
-	  * @param filled tells whether if the oval should be drawn filled or unfilled
-	  */
-	 private void putOval(Graphics g, boolean filled, int x1, int y1, int x2, int y2) {
-	    if (x1 == x2 || y1 == y2)
-	       return;
-	    if (x2 < x1) {  // Swap x1,x2 if necessary to make x2 > x1.
-	       int temp = x1;
-	       x1 = x2;
-	       x2 = temp;
-	    }//end if
-	    if (y2 < y1) {  // Swap y1,y2 if necessary to make y2 > y1.
-	       int temp = y1;
-	       y1 = y2;
-	       y2 = temp;
-	    }//end if
-	    if (filled)
-	       g.fillOval(x1,y1,x2-x1,y2-y1);
-	    else
-	       g.drawOval(x1,y1,x2-x1,y2-y1);
-	 }//end putOval method
+	/**
+	 * Method that creates a drawing operation with the current color, stroke width and line type
+	 * @param tool The tool of the operation
+	 * @param x1, y1 The start point of the operation
+	 * @param x2, y2 The end point of the operation
+	 * */
+	private StrokeOp newStroke(StrokeOp.Tool tool, int x1, int y1, int x2, int y2) {
+		return setStroke(new StrokeOp(), tool, x1, y1, x2, y2);
+	}//end newStroke method
+	
+	/**
+	 * Method that sets an operation that is reused to the current color, stroke width and line type
+	 * @return the operation
+	 * */
+	private StrokeOp setStroke(StrokeOp op, StrokeOp.Tool tool, int x1, int y1, int x2, int y2) {
+		op.setTool(tool);
+		op.setColor(currentColor.getRGB());
+		op.setStrokeWidth(strokeWidth);
+		op.setLineType(lineType);
+		op.setPoints(x1, y1, x2, y2);
+		return op;
+	}//end setStroke method
+	
+	/**
+	 * Method that draws an operation of the user on the backBuffer, marks the changed region
+	 * so it is shared and hands the operation to the stroke listener
+	 * @param op The drawing operation made by the user
+	 * */
+	private void commitStroke(StrokeOp op) {
+		strokeEngine.paint(op, strokeBounds);
+		markDirty(strokeBounds.x, strokeBounds.y, strokeBounds.width, strokeBounds.height);
+		addDamage(strokeBounds.x, strokeBounds.y, strokeBounds.width, strokeBounds.height);
+		if(strokeListener != null) {
+			strokeListener.strokeDrawn(op);
+		}//end if
+	}//end commitStroke method
+	
+	/**
+	 * Method that replays on the backBuffer an operation received from another client.
+	 * The region is not marked as changed, so it is not shared back
+	 * @param op The drawing operation made by the other client
+	 * */
+	public void applyStroke(StrokeOp op) {
+		history.pause();
+		Rectangle bounds = replayStroke(op);
+		history.resume();
+		history.changedByOthers(bounds);
+		addDamage(bounds.x, bounds.y, bounds.width, bounds.height);
+	}//end applyStroke method
+	
+	/**
+	 * Method that draws the operation on the backBuffer without repainting
+	 * @return the region that was changed
+	 * */
+	private Rectangle replayStroke(StrokeOp op) {
+		if(backBuffer == null) {
+			createBackBuffer();
+		}//end if
+		return strokeEngine.paint(op);
+	}//end replayStroke method
+	
+	/**
+	 * Method that sets the listener that receives every drawing operation of the user
+	 * @param listener The listener, usually the one that sends the operations to the server
+	 * */
+	public void setStrokeListener(StrokeListener listener) {
+		strokeListener = listener;
+	}//end setStrokeListener method
+	
+	/**
+	 * Method that undoes the newest operation of the user. The tiles it changed are handed
+	 * to the stroke listener, so the undo is shared right away like a drawing
+	 * */
+	public void undo() {
+		if(backBuffer != null) {
+			showRestored(history.undo());
+		}//end if
+	}//end undo method
+	
+	/**
+	 * Method that redoes the newest operation of the user that was undone
+	 * */
+	public void redo() {
+		if(backBuffer != null) {
+			showRestored(history.redo());
+		}//end if
+	}//end redo method
+	
+	private void showRestored(Rectangle changed) {
+		if(changed == null) {
+			return;
+		}//end if
+		addDamage(changed.x, changed.y, changed.width, changed.height);
+		if(strokeListener != null) {
+			strokeListener.tilesRestored(readTiles(changed));
+		}//end if
+	}//end showRestored method
+	
+	/**
+	 * Method that copies the tiles of the backBuffer under a region
+	 * @param region The region, made of whole tiles
+	 * @return the tiles, clipped to the backBuffer
+	 * */
+	private List<Tile> readTiles(Rectangle region) {
+		List<Tile> tiles = new ArrayList<>();
+		Rectangle clipped = region.intersection(new Rectangle(0, 0, backBuffer.getWidth(), backBuffer.getHeight()));
+		for(int y = clipped.y; y < clipped.y + clipped.height; y += TiledCanvas.TILE_SIZE) {
+			for(int x = clipped.x; x < clipped.x + clipped.width; x += TiledCanvas.TILE_SIZE) {
+				int w = Math.min(TiledCanvas.TILE_SIZE, clipped.x + clipped.width - x);
+				int h = Math.min(TiledCanvas.TILE_SIZE, clipped.y + clipped.height - y);
+				int[] pixels = new int[w * h];
+				backBuffer.read(x, y, w, h, pixels, 0, w);
+				tiles.add(new Tile(x, y, w, h, pixels));
+			}//end for
+		}//end for
+		return tiles;
+	}//end readTiles method
+	
+	/**
+	 * Method that sets how much memory the undo history can take, the oldest operations are forgotten beyond it
+	 * @param bytes The limit in bytes
+	 * */
+	public void setUndoMemoryLimit(long bytes) {
+		history.setMemoryLimit(bytes);
+	}//end setUndoMemoryLimit method
+	
+	public long getUndoMemoryLimit() {
+		return history.getMemoryLimit();
+	}//end getUndoMemoryLimit method
 
 	 
 	 /**
-	  * Calls the repaint() method of this panel for the rectangle with corners
-	  * at the points (x1,y1) and (x2,y2).  An extra one-pixel border is added
+	  * Damages the rectangle with corners at the points (x1,y1) and (x2,y2),
+	  * so it is repainted at the next frame.  An extra one-pixel border is added
 	  * to the area that is repainted; this allows for the size of the "pen"
 	  * that is used to draw lines and unfilled ovals and rectangles.
 	  */
@@ -256,7 +866,7 @@ public class DrawingPanel extends Canvas{
 	    x2++;
 	    y1--;
 	    y2++;
-	    repaint(x1,y1,x2-x1,y2-y1);
+	    addDamage(x1,y1,x2-x1,y2-y1);
 	 }// end repaintRect method
 	 
 	 /**
@@ -267,11 +877,12 @@ public class DrawingPanel extends Canvas{
 	  * */
 	 private void getSelected(Graphics g, int x1, int y1, int x2, int y2) {
 		 //draw the rectangle  that will show what u selected 
-		 Graphics2D g2d = (Graphics2D) g.create();
-		 g2d.setStroke(new BasicStroke(1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[] {20, 10}, 0));
+		 Graphics2D g2d = (Graphics2D) g;
+		 Stroke previous = g2d.getStroke();
+		 g2d.setStroke(StrokeEngine.SELECTION);
 		 g2d.setColor(Color.BLACK);
 		 g2d.drawRect(x1, y1, x2 - x1, y2 - y1);
-		 g2d.dispose();
+		 g2d.setStroke(previous);
 	 }//end getSelectedMethod
 	 
 	
@@ -286,15 +897,19 @@ public class DrawingPanel extends Canvas{
 	 * @param image Boolean that if the value is true will place the image with an offset
 	 * of 100 pixels from the right and 50 pixels from the top of the canvas
 	 * */
-	public void renderImage(BufferedImage srcImage, boolean image) {
-		Graphics g = backBuffer.getGraphics();
-		if(image) {
-			g.drawImage(srcImage, 100, 50, null);
-		}else {
-			g.drawImage(srcImage, 0, 0, null);
-		}//end if else
-		g.dispose();
-		repaint();
+	public void renderImage(final BufferedImage srcImage, boolean image) {
+		final int x = image ? 100 : 0;
+		final int y = image ? 50 : 0;
+		history.begin();
+		backBuffer.paint(new Rectangle(x, y, srcImage.getWidth(), srcImage.getHeight()), new TiledCanvas.Painter() {
+			@Override
+			public void paint(Graphics2D g) {
+				g.drawImage(srcImage, x, y, null);
+			}//end paint
+		});
+		history.end();
+		markDirty(x, y, srcImage.getWidth(), srcImage.getHeight());
+		damageAll();
 	}//end renderImage
 	
 	/**
@@ -358,11 +973,12 @@ public class DrawingPanel extends Canvas{
 	 * Method that clears the canvas
 	 * */
 	public void clearScreen() {
-		Graphics g = backBuffer.getGraphics();
-		g.setColor(Color.WHITE);
-		g.fillRect(0, 0, this.getWidth(), this.getHeight());
-		g.dispose();
-		repaint();
+		//every tile goes back to blank, the history keeps the pixels so the clear can be undone
+		history.begin();
+		backBuffer.clear();
+		history.end();
+		dirtyTiles.markAll();
+		damageAll();
 	}//end clearScreen method
 	
 	
@@ -372,37 +988,6 @@ public class DrawingPanel extends Canvas{
 private class MouseHandler implements MouseListener, MouseMotionListener {
 	      
 	  int prevX, prevY;  // Previous position of mouse during a drag.
-	      
-	  /**
-	  * When the ERASE tool is used and the mouse jumps
-	  * from (x1,y1) to (x2,y2), the tool has to be applied to a
-	  * line of pixel positions between the two points in order to
-	  * cover the entire line that the mouse moves along.  The change
-	  * is made to the off-screen canvas, and repaint() is called to
-	  * copy the changes to the screen.
-	  */
-	  void applyToolAlongLine(int x1, int y1, int x2, int y2) {
-	     Graphics g = backBuffer.getGraphics();
-	     g.setColor(fillColor);    // (for ERASE only)
-	     int dist = Math.max(Math.abs(x2-x1),Math.abs(y2-y1));
-	        // dist is the number of points along the line from
-	        // (x1,y1) to (x2,y2) at which the tool will be applied.
-	     double dx = (double)(x2-x1)/dist;
-	     double dy = (double)(y2-y1)/dist;
-	     for (int d = 1; d <= dist; d++) {
-	            // Apply the tool at one of the points (x,y) along the
-	            // line from (x1,y1) to (x2,y2).
-	        int x = (int)Math.round(x1 + dx*d);
-	        int y = (int)Math.round(y1 + dy*d);
-	        if (currentTool == Tool.ERASE) {
-	               // Erase a  block of pixels around (x,y) with the width of strokeWidth
-	           g.fillRect(x-(strokeWidth)/2, y-(strokeWidth)/2, strokeWidth, strokeWidth);
-	           repaint(x-(strokeWidth)/2, y-(strokeWidth)/2, strokeWidth, strokeWidth);
-	        }//end if
-	     }//end for
-	    g.dispose();
-	  }//end applyToolAlongLine method
-	
 	
 	   /**
 	   * Start a drag operation.
@@ -411,62 +996,24 @@ private class MouseHandler implements MouseListener, MouseMotionListener {
 	       startX = prevX = currentX = evt.getX();
 	       startY = prevY = currentY = evt.getY();
 	       dragging = true;
+	       //everything drawn until the mouse is released is undone at once
+	       ensureBackBuffer();
+	       history.begin();
 	       if (currentTool == Tool.ERASE) {
 	             // Erase a 10-by-10 block around the starting mouse position.
-	          Graphics g = backBuffer.getGraphics();
-	          g.setColor(fillColor);
-	          g.fillRect(startX-5,startY-5,10,10);
-	          g.dispose();
-	          repaint(startX-5,startY-5,10,10);
+	          StrokeOp erase = new StrokeOp(StrokeOp.Tool.ERASE, fillColor.getRGB(), 10, startX, startY, startX, startY);
+	          commitStroke(erase);
 	       }//end if
 	       if(currentTool == Tool.TEXT) {
 	    	   if(text == null) {
 	    		   return;
 	    	   }//end if
-	    	   Graphics g = backBuffer.getGraphics();
-	    	   g.setColor(currentColor);
-	    	   g.setFont(font);
-	    	   FontMetrics fm = g.getFontMetrics();
-	    	   StringBuffer wrapText = new StringBuffer();
-	    	   int counter = 1;
-	    	   if(startX + fm.stringWidth(text) >= instance.getWidth()) {
-	    		   if(text.contains(" ")) {
-	    			   StringTokenizer tokens = new StringTokenizer(text, " ");
-	    			   while(tokens.hasMoreTokens()) {
-	    				   String element = tokens.nextToken(); 
-	    				   String test = new String(wrapText);
-	    				   if(startX + fm.stringWidth(element) + fm.stringWidth(test) >= instance.getWidth()) {
-	    					   wrapText.append("\n").append(element);
-	    				   }else {
-	    					   wrapText.append(element).append(" ");   
-	    				   }//end if else
-	    			   }//end while
-	    			   tokens = new StringTokenizer(new String(wrapText), "\n");
-	    			   g.drawString(tokens.nextToken(), startX, startY);
-	    			   while(tokens.hasMoreElements()) {
-	    				   g.drawString(tokens.nextToken(), startX, startY + counter*fm.getAscent() + counter*fm.getDescent());
-	    				   counter++;
-	    			   }//end while
-	    		   }else {
-	    			   for(int i = 0; i < text.length(); i++) {
-	    				   char c = text.charAt(i);
-	    				   wrapText.append(c);
-	    				   String test = new String(wrapText);
-	    				   if(startX + fm.stringWidth(test) >= instance.getWidth()) {
-	    					  wrapText.append("\n"); 
-	    				   }//end if
-	    			   }//end for
-	    			   StringTokenizer tokenz = new StringTokenizer(new String(wrapText), "\n");
-	    			   while(tokenz.hasMoreElements()) {
-	    				   g.drawString(tokenz.nextToken(), startX, startY + counter*fm.getAscent() + counter*fm.getDescent());
-	    				   counter++;
-	    			   }//end while
-	    		   }//end if else
-	    	   }else {
-	    		   g.drawString(text, startX, startY);   
-	    	   }//end if else
-	    	   g.dispose();
-	    	   repaint();
+	    	   StrokeOp textOp = newStroke(StrokeOp.Tool.TEXT, startX, startY, startX, startY);
+	    	   textOp.setFont(font);
+	    	   textOp.setText(text);
+	    	   //the text is wrapped at the right side of the window
+	    	   textOp.setWrapWidth(instance.getWidth());
+	    	   commitStroke(textOp);
 	       }//end if
 	    }//end mousePressed method
 	      
@@ -486,13 +1033,7 @@ private class MouseHandler implements MouseListener, MouseMotionListener {
 	       currentX = evt.getX();
 	       currentY = evt.getY();
 	       if (currentTool == Tool.CURVE) {
-	          Graphics g = backBuffer.getGraphics();
-	          Graphics2D g2d = (Graphics2D) g.create();
-	          g2d.setColor(currentColor);
-	          g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-	          g2d.drawLine(prevX,prevY,currentX,currentY);
-	          g.dispose();
-	          repaintRect(prevX,prevY,currentX,currentY);
+	          commitStroke(setStroke(dragStroke, StrokeOp.Tool.CURVE, prevX, prevY, currentX, currentY));
 	       }
 	       else if (SHAPE_TOOLS.contains(currentTool)) {
 	               // Repaint the rectangles occupied by the previous position of
@@ -504,9 +1045,9 @@ private class MouseHandler implements MouseListener, MouseMotionListener {
 	          repaintRect(startX,startY,prevX,prevY);
 	          repaintRect(startX,startY,currentX,currentY);
 	       }
-	       else {
-	             // Tool has to be ERASE 
-	          applyToolAlongLine(prevX,prevY,currentX,currentY);
+	       else if (currentTool == Tool.ERASE) {
+	          setStroke(dragStroke, StrokeOp.Tool.ERASE, prevX, prevY, currentX, currentY).setColor(fillColor.getRGB());
+	          commitStroke(dragStroke);
 	       }
 	       prevX = currentX;
 	       prevY = currentY;
@@ -521,12 +1062,20 @@ private class MouseHandler implements MouseListener, MouseMotionListener {
 	     */
 	    public void mouseReleased(MouseEvent evt) {
 	       dragging = false;
-	       if (SHAPE_TOOLS.contains(currentTool)) {
-	          Graphics g = backBuffer.getGraphics();
-	          g.setColor(currentColor);
-	          putCurrentShape(g);
-	          //if the current tool is the SELECT one, then don't repaint and save that file with the capture
-	          if(currentTool == Tool.SELECT) {
+	       if (SHAPE_TOOLS.contains(currentTool) && currentTool != Tool.SELECT) {
+	          commitStroke(currentShape());
+	          history.end();
+	       }else if (currentTool == Tool.SELECT) {
+	          backBuffer.paint(new Rectangle(Math.min(startX, currentX) - 2, Math.min(startY, currentY) - 2,
+	        		  Math.abs(currentX - startX) + 5, Math.abs(currentY - startY) + 5), new TiledCanvas.Painter() {
+	        	  @Override
+	        	  public void paint(Graphics2D g) {
+	        		  putCurrentShape(g);
+	        	  }//end paint
+	          });
+	          markDirtyBetween(startX, startY, currentX, currentY, 2);
+	          history.end();
+	          //the current tool is the SELECT one, so save that file with the capture
 	        	  int width = currentX - startX - 4;
 	        	  int height = currentY - startY - 1;
 	        	  selectedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
@@ -547,10 +1096,10 @@ private class MouseHandler implements MouseListener, MouseMotionListener {
 					}catch(Exception ex) {
 						ex.printStackTrace();
 					}//end try catch
-	          }//end if
-	          g.dispose();
-	          repaint();
-	       }//end if 
+	          damageAll();
+	       }else {
+	          history.end();
+	       }//end if else
 	    }//end mouseReleased
 	      
 	    //MouseListner, MouseMotionListener interfaces methods
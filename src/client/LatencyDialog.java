@@ -0,0 +1,72 @@
+package client;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Locale;
+
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import network.NetworkClient;
+
+/**
+ * Dialog that shows how long the drawings of the other clients take in every hop from
+ * their capture to their painting on this canvas, refreshed every second while it is open,
+ * with the round trip time to the server measured by a ping at every refresh
+ * */
+public class LatencyDialog extends JDialog {
+
+	private static final long serialVersionUID = 4790815313284716153L;
+
+	/**
+	 * The time between two refreshes of the latencies in milliseconds
+	 * */
+	public static final int REFRESH_INTERVAL = 1000;
+
+	private final JTextArea text = new JTextArea();
+	private final Timer timer;
+
+	/**
+	 * Constructor for the LatencyDialog class
+	 * @param owner The frame of the client
+	 * @param client The network client that measures the latencies
+	 * */
+	public LatencyDialog(JFrame owner, final NetworkClient client) {
+		super(owner, "Latency");
+		text.setEditable(false);
+		text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		getContentPane().add(new JScrollPane(text), BorderLayout.CENTER);
+		setPreferredSize(new Dimension(520, 260));
+		pack();
+		setLocationRelativeTo(owner);
+		timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				long roundTrip = client.getRoundTripNanos();
+				String ping = roundTrip < 0 ? "Round trip: waiting for the server" : String.format(Locale.ROOT, "Round trip: %.3f ms", roundTrip / 1e6);
+				text.setText(client.getLatencies().report() + ping);
+				client.ping();
+				text.setCaretPosition(0);
+			}//end actionPerformed
+		});
+		timer.setInitialDelay(0);
+	}//end LatencyDialog constructor
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		timer.start();
+	}//end addNotify method
+
+	@Override
+	public void removeNotify() {
+		timer.stop();
+		super.removeNotify();
+	}//end removeNotify method
+}//end LatencyDialog class
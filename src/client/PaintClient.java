@@ -15,9 +15,10 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,6 +28,7 @@ import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -47,7 +49,11 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 
 import network.NetworkClient;
+import packet.MessageType;
 import packet.Packet;
+import packet.StrokeOp;
+import packet.Tile;
+import packet.Trace;
 
 /**
  * Project's main client class that holds all the graphical components
@@ -75,6 +81,7 @@ public class PaintClient extends JFrame implements WindowListener{
 	private JMenuBar menuBar;
 	private JMenu fileMenu, window, about, subMenu;
 	private JMenuItem menuItem;
+	private JCheckBoxMenuItem menuItemAccelerated;
 	private JFileChooser fileC;
 	public DrawingPanel drawingP;
 	private BufferedImage image, screenCopy;
@@ -154,6 +161,27 @@ public class PaintClient extends JFrame implements WindowListener{
 		});//end menu item save as action listener
 		fileMenu.add(menuItemSaveAs);
 		
+		JMenuItem menuItemUndo = new JMenuItem("Undo");
+		menuItemUndo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
+		//adding the action listener for the undo menu item
+		menuItemUndo.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				drawingP.undo();
+			}//end actionPerformed method
+		});//end menu item undo action listener
+		fileMenu.add(menuItemUndo);
+		JMenuItem menuItemRedo = new JMenuItem("Redo");
+		menuItemRedo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, ActionEvent.CTRL_MASK));
+		//adding the action listener for the redo menu item
+		menuItemRedo.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				drawingP.redo();
+			}//end actionPerformed method
+		});//end menu item redo action listener
+		fileMenu.add(menuItemRedo);
+		
 		JMenuItem menuItemDelete = new JMenuItem("Delete");
 		//TODO add the behavior for the delete menu item
 		fileMenu.add(menuItemDelete);
@@ -172,7 +200,54 @@ public class PaintClient extends JFrame implements WindowListener{
 		window = new JMenu("Window");
 		subMenu = new JMenu("Preferences");
 		//TODO add the menu items for the preferences sub menu
+		menuItemAccelerated = new JCheckBoxMenuItem("Hardware acceleration", false);
+		//adding the item listener for the hardware acceleration menu item
+		menuItemAccelerated.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				drawingP.setRenderMode(menuItemAccelerated.isSelected() ? DrawingPanel.RenderMode.ACCELERATED : DrawingPanel.RenderMode.REPAINT);
+			}//end itemStateChanged method
+		});//end menu item accelerated item listener
+		subMenu.add(menuItemAccelerated);
+		final JCheckBoxMenuItem menuItemDamage = new JCheckBoxMenuItem("Show repaint regions", false);
+		//adding the item listener for the repaint regions menu item
+		menuItemDamage.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				drawingP.setShowDamage(menuItemDamage.isSelected());
+			}//end itemStateChanged method
+		});//end menu item damage item listener
+		subMenu.add(menuItemDamage);
+		JMenuItem menuItemUndoMemory = new JMenuItem("Undo memory...");
+		//adding the action listener for the undo memory menu item
+		menuItemUndoMemory.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String megabytes = JOptionPane.showInputDialog("Enter the memory of the undo history in MB:",
+						drawingP.getUndoMemoryLimit() / (1024 * 1024));
+				if(megabytes == null) {
+					return;
+				}//end if
+				try {
+					drawingP.setUndoMemoryLimit(Long.parseLong(megabytes.trim()) * 1024 * 1024);
+				}catch(IllegalArgumentException ex) {
+					JOptionPane.showMessageDialog(instance, "The memory must be a positive number of MB");
+				}//end try catch
+			}//end actionPerformed method
+		});//end menu item undo memory action listener
+		subMenu.add(menuItemUndoMemory);
 		window.add(subMenu);
+		JMenuItem menuItemLatency = new JMenuItem("Latency");
+		//adding the action listener for the latency menu item
+		menuItemLatency.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(client != null) {
+					new LatencyDialog(instance, client).setVisible(true);
+				}//end if
+			}//end actionPerformed method
+		});//end menu item latency action listener
+		window.add(menuItemLatency);
 		//creating the about menu
 		about = new JMenu("About");
 		
@@ -648,26 +723,22 @@ public class PaintClient extends JFrame implements WindowListener{
 		shareB.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				Packet packet = new Packet();
-				screenCopy = getScreenShot();
-				int width = screenCopy.getWidth();
-				int height = screenCopy.getHeight();
-				packet.setImageWidth(width);
-				packet.setImageHeight(height);
-				packet.setImageState(true);
-				int[][] pixels = new int[width][height];
-				for(int x = 0; x < width; x++) {
-					for(int y = 0; y < height; y++) {
-						pixels[x][y] = screenCopy.getRGB(x, y);
-					}//end for
-				}//end for
-				packet.setImage(pixels);
-				try {
-					client.sendPacket(packet);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}//end try catch statement
+				//the changed tiles stay dirty until there is a connection to share them with
+				if(client == null || !client.isConnected()) {
+					return;
+				}//end if
+				//the capture of the share starts before the tiles are copied
+				Trace trace = new Trace(Trace.now());
+				//only the tiles that were changed since the last share are sent
+				List<Tile> tiles = drawingP.takeDirtyTiles();
+				if(tiles.isEmpty()) {
+					return;
+				}//end if
+				Packet packet = new Packet(MessageType.SHARE_TILES);
+				packet.setTiles(tiles);
+				packet.setTrace(trace);
+				//the tiles are encoded by the sender thread, not on the event dispatch thread
+				client.queuePacket(packet);
 			}
 		});//end action listener for the share button
 		topRightLeftP.add(shareB, BorderLayout.CENTER);
@@ -682,6 +753,38 @@ public class PaintClient extends JFrame implements WindowListener{
 		
 		//CENTER
 		drawingP = new DrawingPanel(this);
+		//the hardware acceleration is turned off by the canvas when the video memory keeps being lost
+		drawingP.addPropertyChangeListener(DrawingPanel.RENDER_MODE_PROPERTY, new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				menuItemAccelerated.setSelected(evt.getNewValue() == DrawingPanel.RenderMode.ACCELERATED);
+			}//end propertyChange method
+		});
+		//every drawing operation is sent to the other clients while the user draws
+		drawingP.setStrokeListener(new StrokeListener() {
+			@Override
+			public void strokeDrawn(StrokeOp op) {
+				if(client == null || !client.isConnected()) {
+					return;
+				}//end if
+				Packet packet = new Packet(MessageType.STROKE);
+				packet.setStroke(op.copy());
+				packet.setTrace(new Trace(Trace.now()));
+				client.queuePacket(packet);
+			}//end strokeDrawn method
+			
+			@Override
+			public void tilesRestored(List<Tile> tiles) {
+				if(client == null || !client.isConnected() || tiles.isEmpty()) {
+					return;
+				}//end if
+				//an undo is sent right away, behind the operations it undoes
+				Packet packet = new Packet(MessageType.SHARE_TILES);
+				packet.setTiles(tiles);
+				packet.setTrace(new Trace(Trace.now()));
+				client.queuePacket(packet);
+			}//end tilesRestored method
+		});
 		panel.add(drawingP, BorderLayout.CENTER);
 		
 		//adding the main panel to the frame
@@ -713,7 +816,7 @@ public class PaintClient extends JFrame implements WindowListener{
 //				pixels[x][y] = image.getRGB(x, y);
 //			}//end for
 //		}//end for
-		instance.drawingP.paint(image.getGraphics());
+		instance.drawingP.paintCanvas(image.getGraphics());
 		return image;
 	}//end getScreenShot
 	
@@ -0,0 +1,26 @@
+package client;
+
+import java.util.List;
+
+import packet.StrokeOp;
+import packet.Tile;
+
+/**
+ * Interface for the objects that want to know about every drawing operation
+ * the user makes on the canvas
+ * */
+public interface StrokeListener {
+
+	/**
+	 * Method that is called after an operation was drawn on the canvas
+	 * @param op The drawing operation, reused by the canvas after the call, so a listener
+	 * that keeps it must keep a copy
+	 * */
+	void strokeDrawn(StrokeOp op);
+
+	/**
+	 * Method that is called after an undo or a redo put tiles back on the canvas
+	 * @param tiles The copies of the tiles that were put back, the listener can keep them
+	 * */
+	void tilesRestored(List<Tile> tiles);
+}//end StrokeListener interface
@@ -0,0 +1,580 @@
+package client;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import javax.swing.SwingUtilities;
+
+import packet.DeflatePixelCodec;
+import packet.TiledCanvas;
+
+/**
+ * Class that keeps the undo and redo history of a canvas with the granularity of its tiles.
+ * An entry only holds the tiles that its operation changed, as they were before and after
+ * it. The canvas gives the pixels of a tile before its first write and copies them before
+ * it writes on them, so nothing is copied for the history itself, and an undo or a redo
+ * only puts the pixels back in the tiles, whatever the size of the canvas.
+ * The entries older than the newest ones are compressed on a background thread, which also
+ * decompresses them again before they are undone, and the oldest entries are forgotten when
+ * the history takes more memory than its limit.
+ * An undo puts back whole tiles, so the entries with a tile that another client changed since
+ * are forgotten, and an undo never erases what the others drew.
+ * The history must only be used from the event dispatch thread
+ * */
+public class UndoHistory implements TiledCanvas.TileListener {
+
+	/**
+	 * The memory the history can take when no limit is given, 64 MB
+	 * */
+	public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+	/**
+	 * The number of newest entries that are never compressed, so the next undos are only swaps
+	 * */
+	public static final int UNCOMPRESSED_ENTRIES = 4;
+
+	private static final int TILE_PIXELS = TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+
+	/**
+	 * Class that holds the tiles changed by one operation
+	 * */
+	private static class Entry {
+		private int count;
+		private int[] columns = new int[8];
+		private int[] rows = new int[8];
+		/**
+		 * The pixels of the tiles before and after the operation, null for a blank tile.
+		 * They are null too while the entry is compressed
+		 * */
+		private int[][] before = new int[8][];
+		private int[][] after = new int[8][];
+		/**
+		 * The compressed pixels of the tiles that were not blank, and which ones were blank
+		 * */
+		private byte[] compressed;
+		private boolean[] blank;
+		/**
+		 * The pixels of the tiles, before then after, being decompressed on the compressor thread
+		 * */
+		private Future<int[][]> decompressing;
+		private boolean compressing;
+		private boolean forgotten;
+		/**
+		 * True when another client changed one of the tiles while the operation was drawn
+		 * */
+		private boolean overwritten;
+		/**
+		 * The columns and rows of the tiles of the entry
+		 * */
+		private int minColumn = Integer.MAX_VALUE, minRow = Integer.MAX_VALUE, maxColumn = -1, maxRow = -1;
+
+		private void add(int column, int row, int[] pixels) {
+			if(count == columns.length) {
+				columns = Arrays.copyOf(columns, count * 2);
+				rows = Arrays.copyOf(rows, count * 2);
+				before = Arrays.copyOf(before, count * 2);
+				after = Arrays.copyOf(after, count * 2);
+			}//end if
+			columns[count] = column;
+			rows[count] = row;
+			before[count] = pixels;
+			count++;
+			minColumn = Math.min(minColumn, column);
+			minRow = Math.min(minRow, row);
+			maxColumn = Math.max(maxColumn, column);
+			maxRow = Math.max(maxRow, row);
+		}//end add method
+
+		/**
+		 * Method that tells if the entry has a tile in a range of tiles
+		 * */
+		private boolean hasTile(int column1, int row1, int column2, int row2) {
+			if(column1 > maxColumn || column2 < minColumn || row1 > maxRow || row2 < minRow) {
+				return false;
+			}//end if
+			for(int i = 0; i < count; i++) {
+				if(columns[i] >= column1 && columns[i] <= column2 && rows[i] >= row1 && rows[i] <= row2) {
+					return true;
+				}//end if
+			}//end for
+			return false;
+		}//end hasTile method
+	}//end Entry class
+
+	private TiledCanvas canvas;
+	private final Deque<Entry> undos = new ArrayDeque<>();
+	private final Deque<Entry> redos = new ArrayDeque<>();
+	/**
+	 * The entry of the operation that is being drawn, null between two operations
+	 * */
+	private Entry current;
+	private long memoryLimit;
+	private long memorySize;
+	/**
+	 * The number of entries holding each array of pixels, an array shared by several entries,
+	 * like the tile after an operation and before the next one, takes its memory once
+	 * */
+	private final Map<int[], Integer> holders = new IdentityHashMap<>();
+	private final ExecutorService compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "undo-compressor");
+			t.setDaemon(true);
+			return t;
+		}//end newThread
+	});
+	/**
+	 * The codecs used by the compressor thread only
+	 * */
+	private final DeflatePixelCodec deflater = new DeflatePixelCodec(Deflater.BEST_SPEED);
+	private final DeflatePixelCodec inflater = new DeflatePixelCodec(Deflater.BEST_SPEED);
+
+	/**
+	 * Constructor for the UndoHistory class with the default memory limit
+	 * */
+	public UndoHistory() {
+		this(DEFAULT_MEMORY_LIMIT);
+	}//end UndoHistory constructor
+
+	/**
+	 * Constructor for the UndoHistory class
+	 * @param memoryLimit The number of bytes the history can take
+	 * */
+	public UndoHistory(long memoryLimit) {
+		setMemoryLimit(memoryLimit);
+	}//end UndoHistory constructor
+
+	/**
+	 * Method that changes the canvas of the history, the entries of the old canvas are forgotten
+	 * @param canvas The canvas whose operations are recorded
+	 * */
+	public void setCanvas(TiledCanvas canvas) {
+		if(this.canvas != null) {
+			this.canvas.setTileListener(null);
+		}//end if
+		this.canvas = canvas;
+		current = null;
+		clear();
+	}//end setCanvas method
+
+	/**
+	 * Method that starts the entry of a new operation, every tile written on the canvas
+	 * until the entry ends is recorded. An entry that wasn't ended is ended first
+	 * */
+	public void begin() {
+		end();
+		current = new Entry();
+		canvas.startChange();
+		canvas.setTileListener(this);
+	}//end begin method
+
+	/**
+	 * Method that ends the entry of the operation and puts it on top of the undos. The redos
+	 * are forgotten if the operation changed something
+	 * */
+	public void end() {
+		if(current == null) {
+			return;
+		}//end if
+		Entry entry = current;
+		current = null;
+		canvas.setTileListener(null);
+		if(entry.count == 0) {
+			return;
+		}//end if
+		while(!redos.isEmpty()) {
+			forget(redos.pollFirst());
+		}//end while
+		if(entry.overwritten) {
+			return;
+		}//end if
+		for(int i = 0; i < entry.count; i++) {
+			entry.after[i] = canvas.share(entry.columns[i], entry.rows[i]);
+		}//end for
+		hold(entry);
+		undos.addLast(entry);
+		trim();
+		compressOldEntries();
+	}//end end method
+
+	/**
+	 * Method that stops recording the writes on the canvas, for the changes that are not
+	 * made by the user, like the ones received from the other clients
+	 * */
+	public void pause() {
+		if(current != null) {
+			canvas.setTileListener(null);
+		}//end if
+	}//end pause method
+
+	/**
+	 * Method that records again the writes on the canvas after a pause
+	 * */
+	public void resume() {
+		if(current != null) {
+			canvas.setTileListener(this);
+		}//end if
+	}//end resume method
+
+	/**
+	 * Method that forgets the entries with a tile in a region that another client changed,
+	 * undoing them would put back the tiles without what the other client drew
+	 * @param region The region of the canvas that was changed
+	 * */
+	public void changedByOthers(Rectangle region) {
+		if(region == null || region.isEmpty()) {
+			return;
+		}//end if
+		int column1 = region.x / TiledCanvas.TILE_SIZE;
+		int row1 = region.y / TiledCanvas.TILE_SIZE;
+		int column2 = (region.x + region.width - 1) / TiledCanvas.TILE_SIZE;
+		int row2 = (region.y + region.height - 1) / TiledCanvas.TILE_SIZE;
+		forgetTiles(undos, column1, row1, column2, row2);
+		forgetTiles(redos, column1, row1, column2, row2);
+		if(current != null && current.hasTile(column1, row1, column2, row2)) {
+			current.overwritten = true;
+		}//end if
+	}//end changedByOthers method
+
+	private void forgetTiles(Deque<Entry> entries, int column1, int row1, int column2, int row2) {
+		Iterator<Entry> iterator = entries.iterator();
+		while(iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if(entry.hasTile(column1, row1, column2, row2)) {
+				iterator.remove();
+				forget(entry);
+			}//end if
+		}//end while
+	}//end forgetTiles method
+
+	@Override
+	public void beforeWrite(int column, int row, int[] pixels) {
+		current.add(column, row, pixels);
+	}//end beforeWrite method
+
+	/**
+	 * Method that puts back the tiles as they were before the newest operation
+	 * @return the region of the canvas that changed, or null if there was nothing to undo
+	 * */
+	public Rectangle undo() {
+		end();
+		Entry entry = undos.pollLast();
+		if(entry == null) {
+			return null;
+		}//end if
+		Rectangle changed = restore(entry, true);
+		redos.addLast(entry);
+		decompressAhead();
+		return changed;
+	}//end undo method
+
+	/**
+	 * Method that puts back the tiles as they were after the newest operation that was undone
+	 * @return the region of the canvas that changed, or null if there was nothing to redo
+	 * */
+	public Rectangle redo() {
+		end();
+		Entry entry = redos.pollLast();
+		if(entry == null) {
+			return null;
+		}//end if
+		Rectangle changed = restore(entry, false);
+		undos.addLast(entry);
+		decompressAhead();
+		return changed;
+	}//end redo method
+
+	/**
+	 * Method that puts the pixels of an entry back in the tiles of the canvas
+	 * @param before true for the pixels before the operation, false for the ones after
+	 * @return the region of the tiles
+	 * */
+	private Rectangle restore(Entry entry, boolean before) {
+		decompress(entry);
+		int[][] pixels = before ? entry.before : entry.after;
+		Rectangle changed = null;
+		for(int i = 0; i < entry.count; i++) {
+			canvas.restore(entry.columns[i], entry.rows[i], pixels[i]);
+			Rectangle tile = new Rectangle(entry.columns[i] * TiledCanvas.TILE_SIZE, entry.rows[i] * TiledCanvas.TILE_SIZE,
+					TiledCanvas.TILE_SIZE, TiledCanvas.TILE_SIZE);
+			changed = changed == null ? tile : changed.union(tile);
+		}//end for
+		return changed;
+	}//end restore method
+
+	/**
+	 * Method that forgets the oldest entries while the history takes more memory than its limit
+	 * */
+	private void trim() {
+		while(memorySize > memoryLimit && !undos.isEmpty()) {
+			forget(undos.pollFirst());
+		}//end while
+		while(memorySize > memoryLimit && !redos.isEmpty()) {
+			forget(redos.pollFirst());
+		}//end while
+	}//end trim method
+
+	private void forget(Entry entry) {
+		entry.forgotten = true;
+		release(entry);
+	}//end forget method
+
+	/**
+	 * Method that adds the memory of the pixels of an entry, compressed or not, to the history
+	 * */
+	private void hold(Entry entry) {
+		if(entry.compressed != null) {
+			memorySize += entry.compressed.length;
+			return;
+		}//end if
+		for(int i = 0; i < entry.count; i++) {
+			hold(entry.before[i]);
+			hold(entry.after[i]);
+		}//end for
+	}//end hold method
+
+	private void hold(int[] pixels) {
+		if(pixels == null) {
+			return;
+		}//end if
+		Integer count = holders.get(pixels);
+		if(count == null) {
+			memorySize += TiledCanvas.TILE_BYTES;
+			holders.put(pixels, 1);
+		}else {
+			holders.put(pixels, count + 1);
+		}//end if else
+	}//end hold method
+
+	/**
+	 * Method that removes the memory of the pixels of an entry from the history
+	 * */
+	private void release(Entry entry) {
+		if(entry.compressed != null) {
+			memorySize -= entry.compressed.length;
+			return;
+		}//end if
+		for(int i = 0; i < entry.count; i++) {
+			release(entry.before[i]);
+			release(entry.after[i]);
+		}//end for
+	}//end release method
+
+	private void release(int[] pixels) {
+		if(pixels == null) {
+			return;
+		}//end if
+		int count = holders.get(pixels);
+		if(count == 1) {
+			memorySize -= TiledCanvas.TILE_BYTES;
+			holders.remove(pixels);
+		}else {
+			holders.put(pixels, count - 1);
+		}//end if else
+	}//end release method
+
+	/**
+	 * Method that hands the undos older than the newest ones to the compressor thread
+	 * */
+	private void compressOldEntries() {
+		Iterator<Entry> entries = undos.descendingIterator();
+		for(int i = 0; entries.hasNext(); i++) {
+			Entry entry = entries.next();
+			if(i >= UNCOMPRESSED_ENTRIES && entry.compressed == null && !entry.compressing) {
+				compress(entry);
+			}//end if
+		}//end for
+	}//end compressOldEntries method
+
+	/**
+	 * Method that compresses the pixels of an entry on the compressor thread. The pixels are
+	 * shared, so they never change, and the entry is only changed back on this thread
+	 * */
+	private void compress(final Entry entry) {
+		entry.compressing = true;
+		final int count = entry.count;
+		final int[][] tiles = new int[2 * count][];
+		System.arraycopy(entry.before, 0, tiles, 0, count);
+		System.arraycopy(entry.after, 0, tiles, count, count);
+		compressor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final boolean[] blank = new boolean[tiles.length];
+				int[] pixels = new int[tiles.length * TILE_PIXELS];
+				int used = 0;
+				for(int i = 0; i < tiles.length; i++) {
+					blank[i] = tiles[i] == null;
+					if(!blank[i]) {
+						System.arraycopy(tiles[i], 0, pixels, used, TILE_PIXELS);
+						used += TILE_PIXELS;
+					}//end if
+				}//end for
+				int length = deflater.encode(pixels, used);
+				final byte[] bytes = Arrays.copyOf(deflater.getBuffer(), length);
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						compressed(entry, bytes, blank);
+					}//end run
+				});
+			}//end run
+		});
+	}//end compress method
+
+	/**
+	 * Method that replaces the pixels of an entry with their compressed bytes
+	 * */
+	private void compressed(Entry entry, byte[] bytes, boolean[] blank) {
+		entry.compressing = false;
+		int tiles = 0;
+		for(boolean b : blank) {
+			tiles += b ? 0 : 1;
+		}//end for
+		if(entry.forgotten || entry.compressed != null || (long)bytes.length >= (long)tiles * TiledCanvas.TILE_BYTES) {
+			return;
+		}//end if
+		release(entry);
+		entry.compressed = bytes;
+		entry.blank = blank;
+		entry.before = null;
+		entry.after = null;
+		hold(entry);
+	}//end compressed method
+
+	/**
+	 * Method that starts to decompress on the compressor thread the entries that the next
+	 * undos and the next redo will put back, so the event dispatch thread doesn't wait for them
+	 * */
+	private void decompressAhead() {
+		Iterator<Entry> entries = undos.descendingIterator();
+		for(int i = 0; i < UNCOMPRESSED_ENTRIES && entries.hasNext(); i++) {
+			startDecompress(entries.next());
+		}//end for
+		if(!redos.isEmpty()) {
+			startDecompress(redos.peekLast());
+		}//end if
+	}//end decompressAhead method
+
+	/**
+	 * Method that hands a compressed entry to the compressor thread, the pixels are put back in
+	 * the entry on this thread when they are ready
+	 * */
+	private void startDecompress(final Entry entry) {
+		if(entry.compressed == null || entry.decompressing != null) {
+			return;
+		}//end if
+		final byte[] bytes = entry.compressed;
+		final boolean[] blank = entry.blank;
+		final int count = entry.count;
+		entry.decompressing = compressor.submit(new Callable<int[][]>() {
+			@Override
+			public int[][] call() throws IOException {
+				int used = 0;
+				for(boolean b : blank) {
+					used += b ? 0 : TILE_PIXELS;
+				}//end for
+				int[] pixels = new int[used];
+				inflater.decode(bytes, bytes.length, pixels, used);
+				int[][] tiles = new int[2 * count][];
+				int offset = 0;
+				for(int i = 0; i < blank.length; i++) {
+					if(!blank[i]) {
+						tiles[i] = Arrays.copyOfRange(pixels, offset, offset + TILE_PIXELS);
+						offset += TILE_PIXELS;
+					}//end if
+				}//end for
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						decompress(entry);
+					}//end run
+				});
+				return tiles;
+			}//end call
+		});
+	}//end startDecompress method
+
+	/**
+	 * Method that gives back its pixels to an entry that was compressed. It only waits for the
+	 * compressor thread when the entry is undone before it was decompressed ahead
+	 * */
+	private void decompress(Entry entry) {
+		if(entry.compressed == null || entry.forgotten) {
+			return;
+		}//end if
+		startDecompress(entry);
+		int[][] tiles;
+		boolean interrupted = false;
+		while(true) {
+			try {
+				tiles = entry.decompressing.get();
+				break;
+			}catch(InterruptedException e) {
+				interrupted = true;
+			}catch(ExecutionException e) {
+				//the bytes were made by this history, they are never corrupted
+				throw new IllegalStateException("The undo history couldn't be decompressed", e.getCause());
+			}//end try catch
+		}//end while
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}//end if
+		release(entry);
+		entry.compressed = null;
+		entry.blank = null;
+		entry.decompressing = null;
+		entry.before = Arrays.copyOfRange(tiles, 0, entry.count);
+		entry.after = Arrays.copyOfRange(tiles, entry.count, 2 * entry.count);
+		hold(entry);
+		trim();
+	}//end decompress method
+
+	/**
+	 * Method that forgets every entry
+	 * */
+	public void clear() {
+		while(!undos.isEmpty()) {
+			forget(undos.pollFirst());
+		}//end while
+		while(!redos.isEmpty()) {
+			forget(redos.pollFirst());
+		}//end while
+	}//end clear method
+
+	//Setters and getters for the attributes of the UndoHistory class
+	public void setMemoryLimit(long memoryLimit) {
+		if(memoryLimit < 0) {
+			throw new IllegalArgumentException("The memory limit can't be negative");
+		}//end if
+		this.memoryLimit = memoryLimit;
+		trim();
+	}//end setMemoryLimit
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}//end getMemoryLimit
+	public long getMemorySize() {
+		return memorySize;
+	}//end getMemorySize
+	public boolean canUndo() {
+		return !undos.isEmpty() || current != null && current.count > 0;
+	}//end canUndo
+	public boolean canRedo() {
+		return !redos.isEmpty();
+	}//end canRedo
+	public int getUndoCount() {
+		return undos.size();
+	}//end getUndoCount
+}//end UndoHistory class
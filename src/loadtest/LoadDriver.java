@@ -0,0 +1,219 @@
+package loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import network.MetricsReporter;
+import network.NetworkServer;
+import network.ServerCanvas;
+import network.ServerListener;
+
+/**
+ * Class that runs a load test: it connects N simulated clients to a server, makes every one
+ * of them send shares or strokes at a fixed rate and reports the throughput, the fan-out
+ * latency and the errors. The server can be a running one or one started in this process
+ * */
+public class LoadDriver {
+
+	/**
+	 * What the simulated clients send, SHARE sends tiles, STROKE sends drawing operations
+	 * and MIXED alternates them
+	 * */
+	public enum Mode {SHARE, STROKE, MIXED};
+
+	private static final String NAME_PREFIX = "sim-";
+	private static final long LOGIN_TIMEOUT = 10000;
+
+	private String host = "localhost";
+	private int port = 1501;
+	private int clientCount = 50;
+	private double rate = 10;
+	private Mode mode = Mode.SHARE;
+	private int duration = 30;
+	private int canvasWidth = ServerCanvas.DEFAULT_WIDTH;
+	private int canvasHeight = ServerCanvas.DEFAULT_HEIGHT;
+	/**
+	 * The engine of the server started in this process, null to use a running server
+	 * */
+	private NetworkServer.Engine embedded;
+
+	private final LoadStats stats = new LoadStats();
+	private SimulatedClient[] clients;
+
+	/**
+	 * Method that reads the options from the arguments of the program.
+	 * The known options are --host=name, --port=number, --clients=number, --rate=sends per
+	 * second of every client, --mode=share|stroke|mixed, --duration=seconds,
+	 * --canvas=widthxheight, which must be the one of the server, and
+	 * --embedded=thread|virtual|nio to start the server in this process
+	 * @param args The arguments of the program
+	 * @return the driver, with the default value for the options that are missing
+	 * */
+	public static LoadDriver parse(String[] args) {
+		LoadDriver driver = new LoadDriver();
+		for(String arg : args) {
+			if(arg.startsWith("--host=")) {
+				driver.host = value(arg);
+			}else if(arg.startsWith("--port=")) {
+				driver.port = Integer.parseInt(value(arg));
+			}else if(arg.startsWith("--clients=")) {
+				driver.clientCount = Integer.parseInt(value(arg));
+			}else if(arg.startsWith("--rate=")) {
+				driver.rate = Double.parseDouble(value(arg));
+			}else if(arg.startsWith("--mode=")) {
+				driver.mode = Mode.valueOf(value(arg).toUpperCase());
+			}else if(arg.startsWith("--duration=")) {
+				driver.duration = Integer.parseInt(value(arg));
+			}else if(arg.startsWith("--canvas=")) {
+				String[] size = value(arg).toLowerCase().split("x");
+				if(size.length != 2) {
+					throw new IllegalArgumentException("Invalid canvas size " + value(arg));
+				}//end if
+				driver.canvasWidth = Integer.parseInt(size[0]);
+				driver.canvasHeight = Integer.parseInt(size[1]);
+			}else if(arg.startsWith("--embedded=")) {
+				driver.embedded = NetworkServer.Engine.valueOf(value(arg).toUpperCase());
+			}else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}//end if else
+		}//end for
+		if(driver.clientCount <= 0 || driver.rate <= 0 || driver.duration <= 0) {
+			throw new IllegalArgumentException("The clients, the rate and the duration must be positive");
+		}//end if
+		if(driver.canvasWidth < ServerCanvas.TILE_SIZE || driver.canvasHeight < ServerCanvas.TILE_SIZE) {
+			throw new IllegalArgumentException("The canvas must hold at least one tile");
+		}//end if
+		return driver;
+	}//end parse method
+
+	private static String value(String arg) {
+		return arg.substring(arg.indexOf('=') + 1);
+	}//end value method
+
+	/**
+	 * Method that runs the test and prints its report
+	 * @return the number of errors
+	 * */
+	public long run() throws InterruptedException {
+		NetworkServer server = null;
+		if(embedded != null) {
+			server = new NetworkServer(ServerListener.NONE, port, embedded);
+			server.setCanvasSize(canvasWidth, canvasHeight);
+			server.startServer();
+			//the server accepts on its own thread
+			Thread.sleep(500);
+		}//end if
+		//every client draws in its own tile while there are enough of them
+		int columns = canvasWidth / ServerCanvas.TILE_SIZE;
+		int tiles = columns * (canvasHeight / ServerCanvas.TILE_SIZE);
+		clients = new SimulatedClient[clientCount];
+		List<SimulatedClient> connected = new ArrayList<>();
+		for(int i = 0; i < clientCount; i++) {
+			clients[i] = new SimulatedClient(this, i, NAME_PREFIX + i, i % tiles, columns);
+			try {
+				clients[i].connect(host, port);
+				connected.add(clients[i]);
+			}catch(IOException e) {
+				stats.connectFailures.increment();
+			}//end try catch
+		}//end for
+		long deadline = System.currentTimeMillis() + LOGIN_TIMEOUT;
+		for(SimulatedClient client : new ArrayList<>(connected)) {
+			if(!client.awaitLogin(Math.max(1, deadline - System.currentTimeMillis()))) {
+				stats.connectFailures.increment();
+				client.close();
+				connected.remove(client);
+			}//end if
+		}//end for
+		System.out.println(connected.size() + " of " + clientCount + " clients logged in to " + host + ":" + port
+				+ ", sending " + mode.toString().toLowerCase() + " at " + rate + "/s each for " + duration + " s");
+
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.min(connected.size() + 1, Runtime.getRuntime().availableProcessors() * 2));
+		long period = Math.max(1, (long) (1e9 / rate));
+		Random random = new Random();
+		for(final SimulatedClient client : connected) {
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				private int sent = 0;
+				@Override
+				public void run() {
+					try {
+						if(mode == Mode.SHARE || (mode == Mode.MIXED && sent % 2 == 0)) {
+							client.sendShare();
+						}else {
+							client.sendStroke();
+						}//end if else
+						sent++;
+					}catch(IOException e) {
+						stats.disconnects.increment();
+						client.close();
+						//the exception stops the schedule of this client
+						throw new IllegalStateException(e);
+					}//end try catch
+				}//end run
+			}, (long) (random.nextDouble() * period), period, TimeUnit.NANOSECONDS);
+		}//end for
+		long start = System.nanoTime();
+		for(int second = 1; second <= duration; second++) {
+			Thread.sleep(Math.max(0, start + second * 1000000000L - System.nanoTime()) / 1000000);
+			System.out.println(stats.progress((System.nanoTime() - start) / 1e9));
+		}//end for
+		scheduler.shutdownNow();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		//what was already sent still reaches the other clients
+		Thread.sleep(1000);
+		String serverReport = server == null ? null : new MetricsReporter(server).report();
+		for(SimulatedClient client : connected) {
+			client.close();
+		}//end for
+		System.out.println();
+		System.out.print(stats.report(seconds));
+		if(server != null) {
+			System.out.println();
+			System.out.print(serverReport);
+			server.stopServer();
+		}//end if
+		return stats.getErrors();
+	}//end run method
+
+	/**
+	 * Method that returns the index of the simulated client with the nickname
+	 * @return the index, or -1 if no simulated client has that nickname
+	 * */
+	int indexOf(String name) {
+		if(name == null || !name.startsWith(NAME_PREFIX)) {
+			return -1;
+		}//end if
+		try {
+			int index = Integer.parseInt(name.substring(NAME_PREFIX.length()));
+			return index >= 0 && index < clientCount ? index : -1;
+		}catch(NumberFormatException e) {
+			return -1;
+		}//end try catch
+	}//end indexOf method
+
+	//Getters for the attributes of the LoadDriver class
+	int getClientCount() {
+		return clientCount;
+	}//end getClientCount
+	SimulatedClient getClient(int index) {
+		return clients[index];
+	}//end getClient
+	LoadStats getStats() {
+		return stats;
+	}//end getStats
+
+	/**
+	 * Main entry of the load test, it exits with 1 if there was any error
+	 * @param args The options of the test, see {@link #parse(String[])}
+	 * */
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		long errors = parse(args).run();
+		System.exit(errors == 0 ? 0 : 1);
+	}//end main method
+}//end LoadDriver class
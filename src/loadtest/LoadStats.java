@@ -0,0 +1,75 @@
+package loadtest;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import network.LatencyHistogram;
+
+/**
+ * Class that counts what the simulated clients of a load test send, receive and get wrong.
+ * The counters are shared by all the clients, so they are striped
+ * */
+public class LoadStats {
+
+	final LongAdder sharesSent = new LongAdder();
+	final LongAdder strokesSent = new LongAdder();
+	final LongAdder framesReceived = new LongAdder();
+	final LongAdder bytesReceived = new LongAdder();
+	final LongAdder tilesVerified = new LongAdder();
+	final LongAdder strokesVerified = new LongAdder();
+	/**
+	 * The errors: connections that failed or were lost, frames that couldn't be decoded
+	 * and frames whose content wasn't what a client sent
+	 * */
+	final LongAdder connectFailures = new LongAdder();
+	final LongAdder disconnects = new LongAdder();
+	final LongAdder decodeErrors = new LongAdder();
+	final LongAdder verifyFailures = new LongAdder();
+	/**
+	 * The time from a client sending a share or a stroke to another client receiving it
+	 * */
+	final LatencyHistogram shareLatency = new LatencyHistogram();
+	final LatencyHistogram strokeLatency = new LatencyHistogram();
+
+	/**
+	 * Method that returns the total number of errors
+	 * */
+	public long getErrors() {
+		return connectFailures.sum() + disconnects.sum() + decodeErrors.sum() + verifyFailures.sum();
+	}//end getErrors method
+
+	/**
+	 * Method that returns one line with the counters, printed while the test runs
+	 * @param seconds The time since the test started
+	 * */
+	public String progress(double seconds) {
+		return String.format(Locale.ROOT, "%6.1fs sent %d shares %d strokes, received %d frames, %d errors",
+				seconds, sharesSent.sum(), strokesSent.sum(), framesReceived.sum(), getErrors());
+	}//end progress method
+
+	/**
+	 * Method that returns the report of the test
+	 * @param seconds The time the clients were sending
+	 * */
+	public String report(double seconds) {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.ROOT, "Duration           %.1f s%n", seconds));
+		out.append(String.format(Locale.ROOT, "Shares sent        %d (%.1f/s)%n", sharesSent.sum(), sharesSent.sum() / seconds));
+		out.append(String.format(Locale.ROOT, "Strokes sent       %d (%.1f/s)%n", strokesSent.sum(), strokesSent.sum() / seconds));
+		out.append(String.format(Locale.ROOT, "Frames received    %d (%.1f/s, %.2f MB/s)%n", framesReceived.sum(),
+				framesReceived.sum() / seconds, bytesReceived.sum() / seconds / (1024 * 1024)));
+		out.append(String.format(Locale.ROOT, "Tiles verified     %d%n", tilesVerified.sum()));
+		out.append(String.format(Locale.ROOT, "Strokes verified   %d%n", strokesVerified.sum()));
+		latency(out, "Share fan-out", shareLatency);
+		latency(out, "Stroke fan-out", strokeLatency);
+		out.append(String.format("Errors             %d (connect %d, disconnect %d, decode %d, verify %d)%n", getErrors(),
+				connectFailures.sum(), disconnects.sum(), decodeErrors.sum(), verifyFailures.sum()));
+		return out.toString();
+	}//end report method
+
+	private static void latency(StringBuilder out, String name, LatencyHistogram histogram) {
+		out.append(String.format(Locale.ROOT, "%-18s p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms (%d samples)%n",
+				name, histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6,
+				histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6, histogram.getCount()));
+	}//end latency method
+}//end LoadStats class
@@ -0,0 +1,328 @@
+package loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import network.LatencyHistogram;
+import network.ServerCanvas;
+import packet.FrameAssembler;
+import packet.MessageType;
+import packet.Packet;
+import packet.PacketCodec;
+import packet.StrokeOp;
+import packet.Tile;
+import packet.Trace;
+
+/**
+ * Class that simulates a painter without any window. It speaks the protocol of the
+ * NetworkClient, sends shares and strokes when the driver asks it to and checks everything
+ * it receives from the other simulated clients.
+ * Every client owns a tile of the canvas. A share fills the tile and writes a marker with
+ * the index of the client in its first pixel and the sequence number of the share in its
+ * second one. A stroke is drawn inside the tile, away from the marker, and its color is its
+ * sequence number. This lets a receiver tell who sent what it got and how long it took
+ * */
+public class SimulatedClient {
+
+	/**
+	 * The bit set in the first pixel of a tile written by a simulated client
+	 * */
+	private static final int MARKER = 0x800000;
+	private static final int SEQUENCE_MASK = 0xffffff;
+	/**
+	 * The number of sends whose time is remembered, a frame that arrives later than that
+	 * is verified but its latency is not measured
+	 * */
+	private static final int SENT_RING = 4096;
+
+	private final LoadDriver driver;
+	private final int index;
+	private final String name;
+	private final int tileX, tileY;
+	private final PacketCodec writeCodec = new PacketCodec();
+	private final PacketCodec readCodec = new PacketCodec();
+	private final FrameAssembler assembler = new FrameAssembler();
+	private final int[] tilePixels = new int[ServerCanvas.TILE_SIZE * ServerCanvas.TILE_SIZE];
+	private final CountDownLatch loggedIn = new CountDownLatch(1);
+	/**
+	 * When every sequence number was sent, read by the other clients when they receive it
+	 * */
+	private final AtomicLongArray sentTimes = new AtomicLongArray(SENT_RING);
+	private final AtomicIntegerArray sentSequences = new AtomicIntegerArray(SENT_RING);
+	private volatile int lastSent = -1;
+	private int sequence = 0;
+	/**
+	 * The newest sequence number received from every other client, only used by the reader thread
+	 * */
+	private final int[] lastShareSeen;
+	private final int[] lastStrokeSeen;
+	private Socket socket;
+	private DataOutputStream output;
+	private DataInputStream input;
+	private volatile byte pixelFormat = PacketCodec.FORMAT_INT_RGB;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor for the SimulatedClient class
+	 * @param driver The driver of the test
+	 * @param index The index of the client, from 0 to the number of clients
+	 * @param name The nickname the client logs in with
+	 * @param tileIndex The tile of the canvas the client draws in
+	 * @param columns The number of tiles in a row of the canvas
+	 * */
+	SimulatedClient(LoadDriver driver, int index, String name, int tileIndex, int columns) {
+		this.driver = driver;
+		this.index = index;
+		this.name = name;
+		this.tileX = (tileIndex % columns) * ServerCanvas.TILE_SIZE;
+		this.tileY = (tileIndex / columns) * ServerCanvas.TILE_SIZE;
+		this.lastShareSeen = new int[driver.getClientCount()];
+		this.lastStrokeSeen = new int[driver.getClientCount()];
+		Arrays.fill(lastShareSeen, -1);
+		Arrays.fill(lastStrokeSeen, -1);
+	}//end SimulatedClient constructor
+
+	/**
+	 * Method that connects to the server, logs in and starts reading what the server sends
+	 * @throws IOException if the server couldn't be reached
+	 * */
+	void connect(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		Packet login = new Packet(MessageType.HELLO, name);
+		login.setPixelFormats(PacketCodec.supportedFormats());
+		send(login);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readLoop();
+			}//end run
+		}, name + "-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}//end connect method
+
+	/**
+	 * Method that waits for the answer of the server to the login
+	 * @return false if the server didn't answer in time
+	 * */
+	boolean awaitLogin(long millis) throws InterruptedException {
+		return loggedIn.await(millis, TimeUnit.MILLISECONDS);
+	}//end awaitLogin method
+
+	/**
+	 * Method that sends the next share, the tile of the client filled with a new color
+	 * */
+	void sendShare() throws IOException {
+		int seq = nextSequence();
+		int color = (seq * 0x9E3779B1) & SEQUENCE_MASK;
+		Arrays.fill(tilePixels, color);
+		tilePixels[0] = MARKER | index;
+		tilePixels[1] = seq & SEQUENCE_MASK;
+		Packet packet = new Packet(MessageType.SHARE_TILES, name);
+		packet.setTiles(Collections.singletonList(new Tile(tileX, tileY, ServerCanvas.TILE_SIZE, ServerCanvas.TILE_SIZE, tilePixels)));
+		packet.setPixelFormat(pixelFormat);
+		packet.setTrace(startTrace(seq));
+		markSent(seq);
+		send(packet);
+		driver.getStats().sharesSent.increment();
+	}//end sendShare method
+
+	/**
+	 * Method that sends the next stroke, a line across the tile of the client
+	 * */
+	void sendStroke() throws IOException {
+		int seq = nextSequence();
+		int offset = 8 + seq % 16;
+		Packet packet = new Packet(MessageType.STROKE, name);
+		packet.setStroke(new StrokeOp(StrokeOp.Tool.CURVE, seq & SEQUENCE_MASK, 2,
+				tileX + offset, tileY + 8, tileX + ServerCanvas.TILE_SIZE - offset, tileY + ServerCanvas.TILE_SIZE - 8));
+		packet.setTrace(startTrace(seq));
+		markSent(seq);
+		send(packet);
+		driver.getStats().strokesSent.increment();
+	}//end sendStroke method
+
+	/**
+	 * Method that starts the trace of a send, so the server measures its hops
+	 * */
+	private static Trace startTrace(int seq) {
+		Trace trace = new Trace(Trace.now());
+		trace.setSequence(seq);
+		trace.setEncodeMicros(Trace.MEASURE);
+		return trace;
+	}//end startTrace method
+
+	private int nextSequence() {
+		return sequence++ & SEQUENCE_MASK;
+	}//end nextSequence method
+
+	private void markSent(int seq) {
+		int slot = seq & (SENT_RING - 1);
+		//the slot is invalid while its time is replaced
+		sentSequences.set(slot, -1);
+		sentTimes.set(slot, System.nanoTime());
+		sentSequences.set(slot, seq);
+		lastSent = seq;
+	}//end markSent method
+
+	/**
+	 * Method that returns when the sequence number was sent
+	 * @return the time from System.nanoTime, or -1 if it is not remembered anymore
+	 * */
+	long sentTime(int seq) {
+		int slot = seq & (SENT_RING - 1);
+		if(sentSequences.get(slot) != seq) {
+			return -1;
+		}//end if
+		long time = sentTimes.get(slot);
+		return sentSequences.get(slot) == seq ? time : -1;
+	}//end sentTime method
+
+	/**
+	 * Method that returns the newest sequence number that was sent
+	 * */
+	int getLastSent() {
+		return lastSent;
+	}//end getLastSent method
+
+	private void send(Packet packet) throws IOException {
+		if(closed) {
+			return;
+		}//end if
+		writeCodec.write(output, packet);
+	}//end send method
+
+	/**
+	 * Method of the reader thread that decodes and checks every frame until the connection is closed
+	 * */
+	private void readLoop() {
+		LoadStats stats = driver.getStats();
+		try {
+			while(!closed) {
+				byte[] frame = assembler.add(PacketCodec.readFrame(input));
+				if(frame == null) {
+					continue;
+				}//end if
+				long received = System.nanoTime();
+				stats.framesReceived.increment();
+				stats.bytesReceived.add(4 + frame.length);
+				Packet packet;
+				try {
+					packet = readCodec.decode(frame);
+				}catch(IOException e) {
+					stats.decodeErrors.increment();
+					continue;
+				}//end try catch
+				switch(packet.getType()) {
+				case HELLO:
+					if(packet.getPixelFormats() != null && packet.getPixelFormats().length > 0) {
+						pixelFormat = packet.getPixelFormats()[0];
+					}//end if
+					loggedIn.countDown();
+					break;
+				case STROKE:
+					verifyStroke(packet, received);
+					break;
+				case SHARE_TILES:
+					for(Tile tile : packet.getTiles()) {
+						verifyTile(tile, received);
+					}//end for
+					break;
+				default:
+					stats.verifyFailures.increment();
+				}//end switch
+			}//end while
+		}catch(IOException e) {
+			if(!closed) {
+				stats.disconnects.increment();
+			}//end if
+		}//end try catch
+	}//end readLoop method
+
+	/**
+	 * Method that checks a tile received from the server. A tile that no simulated client
+	 * wrote, or with a sequence number older than one already seen or never sent, is a failure
+	 * */
+	private void verifyTile(Tile tile, long received) {
+		LoadStats stats = driver.getStats();
+		int[] pixels = tile.getPixels();
+		if(tile.getWidth() != ServerCanvas.TILE_SIZE || tile.getHeight() != ServerCanvas.TILE_SIZE || pixels.length < 2
+				|| (pixels[0] & MARKER) == 0) {
+			stats.verifyFailures.increment();
+			return;
+		}//end if
+		int sender = pixels[0] & ~MARKER & SEQUENCE_MASK;
+		int seq = pixels[1] & SEQUENCE_MASK;
+		if(sender >= lastShareSeen.length || seq > driver.getClient(sender).getLastSent() || seq < lastShareSeen[sender]) {
+			stats.verifyFailures.increment();
+			return;
+		}//end if
+		stats.tilesVerified.increment();
+		if(seq > lastShareSeen[sender]) {
+			lastShareSeen[sender] = seq;
+			//a tile of another client that shares the same tile may hold what this client sent
+			if(sender != index) {
+				record(stats.shareLatency, sender, seq, received);
+			}//end if
+		}//end if
+	}//end verifyTile method
+
+	/**
+	 * Method that checks a stroke received from the server. The strokes of a client are
+	 * forwarded in order, so every sequence number must be newer than the last one
+	 * */
+	private void verifyStroke(Packet packet, long received) {
+		LoadStats stats = driver.getStats();
+		int sender = driver.indexOf(packet.getUserName());
+		int seq = packet.getStroke().getColor() & SEQUENCE_MASK;
+		if(sender < 0 || sender == index || seq > driver.getClient(sender).getLastSent() || seq <= lastStrokeSeen[sender]) {
+			stats.verifyFailures.increment();
+			return;
+		}//end if
+		lastStrokeSeen[sender] = seq;
+		stats.strokesVerified.increment();
+		record(stats.strokeLatency, sender, seq, received);
+	}//end verifyStroke method
+
+	private void record(LatencyHistogram histogram, int sender, int seq, long received) {
+		long sent = driver.getClient(sender).sentTime(seq);
+		if(sent >= 0) {
+			histogram.record(received - sent);
+		}//end if
+	}//end record method
+
+	/**
+	 * Method that closes the connection with the server
+	 * */
+	void close() {
+		closed = true;
+		try {
+			if(socket != null) {
+				socket.close();
+			}//end if
+		}catch(IOException e) {
+			e.printStackTrace();
+		}//end try catch
+	}//end close method
+
+	//Getters for the attributes of the SimulatedClient class
+	public String getName() {
+		return name;
+	}//end getName
+	public int getIndex() {
+		return index;
+	}//end getIndex
+}//end SimulatedClient class
@@ -0,0 +1,69 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import packet.FrameChunker;
+
+/**
+ * Class that writes the frames of an outbound queue on a blocking channel. A big frame is
+ * cut in chunks and the frames of the control lane that arrive meanwhile are written
+ * between two chunks, so a ping or a stroke never waits for a whole canvas
+ * */
+class ChunkedWriter {
+
+	private final WritableByteChannel out;
+	private final OutboundQueue<ByteBuffer> queue;
+	private final FrameChunker chunker = new FrameChunker();
+	/**
+	 * Where the written frames are counted, null to count nothing
+	 * */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Constructor for the ChunkedWriter class
+	 * @param out The channel where the frames are written
+	 * @param queue The queue of the frames
+	 * @param metrics Where the written frames are counted, can be null
+	 * */
+	ChunkedWriter(WritableByteChannel out, OutboundQueue<ByteBuffer> queue, ServerMetrics metrics) {
+		this.out = out;
+		this.queue = queue;
+		this.metrics = metrics;
+	}//end ChunkedWriter constructor
+
+	/**
+	 * Method that writes the frames of the queue until it is closed or finished
+	 * @throws IOException if the channel couldn't be written
+	 * @throws InterruptedException if the writer was interrupted while waiting
+	 * */
+	void writeAll() throws IOException, InterruptedException {
+		ByteBuffer frame;
+		while((frame = queue.take()) != null) {
+			if(!FrameChunker.needsChunking(frame)) {
+				write(frame);
+			}else {
+				chunker.start(frame);
+				while(chunker.isActive()) {
+					write(chunker.next());
+					ByteBuffer control;
+					while((control = queue.pollControl()) != null) {
+						write(control);
+					}//end while
+				}//end while
+			}//end if else
+			queue.bulkWritten();
+		}//end while
+	}//end writeAll method
+
+	private void write(ByteBuffer frame) throws IOException {
+		int bytes = frame.remaining();
+		while(frame.hasRemaining()) {
+			out.write(frame);
+		}//end while
+		if(metrics != null) {
+			metrics.framesSent(1, bytes);
+		}//end if
+	}//end write method
+}//end ChunkedWriter class
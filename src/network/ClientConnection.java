@@ -0,0 +1,74 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+/**
+ * Interface for a client connected to the server, independent of the engine that
+ * handles its socket
+ * */
+public interface ClientConnection {
+
+	/**
+	 * Method that puts the encoded frame in the outbound queue of the client. It doesn't wait
+	 * for the frame to be written, so it can be called while broadcasting. The same frame is
+	 * shared by all the recipients, so every client only queues its own duplicate of it.
+	 * The shares go in the bulk lane, the other frames in the control lane
+	 * @param frame The read-only buffer that holds the encoded frame
+	 * */
+	void send(ByteBuffer frame);
+
+	/**
+	 * Method that puts the newest version of the shared canvas in the single slot of the
+	 * client, replacing the version that is still waiting there. The frame is only built
+	 * when the client is ready to write it, after the frames that were queued before, and
+	 * on a thread that doesn't write for other clients, since building it encodes the canvas
+	 * @param latest Builds the frame, or returns null when there is nothing left to send
+	 * */
+	void sendLatest(Supplier<ByteBuffer> latest);
+
+	/**
+	 * Method that tells if a frame of the bulk lane is waiting or is being written to the
+	 * client. A frame of the control lane sent now may reach the client before it
+	 * */
+	boolean hasBulk();
+
+	/**
+	 * Method that returns the remote address of the client, used for logging
+	 * */
+	String getRemoteAddress();
+
+	/**
+	 * Method that sets how the pixels sent to the client are encoded, chosen when it logged in
+	 * @param pixelFormat One of the pixel formats of the PacketCodec
+	 * */
+	void setPixelFormat(byte pixelFormat);
+
+	/**
+	 * Method that returns how the pixels sent to the client are encoded
+	 * */
+	byte getPixelFormat();
+
+	/**
+	 * Method that returns the number of frames waiting in the outbound queue of the client
+	 * */
+	int getQueuedFrames();
+
+	/**
+	 * Method that returns the number of frames that were dropped or replaced because the client
+	 * didn't read them fast enough
+	 * */
+	long getDroppedFrames();
+
+	/**
+	 * Method that sends a last frame and closes the connection once it was written, the
+	 * frames that are queued after it are ignored
+	 * @param frame The read-only buffer that holds the encoded frame
+	 * */
+	void refuse(ByteBuffer frame);
+
+	/**
+	 * Method that closes the connection with the client
+	 * */
+	void close();
+}//end ClientConnection interface
@@ -0,0 +1,115 @@
+package network;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class that holds the clients that are logged in, without a lock. A name is reserved
+ * atomically, so two clients can never get the same one, and a client is found from its
+ * connection without going through the names, so removing it is O(1). The broadcast and
+ * the GUI iterate an immutable snapshot, which is replaced every time a client logs in or out
+ * */
+public class ClientRegistry {
+
+	private final ConcurrentMap<String, ClientConnection> byName = new ConcurrentHashMap<>();
+	private final ConcurrentMap<ClientConnection, String> byConnection = new ConcurrentHashMap<>();
+	private final AtomicReference<Map<String, ClientConnection>> snapshot =
+			new AtomicReference<Map<String, ClientConnection>>(Collections.<String, ClientConnection>emptyMap());
+
+	/**
+	 * Method that reserves the name for the client
+	 * @param name The userName of the client
+	 * @param client The connection of the client
+	 * @return false if the name is already taken or the client already has a name
+	 * */
+	public boolean register(String name, ClientConnection client) {
+		if(byName.putIfAbsent(name, client) != null) {
+			return false;
+		}//end if
+		if(byConnection.putIfAbsent(client, name) != null) {
+			byName.remove(name, client);
+			return false;
+		}//end if
+		updateSnapshot(name, client, true);
+		//the client may have been unregistered before it was put in the snapshot
+		if(byConnection.get(client) != name) {
+			updateSnapshot(name, client, false);
+		}//end if
+		return true;
+	}//end register method
+
+	/**
+	 * Method that frees the name of the client
+	 * @param client The connection of the client
+	 * @return the name the client had, or null if it had none
+	 * */
+	public String unregister(ClientConnection client) {
+		String name = byConnection.remove(client);
+		if(name == null) {
+			return null;
+		}//end if
+		byName.remove(name, client);
+		updateSnapshot(name, client, false);
+		return name;
+	}//end unregister method
+
+	/**
+	 * Method that replaces the snapshot with a copy where the name is given to the client,
+	 * or taken from it. It is retried if another thread replaced the snapshot first
+	 * */
+	private void updateSnapshot(String name, ClientConnection client, boolean add) {
+		Map<String, ClientConnection> current, next;
+		do {
+			current = snapshot.get();
+			next = new LinkedHashMap<>(current);
+			if(add) {
+				next.put(name, client);
+			}else {
+				next.remove(name, client);
+			}//end if else
+			next = Collections.unmodifiableMap(next);
+		}while(!snapshot.compareAndSet(current, next));
+	}//end updateSnapshot method
+
+	/**
+	 * Method that tells if the client has a name
+	 * */
+	public boolean contains(ClientConnection client) {
+		return byConnection.containsKey(client);
+	}//end contains method
+
+	/**
+	 * Method that returns the name of the client
+	 * @return the name, or null if the client has none
+	 * */
+	public String nameOf(ClientConnection client) {
+		return byConnection.get(client);
+	}//end nameOf method
+
+	/**
+	 * Method that returns the client with the name
+	 * @return the connection of the client, or null if nobody has that name
+	 * */
+	public ClientConnection get(String name) {
+		return byName.get(name);
+	}//end get method
+
+	/**
+	 * Method that returns the clients that are logged in right now, in the order they logged in.
+	 * The map never changes, so it can be iterated on any thread
+	 * */
+	public Map<String, ClientConnection> snapshot() {
+		return snapshot.get();
+	}//end snapshot method
+
+	/**
+	 * Method that returns the number of clients that are logged in
+	 * */
+	public int size() {
+		return byConnection.size();
+	}//end size method
+}//end ClientRegistry class
@@ -0,0 +1,113 @@
+package network;
+
+import java.util.Locale;
+
+import packet.Trace;
+
+/**
+ * Class that splits the time from a drawing being captured to it being seen by another
+ * client in the hops it goes through, with a histogram for every hop, so the slowest one
+ * can be found. The hops that go from one machine to another are measured with the clocks
+ * of both machines and include the difference between them
+ * */
+public class HopLatencies {
+
+	/**
+	 * The hops of a drawing, in the order it goes through them
+	 * */
+	public enum Hop {
+		/** From the drawing on the sender to the packet being handed to its sender thread */
+		CAPTURE,
+		/** The encoding of the pixels by the sender */
+		ENCODE,
+		/** From the sender to the server */
+		UPLINK,
+		/** From the server receiving the packet to the frame being queued for a recipient */
+		SERVER_QUEUE,
+		/** From the server to the recipient */
+		DOWNLINK,
+		/** The time the frame waited in the mailbox of the recipient */
+		CLIENT_QUEUE,
+		/** The decoding of the frame by the recipient */
+		DECODE,
+		/** The painting of the frame on the canvas of the recipient */
+		APPLY,
+		/** From the drawing on the sender to the end of its painting on the recipient */
+		TOTAL
+	};
+
+	private static final double[] PERCENTILES = {50, 90, 99};
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Hop.values().length];
+
+	/**
+	 * Constructor for the HopLatencies class
+	 * */
+	public HopLatencies() {
+		for(int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}//end for
+	}//end HopLatencies constructor
+
+	/**
+	 * Method that records the duration of a hop
+	 * @param hop The hop
+	 * @param nanos The duration in nanoseconds, a negative one counts as 0
+	 * */
+	public void record(Hop hop, long nanos) {
+		histograms[hop.ordinal()].record(nanos);
+	}//end record method
+
+	/**
+	 * Method that records the hops the sender wrote in the trace of a received packet
+	 * @param trace The trace, nothing is recorded if no sender started it
+	 * */
+	public void recordSender(Trace trace) {
+		if(trace == null || !trace.isStarted()) {
+			return;
+		}//end if
+		record(Hop.CAPTURE, trace.getCaptureMicros() * 1000L);
+		record(Hop.ENCODE, Math.max(0, trace.getEncodeMicros()) * 1000L);
+	}//end recordSender method
+
+	/**
+	 * Method that returns the histogram of a hop
+	 * */
+	public LatencyHistogram get(Hop hop) {
+		return histograms[hop.ordinal()];
+	}//end get method
+
+	/**
+	 * Method that writes the percentiles of every hop that was measured, in milliseconds,
+	 * and the hop that takes the most time at the 90th percentile
+	 * @return the text of the report
+	 * */
+	public String report() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.ROOT, "%-13s %9s %9s %9s %9s %9s%n", "hop", "count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+		Hop dominant = null;
+		long dominantTime = -1;
+		for(Hop hop : Hop.values()) {
+			LatencyHistogram histogram = get(hop);
+			if(histogram.getCount() == 0) {
+				continue;
+			}//end if
+			out.append(String.format(Locale.ROOT, "%-13s %9d", hop.toString().toLowerCase(), histogram.getCount()));
+			for(double percentile : PERCENTILES) {
+				out.append(String.format(Locale.ROOT, " %9.3f", histogram.getPercentile(percentile) / 1e6));
+			}//end for
+			out.append(String.format(Locale.ROOT, " %9.3f%n", histogram.getMax() / 1e6));
+			long p90 = histogram.getPercentile(90);
+			if(hop != Hop.TOTAL && p90 > dominantTime) {
+				dominant = hop;
+				dominantTime = p90;
+			}//end if
+		}//end for
+		if(dominant == null) {
+			out.append("Nothing was measured yet").append(String.format("%n"));
+		}else {
+			out.append(String.format(Locale.ROOT, "Slowest hop: %s (p90 %.3f ms)%n", dominant.toString().toLowerCase(), dominantTime / 1e6));
+		}//end if else
+		return out.toString();
+	}//end report method
+}//end HopLatencies class
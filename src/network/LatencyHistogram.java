@@ -0,0 +1,120 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that counts durations in buckets whose width grows with the value, like HdrHistogram.
+ * Every power of two is split in SUB_BUCKETS buckets, so a percentile is never off by more
+ * than 1 / SUB_BUCKETS of its value, from nanoseconds to hours, in a fixed array of counters.
+ * Recording is a few shifts and an atomic increment, so it can be done on any thread
+ * */
+public class LatencyHistogram {
+
+	/**
+	 * The number of buckets every power of two is split in
+	 * */
+	public static final int SUB_BUCKETS = 16;
+	private static final int SUB_BITS = 4;
+	private static final int BUCKETS = SUB_BUCKETS * 64;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Method that records a duration
+	 * @param nanos The duration in nanoseconds, a negative one counts as 0
+	 * */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+		long current;
+		while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			//retried until the max is at least the value
+		}//end while
+	}//end record method
+
+	/**
+	 * Method that returns the bucket of the value. The values below 2 * SUB_BUCKETS have
+	 * a bucket each, the others are in the bucket of their SUB_BITS + 1 highest bits
+	 * */
+	private static int indexOf(long value) {
+		if(value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}//end if
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_BUCKETS * shift + (int) (value >>> shift);
+	}//end indexOf method
+
+	/**
+	 * Method that returns the highest value that falls in the bucket
+	 * */
+	private static long highestValueOf(int index) {
+		if(index < 2 * SUB_BUCKETS) {
+			return index;
+		}//end if
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index - SUB_BUCKETS * shift;
+		return ((sub + 1) << shift) - 1;
+	}//end highestValueOf method
+
+	/**
+	 * Method that returns the value under which the given percentage of the durations fall
+	 * @param percentile The percentage, from 0 to 100
+	 * @return the value in nanoseconds, or 0 if nothing was recorded
+	 * */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}//end for
+		if(total == 0) {
+			return 0;
+		}//end if
+		long target = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= target) {
+				return Math.min(highestValueOf(i), max.get());
+			}//end if
+		}//end for
+		return max.get();
+	}//end getPercentile method
+
+	/**
+	 * Method that returns the number of recorded durations
+	 * */
+	public long getCount() {
+		return count.sum();
+	}//end getCount method
+
+	/**
+	 * Method that returns the sum of the recorded durations in nanoseconds
+	 * */
+	public long getSum() {
+		return sum.sum();
+	}//end getSum method
+
+	/**
+	 * Method that returns the mean of the recorded durations in nanoseconds
+	 * */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}//end getMean method
+
+	/**
+	 * Method that returns the longest recorded duration in nanoseconds
+	 * */
+	public long getMax() {
+		return max.get();
+	}//end getMax method
+}//end LatencyHistogram class
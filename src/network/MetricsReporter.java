@@ -0,0 +1,103 @@
+package network;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class that writes the metrics of a server as plain text, one value per line in the
+ * format scraped by Prometheus. The rates are measured since the previous report of the
+ * same reporter, so every viewer of the metrics should have its own reporter
+ * */
+public class MetricsReporter {
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private final NetworkServer server;
+	private ServerMetrics.Sample previous;
+
+	/**
+	 * Constructor for the MetricsReporter class
+	 * @param server The server whose metrics are reported
+	 * */
+	public MetricsReporter(NetworkServer server) {
+		this.server = server;
+	}//end MetricsReporter constructor
+
+	/**
+	 * Method that writes the current metrics of the server
+	 * @return the text of the report
+	 * */
+	public synchronized String report() {
+		ServerMetrics metrics = server.getMetrics();
+		ServerMetrics.Sample current = metrics.sample(server.getActiveConnections());
+		double seconds = previous == null ? 0 : (current.getTime() - previous.getTime()) / 1e9;
+		StringBuilder out = new StringBuilder();
+		value(out, "paint_connections_accepted_total", current.getConnectionsAccepted());
+		value(out, "paint_connections_active", current.getActiveConnections());
+		value(out, "paint_packets_in_total", current.getPacketsIn());
+		value(out, "paint_bytes_in_total", current.getBytesIn());
+		value(out, "paint_packets_out_total", current.getPacketsOut());
+		value(out, "paint_bytes_out_total", current.getBytesOut());
+		value(out, "paint_client_resyncs_total", current.getResyncs());
+		if(seconds > 0) {
+			rate(out, "paint_packets_in_per_second", current.getPacketsIn() - previous.getPacketsIn(), seconds);
+			rate(out, "paint_bytes_in_per_second", current.getBytesIn() - previous.getBytesIn(), seconds);
+			rate(out, "paint_packets_out_per_second", current.getPacketsOut() - previous.getPacketsOut(), seconds);
+			rate(out, "paint_bytes_out_per_second", current.getBytesOut() - previous.getBytesOut(), seconds);
+		}//end if
+		histogram(out, "paint_decode_seconds", metrics.getDecodeNanos());
+		histogram(out, "paint_encode_seconds", metrics.getEncodeNanos());
+		histogram(out, "paint_share_fanout_seconds", metrics.getFanoutNanos());
+		for(HopLatencies.Hop hop : HopLatencies.Hop.values()) {
+			LatencyHistogram histogram = metrics.getHops().get(hop);
+			if(histogram.getCount() > 0) {
+				histogram(out, "paint_hop_seconds", "hop=\"" + hop.toString().toLowerCase() + "\"", histogram);
+			}//end if
+		}//end for
+		for(Map.Entry<String, ClientConnection> entry : server.getConnectedClientMap().entrySet()) {
+			value(out, "paint_client_queue_depth{user=\"" + escape(entry.getKey()) + "\"}", entry.getValue().getQueuedFrames());
+			value(out, "paint_client_dropped_frames_total{user=\"" + escape(entry.getKey()) + "\"}", entry.getValue().getDroppedFrames());
+		}//end for
+		previous = current;
+		return out.toString();
+	}//end report method
+
+	private static void value(StringBuilder out, String name, long value) {
+		out.append(name).append(' ').append(value).append('\n');
+	}//end value method
+
+	private static void rate(StringBuilder out, String name, long delta, double seconds) {
+		out.append(name).append(' ').append(String.format(Locale.ROOT, "%.1f", delta / seconds)).append('\n');
+	}//end rate method
+
+	private static void histogram(StringBuilder out, String name, LatencyHistogram histogram) {
+		histogram(out, name, null, histogram);
+	}//end histogram method
+
+	/**
+	 * Method that writes the quantiles, the count, the sum and the max of the histogram, in seconds
+	 * @param labels The labels of every line, null for none
+	 * */
+	private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+		String prefix = labels == null ? "{" : "{" + labels + ",";
+		String suffix = labels == null ? " " : "{" + labels + "} ";
+		for(double quantile : QUANTILES) {
+			out.append(name).append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+				.append(seconds(histogram.getPercentile(quantile * 100))).append('\n');
+		}//end for
+		out.append(name).append("_max").append(suffix).append(seconds(histogram.getMax())).append('\n');
+		out.append(name).append("_count").append(suffix).append(histogram.getCount()).append('\n');
+		out.append(name).append("_sum").append(suffix).append(seconds(histogram.getSum())).append('\n');
+	}//end histogram method
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}//end seconds method
+
+	/**
+	 * Method that escapes a user name for a label, the names are chosen by the clients
+	 * */
+	private static String escape(String name) {
+		return name.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}//end escape method
+}//end MetricsReporter class
@@ -1,20 +1,40 @@
 package network;
 
-import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import client.PaintClient;
+import packet.FrameAssembler;
+import packet.MessageDispatcher;
+import packet.MessageHandler;
+import packet.MessageType;
 import packet.Packet;
+import packet.PacketCodec;
+import packet.Tile;
+import packet.Trace;
 
 
 /**
@@ -22,14 +42,79 @@ import packet.Packet;
  * */
 public class NetworkClient {
 
+	/**
+	 * The default maximum number of times per second the received packets are applied on the canvas
+	 * */
+	public static final int DEFAULT_MAX_APPLY_RATE = 30;
+
+	/**
+	 * The maximum number of frames that can wait in each lane for the writer thread. A server
+	 * that leaves that many drawings unread is considered gone and the connection is closed
+	 * */
+	public static final int OUTBOUND_CAPACITY = 1024;
+
+	private static final Logger LOGGER = Logger.getLogger(NetworkClient.class.getName());
+
 	private Socket socket;
 	private String ipAdress;
 	private int serverPort;
-	private ObjectOutputStream output;
-	private ObjectInputStream input;
+	private WritableByteChannel output;
+	private DataInputStream input;
+	private final PacketCodec writeCodec = new PacketCodec();
+	private final PacketCodec readCodec = new PacketCodec();
 	private String nickname;
-	private Packet packet;
 	private PaintClient instance;
+	/**
+	 * The thread that sends the packets queued from the GUI, so the drawing never waits for the socket
+	 * */
+	private final ExecutorService sender = Executors.newSingleThreadExecutor();
+	/**
+	 * The encoded frames waiting for the writer thread. The shares go in the bulk lane
+	 * and are cut in chunks, the small messages go in the control lane and are written
+	 * between the chunks. Nothing the user drew is ever dropped, when a lane is full the
+	 * connection is closed instead
+	 * */
+	private final OutboundQueue<ByteBuffer> outbound = new OutboundQueue<>(OUTBOUND_CAPACITY, OutboundQueue.SlowConsumerPolicy.DISCONNECT);
+	private Thread writerT;
+	private final FrameAssembler assembler = new FrameAssembler();
+	/**
+	 * The frames received from the server that were not decoded yet. The reader thread
+	 * fills it and the decoder thread drains it, keeping only what is still visible
+	 * */
+	private final BlockingQueue<ReceivedFrame> mailbox = new LinkedBlockingQueue<>();
+	private volatile int maxApplyRate = DEFAULT_MAX_APPLY_RATE;
+	/**
+	 * The image where the full canvases are decoded, reused while their size doesn't change.
+	 * Only used by the decoder thread
+	 * */
+	private BufferedImage decodedImage;
+	/**
+	 * Where the received canvases are saved for debugging, null to save nothing, and the
+	 * thread that writes them
+	 * */
+	private volatile File snapshotFile;
+	private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor();
+	/**
+	 * How the pixels sent to the server are encoded, chosen by the server after the login
+	 * */
+	private volatile byte pixelFormat = PacketCodec.FORMAT_INT_RGB;
+	/**
+	 * The number of the last traced packet sent, only used while sending
+	 * */
+	private int traceSequence = 0;
+	/**
+	 * The hops of the drawings of the other clients, measured when they are applied
+	 * */
+	private final HopLatencies latencies = new HopLatencies();
+	/**
+	 * The time between the last ping and its pong in nanoseconds, -1 before the first pong
+	 * */
+	private volatile long roundTripNanos = -1;
+	/**
+	 * The handlers of the messages sent by the server, the drawings are added to the
+	 * list of the packets that will be applied on the canvas
+	 * */
+	private final MessageDispatcher<List<Packet>> dispatcher = createDispatcher();
 	
 	/**
 	 * NetworkClient class constructor that initializes the ipAdress and the 
@@ -50,39 +135,78 @@ public class NetworkClient {
 	 * */
 	public void connectToServer() {
 		try {
-			System.out.println("Attempting to connect to the server!!");
+			log("Connecting to the server " + ipAdress + ":" + serverPort);
 			socket = new Socket(ipAdress, serverPort);
-			System.out.println("Client " + socket.getRemoteSocketAddress() + " connected to the server!");
-			input = new ObjectInputStream(socket.getInputStream());
-			output = new ObjectOutputStream(socket.getOutputStream());
+			log("Connected to the server " + socket.getRemoteSocketAddress());
+			getStreams();
+			writerT = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						new ChunkedWriter(output, outbound, null).writeAll();
+					}catch(IOException e) {
+						log("Couldn't write to the server", e);
+					}catch(InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}//end try catch
+				}//end run method
+			});
+			writerT.setDaemon(true);
+			writerT.start();
 		}catch(UnknownHostException he) {
-			he.printStackTrace();
+			log("Unknown server " + ipAdress, he);
+			return;
 		}catch(IOException e) {
-			e.printStackTrace();
+			log("Couldn't connect to the server " + ipAdress + ":" + serverPort, e);
 			return;
 		}//end try catch statement
 		
 		nickname = JOptionPane.showInputDialog("Enter your nickname:");
-		System.out.println("User " + nickname + " connected!");
 		
 		try {
-			sendPacket(new Packet(nickname));
+			//the server answers with the pixel format it has chosen among the ones the client can read
+			Packet login = new Packet(MessageType.HELLO, nickname);
+			login.setPixelFormats(PacketCodec.supportedFormats());
+			sendPacket(login);
+			log("Logged in as " + nickname);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log("Couldn't send the login of " + nickname, e);
 		}//end try catch statement
 		
 		Thread packagesHandlerT = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				while(true) {
-					processConnection();
-				}//end while
+				processConnection();
 			}//end run method
 		});
 		packagesHandlerT.start();
+		Thread decoderT = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				decodeReceivedFrames();
+			}//end run method
+		});
+		decoderT.setDaemon(true);
+		decoderT.start();
 	}//end connectToServer method
 	
+	/**
+	 * Method that tells if the client is connected to the server and the connection was not closed
+	 * */
+	public boolean isConnected() {
+		Socket current = socket;
+		return current != null && current.isConnected() && !current.isClosed();
+	}//end isConnected method
+	
+	/**
+	 * Method that sets how many times per second at most the received packets are applied
+	 * on the canvas. The packets received in between are coalesced
+	 * @param maxApplyRate The number of times per second
+	 * */
+	public void setMaxApplyRate(int maxApplyRate) {
+		this.maxApplyRate = Math.max(1, maxApplyRate);
+	}//end setMaxApplyRate method
+	
 	
 	/**
 	 * Method that closes the connection with the server by closing
@@ -90,11 +214,19 @@ public class NetworkClient {
 	 * */
 	public void closeConnection() {
 		try {
+			sender.shutdown();
+			snapshotWriter.shutdown();
+			sendPacket(new Packet(MessageType.BYE, nickname));
+			//the writer writes what is waiting, the bye last, and stops
+			outbound.finish();
+			writerT.join(1000);
 			input.close();
 			output.close();
 			socket.close();
 		}catch(IOException e) {
-			e.printStackTrace();
+			log("Couldn't close the connection to the server", e);
+		}catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
 		}//end try catch 
 	}//end closeConnection method
 	
@@ -102,48 +234,343 @@ public class NetworkClient {
 	 * Method that initializes the input/output streams of the client
 	 * */
 	private void getStreams() throws IOException {
-		output = new ObjectOutputStream(socket.getOutputStream());
-		output.flush();
-		input = new ObjectInputStream(socket.getInputStream());
+		//the frames are written whole or in chunks by the writer thread, so they are not buffered
+		output = Channels.newChannel(socket.getOutputStream());
+		input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 	}//end getStreams method
 	
 	/**
-	 * Method that extracts the information from the packet received and puts it on the canvas
+	 * Method that reads the frames sent by the server and puts them in the mailbox
+	 * without decoding them, until the connection is closed
 	 * */
 	private void processConnection() {
 		try {
-			packet = (Packet) input.readObject();
-			int width = packet.getImageWidth();
-			int height = packet.getImageHeight();
-			int[][] pixels = packet.getImage();
-			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-			for(int x = 0; x < width; x++) {
-				for(int y = 0; y < height; y++) {
-					image.setRGB(x, y, pixels[x][y]);
-				}//end for
-			}//end for
-			ImageIO.write(image, "jpg", new File("test.jpg"));
-			Graphics g = instance.drawingP.getGraphics();
-			g.setColor(Color.BLACK);
-			g.fillRect(0, 0, 400, 300);
-			g.dispose();
-//			instance.drawingP.setBackBuffer(image);
-//			instance.drawingP.repaint();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			while(true) {
+				byte[] frame = assembler.add(PacketCodec.readFrame(input));
+				if(frame == null) {
+					continue;
+				}//end if
+				mailbox.put(new ReceivedFrame(frame, System.nanoTime()));
+			}//end while
+		}catch(IOException e) {
+			log("The connection to the server was closed: " + e.getMessage());
+		}catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
 		}//end try catch statement
 	}//end processConnection method
 	
 	/**
-	 * Method that sends the packet from the client to the server
+	 * Method of the decoder thread that drains the mailbox at most maxApplyRate times per
+	 * second. Everything that arrived in between is decoded here, off the event dispatch
+	 * thread, after the frames that are hidden by a newer one were dropped, and then
+	 * applied at once on the event dispatch thread
+	 * */
+	private void decodeReceivedFrames() {
+		List<ReceivedFrame> frames = new ArrayList<>();
+		try {
+			while(true) {
+				frames.add(mailbox.take());
+				long start = System.nanoTime();
+				mailbox.drainTo(frames);
+				applyFrames(frames);
+				frames.clear();
+				long wait = 1000000000L / maxApplyRate - (System.nanoTime() - start);
+				if(wait > 0) {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				}//end if
+			}//end while
+		}catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}//end try catch
+	}//end decodeReceivedFrames method
+	
+	/**
+	 * Method that decodes the frames that are still visible and applies them in order
+	 * @param frames The frames in the order they were received
+	 * */
+	private void applyFrames(List<ReceivedFrame> frames) throws InterruptedException {
+		//a full image hides every drawing that was received before it
+		int first = 0;
+		for(int i = 0; i < frames.size(); i++) {
+			if(PacketCodec.kindOf(frames.get(i).frame) == MessageType.SHARE_FULL) {
+				first = i;
+			}//end if
+		}//end for
+		final List<Packet> packets = new ArrayList<>();
+		List<Trace> traces = new ArrayList<>();
+		for(int i = 0; i < frames.size(); i++) {
+			ReceivedFrame received = frames.get(i);
+			MessageType kind = PacketCodec.kindOf(received.frame);
+			if(i < first && kind != null && kind.isDrawing()) {
+				continue;
+			}//end if
+			try {
+				long start = System.nanoTime();
+				Packet packet = decodeFrame(received.frame);
+				dispatcher.dispatch(packet, packets);
+				Trace trace = packet.getTrace();
+				if(trace != null && trace.isStarted()) {
+					latencies.record(HopLatencies.Hop.CLIENT_QUEUE, start - received.time);
+					latencies.record(HopLatencies.Hop.DECODE, System.nanoTime() - start);
+					latencies.record(HopLatencies.Hop.DOWNLINK, (Trace.at(received.time) - trace.getServerEnqueueTime()) * 1000);
+					traces.add(trace);
+				}//end if
+			}catch(IOException e) {
+				log("Couldn't decode a " + kind + " frame from the server", e);
+			}//end try catch
+		}//end for
+		//a tile hides the tiles with the same bounds that were received before it
+		Set<String> newer = new HashSet<>();
+		for(int i = packets.size() - 1; i >= 0; i--) {
+			List<Tile> tiles = packets.get(i).getTiles();
+			if(tiles == null) {
+				continue;
+			}//end if
+			List<Tile> visible = new ArrayList<>(tiles.size());
+			for(Tile tile : tiles) {
+				String bounds = tile.getX() + "," + tile.getY() + "," + tile.getWidth() + "," + tile.getHeight();
+				if(!newer.contains(bounds)) {
+					visible.add(tile);
+				}//end if
+			}//end for
+			for(Tile tile : visible) {
+				newer.add(tile.getX() + "," + tile.getY() + "," + tile.getWidth() + "," + tile.getHeight());
+			}//end for
+			packets.get(i).setTiles(visible);
+		}//end for
+		//the full image is decoded in the reusable image, which is copied by the event dispatch thread
+		BufferedImage image = null;
+		if(!packets.isEmpty() && packets.get(0).getImage() != null) {
+			image = decodedImage;
+			packets.remove(0);
+			if(snapshotFile != null) {
+				saveSnapshot(image);
+			}//end if
+		}//end if
+		if(image == null && packets.isEmpty()) {
+			return;
+		}//end if
+		final BufferedImage received = image;
+		//everything is applied with a single repaint, and the decoder waits for it so it can reuse its image
+		long start = System.nanoTime();
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					instance.drawingP.applyReceived(received, packets);
+				}//end run method
+			});
+		}catch(InvocationTargetException e) {
+			log("Couldn't apply the received drawings", e.getCause());
+		}//end try catch
+		long applied = System.nanoTime();
+		for(Trace trace : traces) {
+			latencies.recordSender(trace);
+			latencies.record(HopLatencies.Hop.UPLINK, (trace.getServerReceiveTime() - trace.getSentTime()) * 1000);
+			latencies.record(HopLatencies.Hop.SERVER_QUEUE, (trace.getServerEnqueueTime() - trace.getServerReceiveTime()) * 1000);
+			latencies.record(HopLatencies.Hop.APPLY, applied - start);
+			latencies.record(HopLatencies.Hop.TOTAL, (Trace.at(applied) - trace.getOriginTime()) * 1000);
+		}//end for
+	}//end applyFrames method
+	
+	/**
+	 * Method that creates the table of the handlers of the messages sent by the server.
+	 * The cursors of the other clients are not shown, so they have no handler
+	 * */
+	private MessageDispatcher<List<Packet>> createDispatcher() {
+		MessageHandler<List<Packet>> drawing = new MessageHandler<List<Packet>>() {
+			@Override
+			public void handle(Packet packet, List<Packet> packets) {
+				packets.add(packet);
+			}//end handle
+		};
+		return new MessageDispatcher<List<Packet>>()
+			.on(MessageType.SHARE_FULL, drawing)
+			.on(MessageType.SHARE_TILES, drawing)
+			.on(MessageType.STROKE, drawing)
+			.on(MessageType.HELLO, new MessageHandler<List<Packet>>() {
+				@Override
+				public void handle(Packet packet, List<Packet> packets) {
+					if(packet.getPixelFormats() != null && packet.getPixelFormats().length > 0) {
+						pixelFormat = packet.getPixelFormats()[0];
+						log("The server has chosen the " + PacketCodec.formatName(pixelFormat) + " pixel format");
+					}//end if
+				}//end handle
+			})
+			.on(MessageType.PONG, new MessageHandler<List<Packet>>() {
+				@Override
+				public void handle(Packet packet, List<Packet> packets) {
+					roundTripNanos = System.nanoTime() - packet.getPingTime();
+				}//end handle
+			})
+			.on(MessageType.BYE, new MessageHandler<List<Packet>>() {
+				@Override
+				public void handle(Packet packet, List<Packet> packets) {
+					if(packet.getUserName() != null && packet.getUserName().equals(nickname)) {
+						showEnd("The server has refused the name " + nickname + ", another user has it");
+					}else {
+						showEnd("The server has closed the session");
+					}//end if else
+				}//end handle
+			});
+	}//end createDispatcher method
+	
+	/**
+	 * Method that logs the end of the session and tells the user in a dialog, on the event dispatch thread
+	 * @param message Why the session has ended
+	 * */
+	private void showEnd(final String message) {
+		log(message);
+		if(instance == null) {
+			return;
+		}//end if
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				JOptionPane.showMessageDialog(instance, message, "Disconnected", JOptionPane.WARNING_MESSAGE);
+			}//end run method
+		});
+	}//end showEnd method
+	
+	private static void log(String message) {
+		LOGGER.info(message);
+	}//end log method
+	
+	private static void log(String message, Throwable error) {
+		LOGGER.log(Level.WARNING, message, error);
+	}//end log method
+	
+	/**
+	 * Method that decodes a frame, decoding a full image in the reusable image when it has the same size
+	 * */
+	private Packet decodeFrame(byte[] frame) throws IOException {
+		int[] reused = decodedImage == null ? null : PacketCodec.getPixels(decodedImage);
+		Packet packet = readCodec.decode(frame, reused);
+		if(packet.getImage() != null && packet.getImage() != reused) {
+			//the size has changed, the new pixels become the reusable image
+			decodedImage = PacketCodec.toImage(packet.getImage(), packet.getImageWidth(), packet.getImageHeight());
+		}//end if
+		return packet;
+	}//end decodeFrame method
+	
+	/**
+	 * Method that sets the file where every full canvas received from the server is saved,
+	 * for debugging. The format is given by the extension of the file
+	 * @param snapshotFile The file, or null to save nothing
+	 * */
+	public void setSnapshotFile(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}//end setSnapshotFile method
+	
+	/**
+	 * Method that copies the image and writes the copy to the snapshot file on the
+	 * snapshot thread, so the decoder never waits for the disk
+	 * */
+	private void saveSnapshot(BufferedImage image) {
+		final File file = snapshotFile;
+		final BufferedImage copy = PacketCodec.toImage(PacketCodec.getPixels(image).clone(), image.getWidth(), image.getHeight());
+		snapshotWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				String name = file.getName();
+				String format = name.contains(".") ? name.substring(name.lastIndexOf('.') + 1) : "png";
+				try {
+					ImageIO.write(copy, format, file);
+				}catch(IOException e) {
+					log("Couldn't save the snapshot " + file, e);
+				}//end try catch
+			}//end run method
+		});
+	}//end saveSnapshot method
+	
+	/**
+	 * Method that encodes the packet and queues it for the writer thread in the lane of its kind
 	 * @param packet The packet object that will be sent to the server
-	 * @throws IOException 
+	 * @throws IOException if the lane is full, the connection is closed then
 	 * */
-	public void sendPacket(Packet packet) throws IOException {
-		//ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-		output.writeObject(packet);
+	public synchronized void sendPacket(Packet packet) throws IOException {
+		if(packet.getType().isDrawing()) {
+			packet.setPixelFormat(pixelFormat);
+			//a drawing whose capture didn't start a trace is traced from now on
+			Trace trace = packet.getTrace();
+			if(trace == null) {
+				trace = new Trace(Trace.now());
+				packet.setTrace(trace);
+			}//end if
+			trace.setSequence(++traceSequence);
+			trace.setCaptureMicros((int) (Trace.now() - trace.getOriginTime()));
+			trace.setEncodeMicros(Trace.MEASURE);
+		}//end if
+		ByteBuffer frame = writeCodec.encode(packet);
+		//a drawing may only pass the shares that are waiting when they don't hide it, or the
+		//server would apply it before a share captured earlier and lose it
+		MessageType type = packet.getType();
+		boolean queued;
+		if(type.isBulk() || (type.isDrawing() && outbound.hasBulk())) {
+			queued = outbound.offer(frame);
+		}else {
+			queued = outbound.offerControl(frame);
+		}//end if else
+		if(!queued) {
+			//the server doesn't read anymore, the writer stuck on the socket is woken up by closing it
+			outbound.close();
+			socket.close();
+			throw new IOException("The server has not read the last " + OUTBOUND_CAPACITY + " messages, the connection was closed");
+		}//end if
 	}//end sendPacket method
 	
+	/**
+	 * Method that queues the packet to be sent by the sender thread and returns immediately
+	 * @param packet The packet object that will be sent to the server
+	 * */
+	public void queuePacket(final Packet packet) {
+		sender.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sendPacket(packet);
+				} catch (IOException e) {
+					showEnd(e.getMessage());
+				}//end try catch statement
+			}//end run method
+		});
+	}//end queuePacket method
+	
+	/**
+	 * Method that asks the server for a pong, to measure the round trip time
+	 * */
+	public void ping() {
+		Packet ping = new Packet(MessageType.PING, nickname);
+		ping.setPingTime(System.nanoTime());
+		queuePacket(ping);
+	}//end ping method
+	
+	/**
+	 * Method that returns the time between the last ping and its pong in nanoseconds,
+	 * or -1 if no pong was received yet
+	 * */
+	public long getRoundTripNanos() {
+		return roundTripNanos;
+	}//end getRoundTripNanos method
+	
+	/**
+	 * Method that returns the hops of the drawings received from the other clients
+	 * */
+	public HopLatencies getLatencies() {
+		return latencies;
+	}//end getLatencies method
+	
+	/**
+	 * Class that holds a frame read from the server and when it was read
+	 * */
+	private static class ReceivedFrame {
+		private final byte[] frame;
+		private final long time;
+		
+		ReceivedFrame(byte[] frame, long time) {
+			this.frame = frame;
+			this.time = time;
+		}//end ReceivedFrame constructor
+	}//end ReceivedFrame inner class
+	
 }//end NetworkClient class
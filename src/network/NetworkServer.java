@@ -1,44 +1,164 @@
 package network;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
+import packet.FrameAssembler;
+import packet.MessageDispatcher;
+import packet.MessageHandler;
+import packet.MessageType;
 import packet.Packet;
-import server.PaintServer;
+import packet.PacketCodec;
+import packet.Trace;
 
 /**
  * Class that handles the networking of the server
  * */
 public class NetworkServer{
 
+	/**
+	 * The engines that can handle the sockets of the clients.
+	 * THREAD starts one thread for every client that blocks while reading,
+	 * VIRTUAL runs the same blocking listener on a virtual thread for every client,
+	 * NIO multiplexes all the clients on a small fixed pool of selector threads
+	 * */
+	public enum Engine {THREAD, VIRTUAL, NIO};
+
+	/**
+	 * The size of the socket send buffer of every client when none is set. The kernel would
+	 * grow it to megabytes, and a control frame written between two chunks of a share would
+	 * still wait behind all the chunks already in it
+	 * */
+	public static final int DEFAULT_SEND_BUFFER = 256 * 1024;
+
+	/**
+	 * The maximum number of codecs that encode packets at the same time, one for every processor
+	 * */
+	private static final int MAX_ENCODERS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Tells which queued frames are drawings, the ones a slow client may lose and get back with the whole canvas
+	 * */
+	private static final Predicate<ByteBuffer> DRAWING_FRAME = new Predicate<ByteBuffer>() {
+		@Override
+		public boolean test(ByteBuffer frame) {
+			MessageType kind = PacketCodec.kindOf(frame);
+			return kind != null && kind.isDrawing();
+		}//end test
+	};
+
+	/**
+	 * The codecs that are not encoding right now, because the codecs are not thread safe.
+	 * A thread borrows one for every packet, so their number doesn't grow with the number
+	 * of threads, and their buffers are reused by all of them
+	 * */
+	private final BlockingQueue<PacketCodec> encoders = new ArrayBlockingQueue<>(MAX_ENCODERS);
+	private final AtomicInteger createdEncoders = new AtomicInteger();
+
 	private ServerSocket socket;
 	private int port;
 	private boolean running = false;
+	private Engine engine;
+	private NioServerEngine nioEngine;
+	private ExecutorService listenerExecutor;
+	private final AtomicInteger activeConnections = new AtomicInteger();
+	private final ServerMetrics metrics = new ServerMetrics();
+	/**
+	 * Lock that guards the canvas and orders the changes of the canvas with the snapshots
+	 * sent to the clients that log in. The clients themselves are in a registry without lock.
+	 * A lock is used instead of synchronized methods so a virtual thread that waits for it
+	 * doesn't pin its carrier thread
+	 * */
+	private final ReentrantLock canvasLock = new ReentrantLock();
+	/**
+	 * The size of the outbound queue of every client and what happens when it is full
+	 * */
+	private int outboundCapacity = OutboundQueue.DEFAULT_CAPACITY;
+	private OutboundQueue.SlowConsumerPolicy slowConsumerPolicy = OutboundQueue.SlowConsumerPolicy.DROP_OLDEST;
+	private int sendBufferSize = DEFAULT_SEND_BUFFER;
+	/**
+	 * The pixel format the server prefers for the pixels it sends, when the client can read it,
+	 * and the level of Deflate
+	 * */
+	private byte preferredFormat = PacketCodec.FORMAT_DEFLATE;
+	private int deflateLevel = Deflater.BEST_SPEED;
 	
-	private PaintServer paintServer;
+	private ServerListener listener;
+	/**
+	 * The handlers of the messages sent by the clients, indexed by their kind
+	 * */
+	private final MessageDispatcher<ClientConnection> dispatcher = createDispatcher();
 	
 	/**
-	 * Map with all the user names of the clients connected to the server
+	 * The user names of the clients connected to the server
+	 * */
+	private final ClientRegistry clients = new ClientRegistry();
+	/**
+	 * The canvas of the session, where everything the clients share is applied
+	 * so the clients that connect later can catch up
+	 * */
+	private ServerCanvas canvas = new ServerCanvas(ServerCanvas.DEFAULT_WIDTH, ServerCanvas.DEFAULT_HEIGHT);
+	/**
+	 * The tiles of the canvas that changed since the last share was written to every
+	 * client, changed under the lock of the canvas. A client is in the map only while
+	 * its latest-wins slot is waiting, it is removed without the lock when the client leaves
+	 * */
+	private final Map<ClientConnection, PendingShare> pendingTiles = new ConcurrentHashMap<>();
+	/**
+	 * The last frame built for a latest-wins slot, reused by the clients that wait for
+	 * the same tiles of the same version of the canvas. Guarded by the lock of the canvas
 	 * */
-	private Map<String, Socket> connectedClientMap = new HashMap<>();
+	private BitSet lastSharedTiles;
+	private byte lastSharedFormat;
+	private long lastSharedVersion = -1;
+	private ByteBuffer lastSharedFrame;
 	/**
-	 * Map with the canvas of all the clients connected to the server
+	 * The trace of the newest traced share, sent with the tiles built after it. Guarded by
+	 * the lock of the canvas
 	 * */
-	private Map<int[][], Socket> clientImagesMap = new HashMap<>();
+	private Trace latestShareTrace;
 	
 	/**
 	 * Constructor for the NetworkServer class that sets the port and the 
-	 * instance of the paint server
+	 * listener that receives the logs and the connected users
+	 * */
+	public NetworkServer(ServerListener listener, int port) {
+		this(listener, port, Engine.THREAD);
+	}//end NetworkServer constructor
+	
+	/**
+	 * Constructor for the NetworkServer class that sets the port, the 
+	 * listener that receives the logs and the connected users and the
+	 * engine that handles the clients
 	 * */
-	public NetworkServer(PaintServer paintServer, int port) {
+	public NetworkServer(ServerListener listener, int port, Engine engine) {
 		this.port = port;
-		this.paintServer = paintServer;
+		this.listener = listener;
+		this.engine = engine;
 	}//end NetworkServer constructor
 	
 	/**
@@ -46,24 +166,40 @@ public class NetworkServer{
 	 * the connection 
 	 * */
 	public void startServer() {
+		if(engine == Engine.NIO) {
+			try {
+				nioEngine = new NioServerEngine(this, port);
+				nioEngine.start();
+				log("NIO server initialized on port " + port);
+			}catch(IOException e) {
+				e.printStackTrace();
+			}//end try catch
+			return;
+		}//end if
 		try {
 			socket = new ServerSocket(port);
 			//log to the console what port is the socket initialized on
-			PaintServer.getInstance().log("Server socket initialized on port " + port);
+			log("Server socket initialized on port " + port);
 			running = true;
+			if(engine == Engine.VIRTUAL) {
+				listenerExecutor = newVirtualThreadExecutor();
+				if(listenerExecutor == null) {
+					log("WARNING: virtual threads need Java 21, the VIRTUAL engine runs as the THREAD engine");
+					engine = Engine.THREAD;
+				}//end if
+			}//end if
 			//new thread that starts the server
 			Thread serverStart = new Thread(new Runnable() {
 				@Override
 				public void run() {
-					PaintServer.getInstance().log("Listening for clients!!");
+					log("Listening for clients!!");
 					
 					while(running) {
 						try {
 							Socket s = socket.accept();
+							s.setSendBufferSize(sendBufferSize);
 							ClientListener cl = new ClientListener(s);
-							
-							Thread t = new Thread(cl);
-							t.start();
+							startThread(cl);
 						}catch(IOException ex) {
 							ex.printStackTrace();
 						}//end try catch statement
@@ -80,110 +216,767 @@ public class NetworkServer{
 	 * Method that stops the server and closes the socket
 	 * */
 	public void stopServer() {
-		try {
-			socket.close();
-			running = false;
-		}catch(IOException e) {
-			e.printStackTrace();
-		}//end try catch
+		if(nioEngine != null) {
+			nioEngine.stop();
+		}else {
+			try {
+				running = false;
+				socket.close();
+				if(listenerExecutor != null) {
+					listenerExecutor.shutdown();
+				}//end if
+			}catch(IOException e) {
+				e.printStackTrace();
+			}//end try catch
+		}//end if else
+		//frees the native memory of the compressors that are not encoding
+		PacketCodec codec;
+		while((codec = encoders.poll()) != null) {
+			codec.close();
+		}//end while
 	}//end stopServer method
 	
 	/**
-	 * Method that enters the userName of the client inside the map
-	 * @param packet The packet that was sent by the client
-	 * @param client The socket of the client
+	 * Method that hands a message to the listener of the server
+	 * @param message The message that will be logged
 	 * */
-	private synchronized void connectClient(Packet packet, Socket client) {
-		if(connectedClientMap.get(packet.getUserName()) != null) {
-			System.out.println("There already is a user with that name!!");
+	void log(String message) {
+		listener.log(message);
+	}//end log method
+	
+	/**
+	 * Method that tells the listener which users are connected now
+	 * */
+	private void usersChanged() {
+		listener.usersChanged(new ArrayList<String>(clients.snapshot().keySet()));
+	}//end usersChanged method
+	
+	/**
+	 * Method that runs the task on a virtual thread for the VIRTUAL engine or
+	 * on a new platform thread otherwise
+	 * @param task The listener or writer of a client
+	 * */
+	private void startThread(Runnable task) {
+		if(listenerExecutor != null) {
+			listenerExecutor.execute(task);
 		}else {
-			connectedClientMap.put(packet.getUserName(), client);
-			paintServer.updateView();
+			Thread t = new Thread(task);
+			t.start();
 		}//end if else
-	}//end connectClient method
+	}//end startThread method
+	
+	/**
+	 * Method that puts a duplicate of the frame in the lane of the queue that fits its kind.
+	 * Both lanes hold drawings, which are changes of the canvas: when the client falls so far
+	 * behind that a lane is full, the policy drops some of its drawings and the client is sent
+	 * the whole canvas instead, unless the policy disconnects it. The other frames of the
+	 * control lane, like the pongs, are kept
+	 * @param client The connection of the client that owns the queue
+	 * @return false if the lane is full and the client must be disconnected
+	 * */
+	boolean queueFrame(ClientConnection client, OutboundQueue<ByteBuffer> queue, ByteBuffer frame) {
+		MessageType kind = PacketCodec.kindOf(frame);
+		boolean queued = kind != null && kind.isBulk() ? queue.offerOrClear(frame.duplicate(), DRAWING_FRAME) : queue.offerControlOrClear(frame.duplicate(), DRAWING_FRAME);
+		if(queued) {
+			return true;
+		}//end if
+		if(queue.getPolicy() == OutboundQueue.SlowConsumerPolicy.DISCONNECT) {
+			return false;
+		}//end if
+		resync(client);
+		return true;
+	}//end queueFrame method
 	
 	/**
-	 * Method that removes the userName of the client from the map
-	 * @param client The socket of the client
+	 * Method that replaces the dropped backlog of a client with the whole canvas. Every tile
+	 * that was ever changed becomes pending for the client, so the frame built for its
+	 * latest-wins slot holds the newest content of the canvas, the tiles that are blank again included
+	 * @param client The connection of the client whose backlog was dropped
 	 * */
-	private synchronized void removeClient(Socket client) {
-		for(String nickname : connectedClientMap.keySet()) {
-			Socket socket = connectedClientMap.get(nickname);
-			if(socket.equals(client)) {
-				connectedClientMap.remove(nickname);
+	private void resync(ClientConnection client) {
+		metrics.clientResynced();
+		boolean fill;
+		canvasLock.lock();
+		try {
+			//the tiles that were never changed are still blank on the client
+			fill = addPendingTiles(client, canvas.getChangedTiles(), System.nanoTime());
+		}finally {
+			canvasLock.unlock();
+		}//end try finally
+		//a client whose whole canvas is already waiting has nothing more to catch up
+		if(fill) {
+			log("Client " + client.getRemoteAddress() + " fell behind, its backlog was dropped and the canvas is sent again");
+			fillSlots(Collections.singletonList(client));
+		}//end if
+	}//end resync method
+	
+	/**
+	 * Method that creates the codec that reads the frames of a client. An image bigger
+	 * than the canvas is refused before its pixels are allocated
+	 * */
+	PacketCodec newReadCodec() {
+		PacketCodec codec = new PacketCodec();
+		codec.setMaxImageSize(canvas.getWidth(), canvas.getHeight());
+		return codec;
+	}//end newReadCodec method
+	
+	/**
+	 * Method that creates a new outbound queue for a client with the configured size and policy
+	 * */
+	<T> OutboundQueue<T> newOutboundQueue() {
+		return new OutboundQueue<T>(outboundCapacity, slowConsumerPolicy);
+	}//end newOutboundQueue method
+	
+	/**
+	 * Method that sets the size of the outbound queues of the clients that connect from now on
+	 * @param capacity The maximum number of packets that can wait for a client
+	 * */
+	public void setOutboundCapacity(int capacity) {
+		this.outboundCapacity = capacity;
+	}//end setOutboundCapacity method
+	
+	/**
+	 * Method that sets the size of the socket send buffer of the clients that connect from now on
+	 * @param bytes The size in bytes, the operating system may round it
+	 * */
+	public void setSendBufferSize(int bytes) {
+		this.sendBufferSize = bytes;
+	}//end setSendBufferSize method
+	
+	/**
+	 * Method that returns the size of the socket send buffer of the clients
+	 * */
+	int getSendBufferSize() {
+		return sendBufferSize;
+	}//end getSendBufferSize method
+	
+	/**
+	 * Method that sets what happens to the clients that connect from now on when they
+	 * don't read fast enough. DROP_OLDEST drops the oldest drawing waiting for the client and
+	 * COALESCE_LATEST all of them, and both send it the whole canvas again
+	 * @param policy The policy applied when the outbound queue of a client is full
+	 * */
+	public void setSlowConsumerPolicy(OutboundQueue.SlowConsumerPolicy policy) {
+		this.slowConsumerPolicy = policy;
+	}//end setSlowConsumerPolicy method
+	
+	/**
+	 * Method that sets how the pixels are encoded for the clients that connect from now on
+	 * @param format The preferred pixel format, used when the client can read it
+	 * @param deflateLevel The level of Deflate, it must be set before the server is started
+	 * */
+	public void setPixelCodec(byte format, int deflateLevel) {
+		this.preferredFormat = format;
+		this.deflateLevel = deflateLevel;
+	}//end setPixelCodec method
+	
+	/**
+	 * Method that chooses the pixel format used with a client
+	 * @param formats The pixel formats the client can read, in the order it prefers them
+	 * @return the preferred format of the server if the client can read it, else the first
+	 * format of the client the server knows, else the pixels as they are
+	 * */
+	private byte negotiateFormat(byte[] formats) {
+		if(formats == null) {
+			return PacketCodec.FORMAT_INT_RGB;
+		}//end if
+		byte[] supported = PacketCodec.supportedFormats();
+		byte chosen = PacketCodec.FORMAT_INT_RGB;
+		for(int i = formats.length - 1; i >= 0; i--) {
+			if(formats[i] == preferredFormat) {
+				return preferredFormat;
 			}//end if
+			for(byte format : supported) {
+				if(formats[i] == format) {
+					chosen = format;
+				}//end if
+			}//end for
 		}//end for
-		paintServer.updateView();
+		return chosen;
+	}//end negotiateFormat method
+	
+	/**
+	 * Method that logs the ratio and the time of the last pixels encoded by the codec
+	 * @param codec The codec that has just encoded the pixels
+	 * @param what What was encoded
+	 * */
+	private void logEncoding(PacketCodec codec, String what) {
+		double ratio = codec.getLastEncodedBytes() == 0 ? 0 : (double) codec.getLastRawBytes() / codec.getLastEncodedBytes();
+		log(String.format("%s with %s: %d -> %d bytes (%.1fx) in %.2f ms", what, codec.getLastCodecName(),
+				codec.getLastRawBytes(), codec.getLastEncodedBytes(), ratio, codec.getLastEncodeNanos() / 1e6));
+	}//end logEncoding method
+	
+	/**
+	 * Method that replaces the canvas of the session with a blank one of the given size,
+	 * it must be called before the server is started
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 * */
+	public void setCanvasSize(int width, int height) {
+		this.canvas = new ServerCanvas(width, height);
+	}//end setCanvasSize method
+	
+	/**
+	 * Method that returns the canvas of the session
+	 * */
+	public ServerCanvas getCanvas() {
+		return canvas;
+	}//end getCanvas method
+	
+	/**
+	 * Method that creates an executor that runs every listener on its own virtual thread.
+	 * The factory is looked up at runtime so the server can be built for an older JVM
+	 * @return the executor, or null if the JVM has no virtual threads
+	 * */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}catch(ReflectiveOperationException | UnsupportedOperationException e) {
+			return null;
+		}//end try catch
+	}//end newVirtualThreadExecutor method
+	
+	/**
+	 * Method that tells if the JVM can run the VIRTUAL engine, virtual threads came with Java 21
+	 * */
+	public static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}catch(NoSuchMethodException e) {
+			return false;
+		}//end try catch
+	}//end hasVirtualThreads method
+	
+	/**
+	 * Method that encodes the packet with a borrowed codec and records the time it took
+	 * @param packet The packet
+	 * @return the encoded frame
+	 * @throws IOException if the packet couldn't be encoded
+	 * */
+	private ByteBuffer encode(Packet packet) throws IOException {
+		return encode(packet, null);
+	}//end encode method
+	
+	/**
+	 * Method that encodes the packet with a borrowed codec, records the time it took and
+	 * logs how its pixels were encoded
+	 * @param packet The packet
+	 * @param what What is logged with the encoding of the pixels, null to log nothing
+	 * @return the encoded frame
+	 * @throws IOException if the packet couldn't be encoded
+	 * */
+	private ByteBuffer encode(Packet packet, String what) throws IOException {
+		PacketCodec codec = borrowEncoder();
+		try {
+			long start = System.nanoTime();
+			ByteBuffer frame = codec.encode(packet);
+			metrics.encoded(System.nanoTime() - start);
+			if(what != null) {
+				logEncoding(codec, what);
+			}//end if
+			return frame;
+		}finally {
+			encoders.offer(codec);
+		}//end try finally
+	}//end encode method
+	
+	/**
+	 * Method that takes a codec that is not encoding, it is created while there are less
+	 * than MAX_ENCODERS, then the thread waits for one to be given back
+	 * @throws InterruptedIOException if the thread was interrupted while waiting
+	 * */
+	private PacketCodec borrowEncoder() throws InterruptedIOException {
+		PacketCodec codec = encoders.poll();
+		if(codec != null) {
+			return codec;
+		}//end if
+		if(createdEncoders.incrementAndGet() <= MAX_ENCODERS) {
+			return new PacketCodec(deflateLevel);
+		}//end if
+		createdEncoders.decrementAndGet();
+		try {
+			return encoders.take();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for an encoder");
+		}//end try catch
+	}//end borrowEncoder method
+	
+	/**
+	 * Method that returns the counters of the server, see {@link MetricsReporter}
+	 * */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}//end getMetrics method
+	
+	/**
+	 * Method that counts a new open connection and logs the number of active connections
+	 * */
+	void connectionOpened() {
+		metrics.connectionAccepted();
+		log("Active connections: " + activeConnections.incrementAndGet());
+	}//end connectionOpened method
+	
+	/**
+	 * Method that counts a closed connection and logs the number of active connections
+	 * */
+	void connectionClosed() {
+		log("Active connections: " + activeConnections.decrementAndGet());
+	}//end connectionClosed method
+	
+	/**
+	 * Method that returns the number of clients that are connected right now
+	 * */
+	public int getActiveConnections() {
+		return activeConnections.get();
+	}//end getActiveConnections method
+	
+	/**
+	 * Method that reserves the userName of the client, answers with the pixel format
+	 * chosen for the client and sends it a snapshot of the canvas. The snapshot is queued
+	 * under the lock of the canvas, so no frame shared in the meantime can be missing
+	 * from the snapshot or be sent twice. A second hello from a connection that already
+	 * logged in is ignored, the connection stays open
+	 * @param packet The packet that was sent by the client
+	 * @param client The connection of the client
+	 * */
+	private void connectClient(Packet packet, ClientConnection client) {
+		boolean fill = false;
+		canvasLock.lock();
+		try {
+			if(clients.contains(client)) {
+				//the connection already logged in, its name and snapshot stay as they are
+				log("Client " + client.getRemoteAddress() + " said hello again, it was ignored");
+				return;
+			}//end if
+			if(!clients.register(packet.getUserName(), client)) {
+				log("There already is a user with the name " + packet.getUserName() + ", " + client.getRemoteAddress() + " was refused");
+				refuse(packet, client);
+				return;
+			}//end if
+			byte format = negotiateFormat(packet.getPixelFormats());
+			client.setPixelFormat(format);
+			if(packet.getPixelFormats() != null) {
+				Packet answer = new Packet(MessageType.HELLO, packet.getUserName());
+				answer.setPixelFormats(new byte[] {format});
+				try {
+					client.send(encode(answer));
+				}catch(IOException e) {
+					e.printStackTrace();
+				}//end try catch
+				log("Client " + packet.getUserName() + " uses the " + PacketCodec.formatName(format) + " pixel format");
+			}//end if
+			//the snapshot is only the drawn tiles pending for the client, so it is taken and
+			//encoded in its slot outside of the lock, and a stroke that overtakes it is sent again
+			if(!canvas.isBlank()) {
+				fill = addPendingTiles(client, canvas.getDrawnTiles(), System.nanoTime());
+			}//end if
+		}finally {
+			canvasLock.unlock();
+		}//end try finally
+		if(fill) {
+			fillSlots(Collections.singletonList(client));
+		}//end if
+		usersChanged();
+	}//end connectClient method
+	
+	/**
+	 * Method that answers a client whose name is already used with a goodbye and closes its connection
+	 * @param packet The hello packet of the client
+	 * @param client the connection of the client
+	 * */
+	private void refuse(Packet packet, ClientConnection client) {
+		try {
+			client.refuse(encode(new Packet(MessageType.BYE, packet.getUserName())));
+		}catch(IOException e) {
+			e.printStackTrace();
+			client.close();
+		}//end try catch
+	}//end refuse method
+	
+	/**
+	 * Method that frees the userName of the client, without taking any lock
+	 * @param client The connection of the client
+	 * */
+	void removeClient(ClientConnection client) {
+		String name = clients.unregister(client);
+		pendingTiles.remove(client);
+		if(name != null) {
+			usersChanged();
+		}//end if
 	}//end removeClient method
 	
 	/**
-	 * Method that stores the canvas of the client inside a map
-	 * @param packet The packet that was send from the client
-	 * @param client The socket of the client
+	 * Method that counts a received packet, stamps its trace with the time it was received
+	 * and processes it
+	 * @param packet The packet that was decoded
+	 * @param client The connection of the client
+	 * @param bytes The size of the frame with its length
+	 * @param received When the frame was received, from System.nanoTime, before it was decoded
 	 * */
-	private synchronized void putClientImage(Packet packet, Socket client) {
-		if(clientImagesMap.containsValue(client)) {
-			clientImagesMap.replace(packet.getImage(), client);
-		}else {
-			clientImagesMap.put(packet.getImage(), client);
-		}//end if else
-	}//end putClientImage method
+	void packetReceived(Packet packet, ClientConnection client, int bytes, long received) {
+		countReceived(packet, bytes, received);
+		processPacket(packet, client);
+	}//end packetReceived method
+	
+	/**
+	 * Method that counts a received packet and stamps its trace with the time it was
+	 * received, without processing it
+	 * @param packet The packet that was decoded
+	 * @param bytes The size of the frame with its length
+	 * @param received When the frame was received, from System.nanoTime, before it was decoded
+	 * */
+	void countReceived(Packet packet, int bytes, long received) {
+		metrics.packetReceived(bytes, System.nanoTime() - received);
+		Trace trace = packet.getTrace();
+		if(trace != null && trace.isStarted()) {
+			trace.setServerReceiveTime(Trace.at(received));
+			metrics.traceReceived(trace);
+		}//end if
+	}//end countReceived method
+	
+	/**
+	 * Stamps the trace of the packet with the time it is queued for the recipients. The time
+	 * is carried by the frame, so it is stamped right before the packet is encoded
+	 * */
+	private void stampQueued(Packet packet) {
+		Trace trace = packet.getTrace();
+		if(trace != null && trace.isStarted()) {
+			trace.setServerEnqueueTime(Trace.now());
+		}//end if
+	}//end stampQueued method
+	
+	/**
+	 * Records the time the traced packet spent in the server, once the queues have accepted its frame
+	 * */
+	private void traceQueued(Packet packet) {
+		Trace trace = packet.getTrace();
+		if(trace != null && trace.isStarted()) {
+			metrics.traceQueued(trace, Trace.now());
+		}//end if
+	}//end traceQueued method
 	
 	/**
-	 * Method that processes the received packet from the client
+	 * Method that processes the received packet from the client with the handler of its kind
 	 * @param packet The packet that was received from the client
-	 * @param client the socket of the client
+	 * @param client the connection of the client
 	 * */
-	private synchronized void processPacket(Packet packet, Socket client, ObjectOutputStream out) {
-		if(!packet.getImageState()) {
-			connectClient(packet, client);
-		}else {
-			putClientImage(packet, client);
-			for(String nickname : connectedClientMap.keySet()) {
-				Socket socket = connectedClientMap.get(nickname);
-				if(socket.equals(client)) {
-					PaintServer.getInstance().log("Client " + nickname + " shared his screen!!");
-				}else {
-					try {
-						out.writeObject(packet);
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+	void processPacket(Packet packet, ClientConnection client) {
+		//a connection says hello before anything else, the packets of a connection that
+		//was refused or has left are ignored
+		if(packet.getType() != MessageType.HELLO && !clients.contains(client)) {
+			return;
+		}//end if
+		dispatcher.dispatch(packet, client);
+	}//end processPacket
+	
+	/**
+	 * Method that creates the table of the handlers of the messages sent by the clients
+	 * */
+	private MessageDispatcher<ClientConnection> createDispatcher() {
+		return new MessageDispatcher<ClientConnection>()
+			.on(MessageType.HELLO, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					connectClient(packet, client);
+				}//end handle
+			})
+			.on(MessageType.STROKE, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					forwardStroke(packet, client);
+				}//end handle
+			})
+			.on(MessageType.SHARE_TILES, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					mergeShare(packet, client);
+				}//end handle
+			})
+			.on(MessageType.SHARE_FULL, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					mergeShare(packet, client);
+				}//end handle
+			})
+			.on(MessageType.CURSOR, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					forwardCursor(packet, client);
+				}//end handle
+			})
+			.on(MessageType.PING, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					answerPing(packet, client);
+				}//end handle
+			})
+			.on(MessageType.BYE, new MessageHandler<ClientConnection>() {
+				@Override
+				public void handle(Packet packet, ClientConnection client) {
+					log("Client " + packet.getUserName() + " said goodbye");
+					client.close();
+				}//end handle
+			});
+	}//end createDispatcher method
+	
+	/**
+	 * Method that applies a drawing operation on the canvas and forwards it to the other clients
+	 * @param packet The stroke that was received from the client
+	 * @param client the connection of the client
+	 * */
+	private void forwardStroke(Packet packet, ClientConnection client) {
+		//the recipients are collected under the lock and the packet is sent outside of it,
+		//so a slow socket doesn't keep the other clients from connecting or sharing.
+		//The canvas is changed under the same lock, so a new client either sees the
+		//change in its snapshot or receives the packet, never both or none
+		long received = System.nanoTime();
+		List<ClientConnection> recipients = new ArrayList<>();
+		List<ClientConnection> overtaken = new ArrayList<>();
+		canvasLock.lock();
+		try {
+			BitSet changed = canvas.apply(packet);
+			for(ClientConnection connection : clients.snapshot().values()) {
+				if(!connection.equals(client)) {
+					recipients.add(connection);
+					//the stroke goes in the control lane and may pass a snapshot or tiles built
+					//before it, which would hide it, so its tiles are sent again after them
+					if(!changed.isEmpty() && connection.hasBulk() && addPendingTiles(connection, changed, received)) {
+						overtaken.add(connection);
+					}//end if
 				}//end if
 			}//end for
-			
-		}//end if else
-	}//end processPacket
+		}finally {
+			canvasLock.unlock();
+		}//end try finally
+		//the packet is encoded only once, whatever the number of recipients, and as late as
+		//possible so the time it was queued that its frame carries is close to the real one
+		ByteBuffer frame;
+		try {
+			stampQueued(packet);
+			frame = encode(packet);
+		}catch(IOException e) {
+			e.printStackTrace();
+			fillSlots(overtaken);
+			return;
+		}//end try catch
+		//sending only puts a view of the shared frame in the queue of every client
+		for(ClientConnection connection : recipients) {
+			connection.send(frame);
+		}//end for
+		traceQueued(packet);
+		fillSlots(overtaken);
+	}//end forwardStroke method
 	
 	/**
-	 * Method that returns the map with all the connected clients
-	 * @return connectedClientMap
+	 * Method that applies a share on the canvas and adds its tiles to the pending tiles of
+	 * the other clients
+	 * @param packet The full image or the tiles that were received from the client
+	 * @param client the connection of the client
 	 * */
-	public Map<String, Socket> getConnectedClientMap(){
-		return connectedClientMap;
-	}// end getConnectedClientMap method
+	private void mergeShare(Packet packet, ClientConnection client) {
+		//a share is not forwarded as it is: the changed tiles are added to the pending
+		//tiles of every recipient and only their newest content is written, so a client
+		//that shares faster than another one reads never fills its queue
+		long received = System.nanoTime();
+		List<ClientConnection> recipients = new ArrayList<>();
+		canvasLock.lock();
+		try {
+			BitSet changed = canvas.apply(packet);
+			if(packet.getTrace() != null && packet.getTrace().isStarted()) {
+				latestShareTrace = packet.getTrace();
+			}//end if
+			for(Map.Entry<String, ClientConnection> entry : clients.snapshot().entrySet()) {
+				ClientConnection connection = entry.getValue();
+				if(connection.equals(client)) {
+					log("Client " + entry.getKey() + " shared his screen!!");
+				}else if(!changed.isEmpty() && addPendingTiles(connection, changed, received)) {
+					recipients.add(connection);
+				}//end if else
+			}//end for
+		}finally {
+			canvasLock.unlock();
+		}//end try finally
+		//the clients whose slot was already waiting get the new tiles with it
+		fillSlots(recipients);
+	}//end mergeShare method
 	
+	/**
+	 * Method that adds changed tiles to the pending tiles of a client, under the lock of the canvas
+	 * @param connection The connection of the client
+	 * @param changed The tiles that changed
+	 * @param received When the change reached the server, from System.nanoTime
+	 * @return true if nothing was pending for the client, so its slot must be filled
+	 * */
+	private boolean addPendingTiles(ClientConnection connection, BitSet changed, long received) {
+		PendingShare pending = pendingTiles.get(connection);
+		boolean added = pending == null;
+		if(added) {
+			pending = new PendingShare(received);
+			pendingTiles.put(connection, pending);
+		}//end if
+		pending.tiles.or(changed);
+		//the client may have left after the snapshot was taken
+		if(!clients.contains(connection)) {
+			pendingTiles.remove(connection);
+		}//end if
+		return added;
+	}//end addPendingTiles method
 	
 	/**
-	 * Method that returns the map with all the canvases of the clients
-	 * @return clientImagesMap
+	 * Method that fills the latest-wins slot of the clients with their pending tiles, outside of the lock
 	 * */
-	public Map<int[][], Socket> getClientImagesMap(){
-		return clientImagesMap;
-	}//end getClientImagesMap method
+	private void fillSlots(List<ClientConnection> connections) {
+		for(final ClientConnection connection : connections) {
+			connection.sendLatest(new Supplier<ByteBuffer>() {
+				@Override
+				public ByteBuffer get() {
+					return takePendingTiles(connection);
+				}//end get method
+			});
+		}//end for
+	}//end fillSlots method
+	
+	/**
+	 * Method that forwards the position of the pointer of a client to the other clients.
+	 * Nothing is changed on the canvas, so no lock is taken
+	 * @param packet The cursor that was received from the client
+	 * @param client the connection of the client
+	 * */
+	private void forwardCursor(Packet packet, ClientConnection client) {
+		ByteBuffer frame;
+		try {
+			frame = encode(packet);
+		}catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}//end try catch
+		for(ClientConnection connection : clients.snapshot().values()) {
+			if(!connection.equals(client)) {
+				connection.send(frame);
+			}//end if
+		}//end for
+	}//end forwardCursor method
+	
+	/**
+	 * Method that answers a ping with a pong that holds the time of the ping
+	 * @param packet The ping that was received from the client
+	 * @param client the connection of the client
+	 * */
+	private void answerPing(Packet packet, ClientConnection client) {
+		Packet pong = new Packet(MessageType.PONG, packet.getUserName());
+		pong.setPingTime(packet.getPingTime());
+		try {
+			client.send(encode(pong));
+		}catch(IOException e) {
+			e.printStackTrace();
+		}//end try catch
+	}//end answerPing method
+	
+	/**
+	 * Method that builds the frame with the newest content of the tiles that are waiting
+	 * for the client, called when the client is ready to write it, on its writer thread or
+	 * on a worker of the NIO engine, since it takes the lock of the canvas and encodes
+	 * @param client The connection of the client
+	 * @return the frame, or null if nothing is waiting for the client
+	 * */
+	private ByteBuffer takePendingTiles(ClientConnection client) {
+		PendingShare pending;
+		BitSet tiles;
+		long version;
+		byte format = client.getPixelFormat();
+		Packet packet;
+		Trace trace;
+		canvasLock.lock();
+		try {
+			pending = pendingTiles.remove(client);
+			if(pending == null) {
+				return null;
+			}//end if
+			tiles = pending.tiles;
+			version = canvas.getVersion();
+			if(version == lastSharedVersion && format == lastSharedFormat && tiles.equals(lastSharedTiles)) {
+				metrics.shareDelivered(System.nanoTime() - pending.since);
+				return lastSharedFrame.duplicate();
+			}//end if
+			packet = canvas.snapshot(tiles, format);
+			trace = latestShareTrace;
+		}finally {
+			canvasLock.unlock();
+		}//end try finally
+		//the pixels were copied under the lock, the encoding is done outside of it
+		if(trace != null) {
+			packet.setTrace(trace.copy());
+			stampQueued(packet);
+		}//end if
+		ByteBuffer frame;
+		try {
+			frame = encode(packet, format != PacketCodec.FORMAT_INT_RGB ? packet.getTiles().size() + " tiles" : null);
+		}catch(IOException e) {
+			e.printStackTrace();
+			return null;
+		}//end try catch
+		//the frame is built by the writer of the client when it takes it, so it is queued now
+		traceQueued(packet);
+		canvasLock.lock();
+		try {
+			if(canvas.getVersion() == version) {
+				lastSharedTiles = tiles;
+				lastSharedFormat = format;
+				lastSharedVersion = version;
+				lastSharedFrame = frame;
+			}//end if
+		}finally {
+			canvasLock.unlock();
+		}//end try finally
+		metrics.shareDelivered(System.nanoTime() - pending.since);
+		return frame.duplicate();
+	}//end takePendingTiles method
+	
+	/**
+	 * Class that holds the tiles waiting for a client and when the oldest of their changes
+	 * reached the server
+	 * */
+	private static class PendingShare {
+		private final BitSet tiles = new BitSet();
+		private final long since;
+		
+		PendingShare(long since) {
+			this.since = since;
+		}//end PendingShare constructor
+	}//end PendingShare inner class
+	
+	/**
+	 * Method that returns the connected clients at this moment. The map is an immutable
+	 * snapshot, so it can be iterated on any thread while clients come and go
+	 * @return the user names of the clients with their connections
+	 * */
+	public Map<String, ClientConnection> getConnectedClientMap(){
+		return clients.snapshot();
+	}// end getConnectedClientMap method
 	
 	
 	
 	/**
 	 * Inner class that implements the runnable interface and 
-	 * handles the listening of clients
+	 * handles the listening of clients. The packets for the client are
+	 * written by a separate writer that drains the outbound queue
 	 * */
-	private class ClientListener implements Runnable{
+	private class ClientListener implements Runnable, ClientConnection{
 		
 		Socket client;
-		private ObjectOutputStream out;
-		private ObjectInputStream input = null;
+		private WritableByteChannel out;
+		private DataInputStream input = null;
+		private final PacketCodec readCodec = newReadCodec();
+		private final OutboundQueue<ByteBuffer> outbound = newOutboundQueue();
+		private final FrameAssembler assembler = new FrameAssembler();
+		/**
+		 * Whether the client sent a hello, nothing else is decoded before it
+		 * */
+		private boolean greeted = false;
+		private volatile byte pixelFormat = PacketCodec.FORMAT_INT_RGB;
 		public ClientListener(Socket client) {
 			this.client = client;
 			
@@ -191,54 +984,141 @@ public class NetworkServer{
 		
 		@Override
 		public void run() {
-			PaintServer.getInstance().log("Client has connected" + client.getRemoteSocketAddress());
+			log("Client has connected" + client.getRemoteSocketAddress());
+			connectionOpened();
 			boolean error = false;
 			
 			try {
 				
-				out = new ObjectOutputStream(client.getOutputStream());
-				input = new ObjectInputStream(client.getInputStream());
+				out = Channels.newChannel(client.getOutputStream());
+				input = new DataInputStream(new BufferedInputStream(client.getInputStream()));
 				
 			}catch (IOException e) {
-				System.out.println("Couldn't initialize the input and output streams!");
+				log("Couldn't open the streams of client " + client.getRemoteSocketAddress() + ": " + e.getMessage());
+				error = true;
 			}
-			System.out.println("Streams have been initialized successfully!");
+			if(!error) {
+				startThread(new Runnable() {
+					@Override
+					public void run() {
+						writeOutbound();
+					}//end run method
+				});
+			}//end if
 			while(!error && client.isConnected()) {
 				try {
-					//input = new ObjectInputStream(client.getInputStream());
-					Packet packet = (Packet) input.readObject();
-					processPacket(packet, client, out);
-				} catch (ClassNotFoundException cnfe) {
-					error = true;
-					cnfe.printStackTrace();
+					byte[] received = PacketCodec.readFrame(input);
+					//a connection that didn't say hello can't make the server decode or assemble big frames
+					if(!greeted && PacketCodec.kindOf(received) != MessageType.HELLO) {
+						continue;
+					}//end if
+					greeted = true;
+					byte[] frame = assembler.add(received);
+					if(frame == null) {
+						continue;
+					}//end if
+					long start = System.nanoTime();
+					Packet packet = readCodec.decode(frame);
+					packetReceived(packet, this, 4 + frame.length, start);
 				} catch (EOFException eofe) {
 					error = true;
-					PaintServer.getInstance().log("Client " + client.getRemoteSocketAddress() + " has disconnected! eof");
+					log("Client " + client.getRemoteSocketAddress() + " has disconnected! eof");
 //					eofe.printStackTrace();
 				} catch (IOException e) {
 					error = true;
-					PaintServer.getInstance().log("Client " + client.getRemoteSocketAddress() + " has disconnected!");
+					log("Client " + client.getRemoteSocketAddress() + " has disconnected!");
 //					e.printStackTrace();
 				}//end try catch statement
 			}//end while
 			
 			
 			try {
-				input.close();
-				out.close();
+				if(input != null) {
+					input.close();
+				}//end if
+				if(out != null) {
+					out.close();
+				}//end if
 			} catch (IOException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+				log("Couldn't close the streams of client " + client.getRemoteSocketAddress() + ": " + e1.getMessage());
 			}
-			removeClient(client);
-			
+			readCodec.close();
+			removeClient(this);
+			close();
+			connectionClosed();
+		}//end run method
+		
+		/**
+		 * Method that writes the frames of the outbound queue until the queue is closed
+		 * */
+		private void writeOutbound() {
+			try {
+				new ChunkedWriter(out, outbound, metrics).writeAll();
+			}catch(IOException | InterruptedException e) {
+				//the socket is closed below
+			}//end try catch
+			close();
+		}//end writeOutbound method
+		
+		@Override
+		public void send(ByteBuffer frame) {
+			if(!queueFrame(this, outbound, frame)) {
+				log("Client " + client.getRemoteSocketAddress() + " is too slow and was disconnected!");
+				close();
+			}//end if
+		}//end send method
+		
+		@Override
+		public boolean hasBulk() {
+			return outbound.hasBulk();
+		}//end hasBulk method
+		
+		@Override
+		public void sendLatest(Supplier<ByteBuffer> latest) {
+			outbound.offerLatest(latest);
+		}//end sendLatest method
+		
+		@Override
+		public String getRemoteAddress() {
+			return String.valueOf(client.getRemoteSocketAddress());
+		}//end getRemoteAddress method
+		
+		@Override
+		public void setPixelFormat(byte pixelFormat) {
+			this.pixelFormat = pixelFormat;
+		}//end setPixelFormat method
+		
+		@Override
+		public byte getPixelFormat() {
+			return pixelFormat;
+		}//end getPixelFormat method
+		
+		@Override
+		public int getQueuedFrames() {
+			return outbound.size();
+		}//end getQueuedFrames method
+		
+		@Override
+		public long getDroppedFrames() {
+			return outbound.getDropped();
+		}//end getDroppedFrames method
+		
+		@Override
+		public void refuse(ByteBuffer frame) {
+			outbound.offerControl(frame);
+			//the writer stops once the goodbye was written and closes the socket
+			outbound.finish();
+		}//end refuse method
+		
+		@Override
+		public void close() {
+			outbound.close();
 			try {
 				client.close();
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				log("Couldn't close the socket of client " + client.getRemoteSocketAddress() + ": " + e.getMessage());
 			}//end try catch statement
-		}//end run method
+		}//end close method
 	
 }//end ClientListener inner class
 	
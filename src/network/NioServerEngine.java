@@ -0,0 +1,644 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import packet.FrameAssembler;
+import packet.FrameChunker;
+import packet.MessageType;
+import packet.Packet;
+import packet.PacketCodec;
+
+/**
+ * Class that handles the clients of the server with non-blocking channels.
+ * One thread accepts the connections and hands them round robin to a small fixed
+ * pool of I/O threads, each one with its own selector. Every connection keeps its
+ * own read buffer, where the frames are parsed as soon as they are complete, and its
+ * own outbound queue of encoded frames, written by its I/O thread with gathering writes.
+ * A big frame is handed to the socket one chunk at a time, so the control frames that
+ * arrive meanwhile are written after the current chunk. The parsed packets are processed
+ * by a pool of worker threads, in order for every connection, and the frames of the
+ * latest-wins slots, which snapshot and encode the canvas, are built by the same workers,
+ * so the I/O threads only read and write
+ * */
+public class NioServerEngine {
+
+	/**
+	 * The default number of I/O threads, one for every processor
+	 * */
+	public static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+	/**
+	 * The default number of worker threads that process the packets, one for every processor
+	 * */
+	public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * The maximum number of frames that are handed to the socket in one gathering write
+	 * */
+	private static final int MAX_GATHER = 16;
+	/**
+	 * The number of parsed packets of a connection that can wait for a worker, the
+	 * connection is not read anymore until a worker has processed some of them
+	 * */
+	private static final int MAX_INBOX = 256;
+
+	private final NetworkServer server;
+	private final int port;
+	private final IoLoop[] loops;
+	private final int workerThreads;
+	private ExecutorService workers;
+	private ServerSocketChannel serverChannel;
+	private volatile boolean running = false;
+
+	/**
+	 * Constructor for the NioServerEngine class with one I/O thread for every processor
+	 * @param server The server that processes the packets
+	 * @param port The port where the server listens
+	 * */
+	public NioServerEngine(NetworkServer server, int port) {
+		this(server, port, DEFAULT_IO_THREADS);
+	}//end NioServerEngine constructor
+
+	/**
+	 * Constructor for the NioServerEngine class with one worker thread for every processor
+	 * @param server The server that processes the packets
+	 * @param port The port where the server listens
+	 * @param ioThreads The number of I/O threads
+	 * */
+	public NioServerEngine(NetworkServer server, int port, int ioThreads) {
+		this(server, port, ioThreads, DEFAULT_WORKER_THREADS);
+	}//end NioServerEngine constructor
+
+	/**
+	 * Constructor for the NioServerEngine class
+	 * @param server The server that processes the packets
+	 * @param port The port where the server listens
+	 * @param ioThreads The number of I/O threads
+	 * @param workerThreads The number of threads that process the packets
+	 * */
+	public NioServerEngine(NetworkServer server, int port, int ioThreads, int workerThreads) {
+		this.server = server;
+		this.port = port;
+		this.loops = new IoLoop[Math.max(1, ioThreads)];
+		this.workerThreads = Math.max(1, workerThreads);
+	}//end NioServerEngine constructor
+
+	/**
+	 * Method that opens the server channel and starts the accepting and I/O threads
+	 * @throws IOException if the server channel couldn't be opened
+	 * */
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		running = true;
+		workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread t = new Thread(task, "nio-worker-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}//end newThread method
+		});
+		for(int i = 0; i < loops.length; i++) {
+			loops[i] = new IoLoop(Selector.open());
+			Thread t = new Thread(loops[i], "nio-io-" + i);
+			t.setDaemon(true);
+			t.start();
+		}//end for
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.log("Listening for clients!!");
+				int next = 0;
+				while(running) {
+					try {
+						SocketChannel channel = serverChannel.accept();
+						channel.configureBlocking(false);
+						channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+						channel.setOption(StandardSocketOptions.SO_SNDBUF, server.getSendBufferSize());
+						loops[next].register(new NioConnection(channel, loops[next]));
+						next = (next + 1) % loops.length;
+					}catch(ClosedChannelException ce) {
+						return;
+					}catch(IOException ex) {
+						ex.printStackTrace();
+					}//end try catch statement
+				}//end while
+			}//end run
+		}, "nio-acceptor");
+		acceptor.start();
+	}//end start method
+
+	/**
+	 * Method that stops the threads and closes the server channel
+	 * */
+	public void stop() {
+		running = false;
+		try {
+			serverChannel.close();
+		}catch(IOException e) {
+			e.printStackTrace();
+		}//end try catch
+		for(IoLoop loop : loops) {
+			if(loop != null) {
+				loop.selector.wakeup();
+			}//end if
+		}//end for
+		if(workers != null) {
+			workers.shutdown();
+		}//end if
+	}//end stop method
+
+	/**
+	 * Inner class that runs the selector of one I/O thread
+	 * */
+	private class IoLoop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+		private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+		IoLoop(Selector selector) {
+			this.selector = selector;
+		}//end IoLoop constructor
+
+		/**
+		 * Method that hands a new connection to this loop
+		 * */
+		void register(NioConnection connection) {
+			pendingRegistrations.add(connection);
+			selector.wakeup();
+		}//end register method
+
+		/**
+		 * Method that asks this loop to start writing the queue of the connection
+		 * */
+		void requestWrite(NioConnection connection) {
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}//end requestWrite method
+
+		@Override
+		public void run() {
+			while(running) {
+				try {
+					selector.select();
+				}catch(IOException e) {
+					e.printStackTrace();
+					return;
+				}//end try catch
+				NioConnection connection;
+				while((connection = pendingRegistrations.poll()) != null) {
+					connection.register(selector);
+				}//end while
+				while((connection = pendingWrites.poll()) != null) {
+					connection.flush();
+				}//end while
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					connection = (NioConnection) key.attachment();
+					try {
+						if(key.isReadable()) {
+							connection.read();
+						}//end if
+						if(key.isValid() && key.isWritable()) {
+							connection.flush();
+						}//end if
+					}catch(CancelledKeyException ce) {
+						connection.close();
+					}//end try catch
+				}//end while
+			}//end while
+			try {
+				selector.close();
+			}catch(IOException e) {
+				e.printStackTrace();
+			}//end try catch
+		}//end run method
+	}//end IoLoop inner class
+
+	/**
+	 * Inner class that holds the state of one client connection
+	 * */
+	private class NioConnection implements ClientConnection {
+
+		private final SocketChannel channel;
+		private final IoLoop loop;
+		private final String remoteAddress;
+		private final PacketCodec readCodec = server.newReadCodec();
+		private final OutboundQueue<ByteBuffer> outbound = server.newOutboundQueue();
+		/**
+		 * The frames that are being written, only used by the loop thread
+		 * */
+		private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+		private int gathered = 0;
+		/**
+		 * The big frame that is being cut in chunks and its chunk that is being written,
+		 * only used by the loop thread
+		 * */
+		private final FrameChunker chunker = new FrameChunker();
+		private ByteBuffer chunk;
+		private final FrameAssembler assembler = new FrameAssembler();
+		/**
+		 * Whether a worker is building the frame of the latest-wins slot, and the frame it
+		 * built that the loop thread hasn't taken yet
+		 * */
+		private final AtomicBoolean building = new AtomicBoolean();
+		private volatile ByteBuffer built;
+		private final AtomicBoolean writeRequested = new AtomicBoolean();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		/**
+		 * Set when the connection is closed once its queue was written
+		 * */
+		private volatile boolean refused = false;
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		/**
+		 * Whether the client sent a hello, nothing else is decoded before it. Only used by the loop thread
+		 * */
+		private boolean greeted = false;
+		/**
+		 * The parsed packets waiting for a worker, the number of them, and whether a worker
+		 * is processing them
+		 * */
+		private final Queue<Packet> inbox = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger inboxSize = new AtomicInteger();
+		private final AtomicBoolean processing = new AtomicBoolean();
+		private final Runnable processor = new Runnable() {
+			@Override
+			public void run() {
+				processInbox();
+			}//end run
+		};
+		private volatile byte pixelFormat = PacketCodec.FORMAT_INT_RGB;
+		private SelectionKey key;
+
+		NioConnection(SocketChannel channel, IoLoop loop) throws IOException {
+			this.channel = channel;
+			this.loop = loop;
+			this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+		}//end NioConnection constructor
+
+		/**
+		 * Method that registers the channel with the selector of its loop, called on the loop thread
+		 * */
+		void register(Selector selector) {
+			try {
+				key = channel.register(selector, SelectionKey.OP_READ, this);
+				server.log("Client has connected" + remoteAddress);
+				server.connectionOpened();
+			}catch(ClosedChannelException e) {
+				close();
+			}//end try catch
+		}//end register method
+
+		/**
+		 * Method that reads what is available on the channel and parses every complete
+		 * frame, keeping the incomplete one for the next read. The packets are handed to
+		 * the workers. Called on the loop thread
+		 * */
+		void read() {
+			try {
+				if(channel.read(readBuffer) < 0) {
+					server.log("Client " + remoteAddress + " has disconnected! eof");
+					close();
+					return;
+				}//end if
+				readBuffer.flip();
+				//the size of the frame that is still incomplete, with its length
+				int incomplete = 0;
+				while(readBuffer.remaining() >= 4) {
+					int length = readBuffer.getInt(readBuffer.position());
+					if(length <= 0 || length > PacketCodec.MAX_FRAME_LENGTH) {
+						throw new IOException("Invalid frame length " + length);
+					}//end if
+					if(readBuffer.remaining() < 4 + length) {
+						incomplete = 4 + length;
+						if(readBuffer.capacity() < 4 + length) {
+							//grow the buffer so the whole frame fits inside it
+							ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+							bigger.put(readBuffer);
+							bigger.flip();
+							readBuffer = bigger;
+						}//end if
+						break;
+					}//end if
+					int end = readBuffer.position() + 4 + length;
+					long start = System.nanoTime();
+					byte kind = readBuffer.get(readBuffer.position() + 4);
+					//a connection that didn't say hello can't make the server decode or assemble big frames
+					if(!greeted && kind != MessageType.HELLO.getId()) {
+						readBuffer.position(end);
+						continue;
+					}//end if
+					greeted = true;
+					if(kind == MessageType.CHUNK.getId()) {
+						byte[] whole = assembler.addChunk(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position() + 4, length);
+						readBuffer.position(end);
+						if(whole != null) {
+							deliver(readCodec.decode(whole), 4 + whole.length, start);
+						}//end if
+						continue;
+					}//end if
+					//the frame is parsed where it is, the limit keeps a malformed frame from reading the next one
+					int limit = readBuffer.limit();
+					readBuffer.limit(end);
+					Packet packet;
+					try {
+						packet = readCodec.read(readBuffer);
+					}finally {
+						readBuffer.limit(limit);
+						readBuffer.position(end);
+					}//end try finally
+					deliver(packet, 4 + length, start);
+				}//end while
+				readBuffer.compact();
+				if(readBuffer.capacity() > READ_BUFFER_SIZE && incomplete <= READ_BUFFER_SIZE && readBuffer.position() <= READ_BUFFER_SIZE) {
+					//the big frame was read, the buffer goes back to its usual size
+					ByteBuffer smaller = ByteBuffer.allocate(READ_BUFFER_SIZE);
+					readBuffer.flip();
+					smaller.put(readBuffer);
+					readBuffer = smaller;
+				}//end if
+				if(key.isValid()) {
+					key.interestOps(interestOps());
+				}//end if
+			}catch(IOException e) {
+				server.log("Client " + remoteAddress + " has disconnected!");
+				close();
+			}//end try catch
+		}//end read method
+
+		/**
+		 * Method that counts a parsed packet and hands it to the workers, called on the loop thread
+		 * */
+		private void deliver(Packet packet, int bytes, long start) {
+			server.countReceived(packet, bytes, start);
+			inbox.add(packet);
+			inboxSize.incrementAndGet();
+			if(processing.compareAndSet(false, true)) {
+				workers.execute(processor);
+			}//end if
+		}//end deliver method
+
+		/**
+		 * Method that processes the packets of the inbox in the order they were read, called on
+		 * a worker. Only one worker processes the packets of a connection at a time
+		 * */
+		private void processInbox() {
+			while(true) {
+				Packet packet;
+				while((packet = inbox.poll()) != null) {
+					if(!closed.get()) {
+						server.processPacket(packet, this);
+					}//end if
+					if(inboxSize.decrementAndGet() == MAX_INBOX - 1) {
+						//the loop stopped reading the connection, it reads it again
+						requestWrite();
+					}//end if
+				}//end while
+				if(closed.get()) {
+					//a hello processed while the connection was closing registered it again
+					server.removeClient(this);
+				}//end if
+				processing.set(false);
+				if(inbox.isEmpty() || !processing.compareAndSet(false, true)) {
+					return;
+				}//end if
+			}//end while
+		}//end processInbox method
+
+		/**
+		 * Method that returns what the loop watches on the channel: the reads while the inbox
+		 * has room, the writes while frames are waiting to be written
+		 * */
+		private int interestOps() {
+			int ops = inboxSize.get() < MAX_INBOX ? SelectionKey.OP_READ : 0;
+			return gathered == 0 ? ops : ops | SelectionKey.OP_WRITE;
+		}//end interestOps method
+
+		/**
+		 * Method that writes as much of the outbound queue as the socket accepts, handing
+		 * several frames to the socket at once. When everything was written the loop stops
+		 * watching for writes. Called on the loop thread
+		 * */
+		void flush() {
+			writeRequested.set(false);
+			if(key == null || !key.isValid()) {
+				return;
+			}//end if
+			try {
+				while(true) {
+					gatherFrames();
+					if(gathered == 0) {
+						if(building.get() || built != null) {
+							//the worker asks for a write once the frame of the slot is built
+							break;
+						}//end if
+						//everything that was taken from the queue was written
+						outbound.bulkWritten();
+						if(refused) {
+							close();
+							return;
+						}//end if
+						break;
+					}//end if
+					long written = channel.write(gather, 0, gathered);
+					//drop the frames that were written completely
+					int done = 0;
+					while(done < gathered && !gather[done].hasRemaining()) {
+						done++;
+					}//end while
+					System.arraycopy(gather, done, gather, 0, gathered - done);
+					for(int i = gathered - done; i < gathered; i++) {
+						gather[i] = null;
+					}//end for
+					gathered -= done;
+					server.getMetrics().framesSent(done, written);
+					if(gathered > 0) {
+						break;
+					}//end if
+				}//end while
+				key.interestOps(interestOps());
+			}catch(IOException e) {
+				server.log("Client " + remoteAddress + " has disconnected!");
+				close();
+			}//end try catch
+		}//end flush method
+
+		/**
+		 * Method that fills the gathering array: the control frames first, then the next
+		 * chunk of the big frame that is being cut, only once the previous chunk was
+		 * written, then the bulk frames and the frame of the latest-wins slot once a worker built it
+		 * */
+		private void gatherFrames() {
+			while(gathered < MAX_GATHER) {
+				ByteBuffer frame = outbound.pollControl();
+				if(frame != null) {
+					gather[gathered++] = frame;
+				}else if(chunk != null && chunk.hasRemaining()) {
+					//a control frame never waits for more than one chunk
+					return;
+				}else if(chunker.isActive()) {
+					chunk = chunker.next();
+					gather[gathered++] = chunk;
+				}else if((frame = outbound.pollBulk()) == null && (frame = takeBuiltFrame()) == null) {
+					return;
+				}else if(FrameChunker.needsChunking(frame)) {
+					chunker.start(frame);
+				}else {
+					gather[gathered++] = frame;
+				}//end if else
+			}//end while
+		}//end gatherFrames method
+
+		/**
+		 * Method that returns the frame of the latest-wins slot once a worker built it, or hands
+		 * the slot to a worker when nothing is being built. Called on the loop thread
+		 * @return the built frame, or null if none is ready
+		 * */
+		private ByteBuffer takeBuiltFrame() {
+			//the worker sets the frame before it clears building, so a frame is never missed
+			if(building.get()) {
+				return null;
+			}//end if
+			ByteBuffer frame = built;
+			if(frame != null) {
+				built = null;
+				return frame;
+			}//end if
+			final Supplier<ByteBuffer> slot = outbound.pollLatest();
+			if(slot == null) {
+				return null;
+			}//end if
+			building.set(true);
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						buildFrame(slot);
+					}//end run
+				});
+			}catch(RejectedExecutionException e) {
+				//the server is stopping
+				building.set(false);
+			}//end try catch
+			return null;
+		}//end takeBuiltFrame method
+
+		/**
+		 * Method that builds the frame of the latest-wins slot and asks the loop thread to
+		 * write it, called on a worker
+		 * */
+		private void buildFrame(Supplier<ByteBuffer> slot) {
+			try {
+				built = slot.get();
+			}finally {
+				building.set(false);
+				requestWrite();
+			}//end try finally
+		}//end buildFrame method
+
+		/**
+		 * Method that queues the packet for the loop thread. It doesn't block,
+		 * so it can be called from any thread
+		 * */
+		@Override
+		public void send(ByteBuffer frame) {
+			if(!server.queueFrame(this, outbound, frame)) {
+				server.log("Client " + remoteAddress + " is too slow and was disconnected!");
+				close();
+				return;
+			}//end if
+			requestWrite();
+		}//end send method
+
+		@Override
+		public void sendLatest(Supplier<ByteBuffer> latest) {
+			outbound.offerLatest(latest);
+			requestWrite();
+		}//end sendLatest method
+
+		@Override
+		public boolean hasBulk() {
+			return outbound.hasBulk();
+		}//end hasBulk method
+
+		@Override
+		public void refuse(ByteBuffer frame) {
+			outbound.offerControl(frame);
+			refused = true;
+			requestWrite();
+		}//end refuse method
+
+		private void requestWrite() {
+			if(writeRequested.compareAndSet(false, true)) {
+				loop.requestWrite(this);
+			}//end if
+		}//end requestWrite method
+
+		@Override
+		public String getRemoteAddress() {
+			return remoteAddress;
+		}//end getRemoteAddress method
+
+		@Override
+		public void setPixelFormat(byte pixelFormat) {
+			this.pixelFormat = pixelFormat;
+		}//end setPixelFormat method
+
+		@Override
+		public byte getPixelFormat() {
+			return pixelFormat;
+		}//end getPixelFormat method
+
+		@Override
+		public int getQueuedFrames() {
+			return outbound.size();
+		}//end getQueuedFrames method
+
+		@Override
+		public long getDroppedFrames() {
+			return outbound.getDropped();
+		}//end getDroppedFrames method
+
+		@Override
+		public void close() {
+			if(!closed.compareAndSet(false, true)) {
+				return;
+			}//end if
+			outbound.close();
+			try {
+				channel.close();
+			}catch(IOException e) {
+				e.printStackTrace();
+			}//end try catch
+			server.removeClient(this);
+			if(key != null) {
+				key.cancel();
+				server.connectionClosed();
+			}//end if
+		}//end close method
+	}//end NioConnection inner class
+}//end NioServerEngine class
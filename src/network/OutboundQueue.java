@@ -0,0 +1,386 @@
+package network;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class that holds the items waiting to be written to one client. The broadcast only
+ * puts a reference in the queue and the writer of the client drains it, so a slow
+ * client only fills its own queue. When the queue is full the policy decides what happens.
+ * Next to the queue there is a single latest-wins slot, written after the queued items,
+ * so a newer version of the same content replaces the one that was not written yet.
+ * The item of the slot is built when it is taken, by take on the writer thread of the
+ * client, or by whoever the writer hands pollLatest to, never on a thread shared by other clients.
+ * The queue and the slot are the bulk lane. The small items go in the control lane,
+ * which is always taken first, also between the chunks of a big bulk item
+ * @param <T> The type of the queued items
+ * */
+public class OutboundQueue<T> {
+
+	/**
+	 * What happens when a client doesn't read fast enough and its queue is full.
+	 * DROP_OLDEST drops the oldest item to make room for the new one,
+	 * COALESCE_LATEST drops everything that is waiting and keeps only the new item,
+	 * DISCONNECT closes the connection of the client.
+	 * With offerOrClear only the changes are dropped and the caller sends the whole content
+	 * again, DROP_OLDEST then keeps the newest changes and COALESCE_LATEST keeps none of them
+	 * */
+	public enum SlowConsumerPolicy {DROP_OLDEST, COALESCE_LATEST, DISCONNECT};
+
+	/**
+	 * The default number of items that can wait in a queue
+	 * */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final ArrayDeque<T> items = new ArrayDeque<>();
+	private final ArrayDeque<T> control = new ArrayDeque<>();
+	private final int capacity;
+	private final SlowConsumerPolicy policy;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private Supplier<T> latest;
+	private boolean closed = false;
+	/**
+	 * True when the writer should stop once everything was written
+	 * */
+	private boolean finishing = false;
+	/**
+	 * True from the moment a bulk item is taken until the writer tells it was written
+	 * */
+	private boolean bulkInFlight = false;
+	private long dropped = 0;
+
+	/**
+	 * Constructor for the OutboundQueue class
+	 * @param capacity The maximum number of items that can wait in the queue
+	 * @param policy What happens when the queue is full
+	 * */
+	public OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+		this.capacity = Math.max(1, capacity);
+		this.policy = policy;
+	}//end OutboundQueue constructor
+
+	/**
+	 * Method that adds an item at the end of the bulk lane. It never blocks
+	 * @param item The item that will be written to the client
+	 * @return false if the queue is full and the client must be disconnected
+	 * */
+	public boolean offer(T item) {
+		return offer(items, item);
+	}//end offer method
+
+	/**
+	 * Method that adds an item at the end of the control lane. It never blocks and the
+	 * lane has its own capacity, handled with the same policy
+	 * @param item The item that will be written to the client before the bulk items
+	 * @return false if the lane is full and the client must be disconnected
+	 * */
+	public boolean offerControl(T item) {
+		return offer(control, item);
+	}//end offerControl method
+
+	/**
+	 * Method that adds an item at the end of the bulk lane, for the lanes that hold changes,
+	 * like drawings. A client that misses one change keeps a canvas different from the others,
+	 * so when the lane is full the changes that are dropped must be replaced by the whole
+	 * content. DROP_OLDEST drops the oldest change to make room for the new one,
+	 * COALESCE_LATEST drops every change that is waiting and the new one too, since the whole
+	 * content holds them. The items that are not changes are only dropped when the lane is
+	 * full of them, the oldest first
+	 * @param item The item that will be written to the client
+	 * @param change Tells which items are changes
+	 * @return false if changes were dropped and the caller must send the whole content again,
+	 * or with DISCONNECT if the lane is full and the client must be disconnected
+	 * */
+	public boolean offerOrClear(T item, Predicate<? super T> change) {
+		return offerOrClear(items, item, change);
+	}//end offerOrClear method
+
+	/**
+	 * Method that adds an item at the end of the control lane, like offerOrClear. The answers
+	 * that are not changes, like the pongs, stay in the lane when its changes are dropped
+	 * @param item The item that will be written to the client before the bulk items
+	 * @param change Tells which items are changes
+	 * @return false if changes were dropped, or must be disconnected with DISCONNECT
+	 * */
+	public boolean offerControlOrClear(T item, Predicate<? super T> change) {
+		return offerOrClear(control, item, change);
+	}//end offerControlOrClear method
+
+	private boolean offerOrClear(ArrayDeque<T> lane, T item, Predicate<? super T> change) {
+		lock.lock();
+		try {
+			if(closed) {
+				return true;
+			}//end if
+			if(lane.size() < capacity) {
+				lane.add(item);
+				notEmpty.signal();
+				return true;
+			}//end if
+			if(policy == SlowConsumerPolicy.DISCONNECT) {
+				return false;
+			}//end if
+			int changes = 0;
+			for(Iterator<T> it = lane.iterator(); it.hasNext(); ) {
+				if(change.test(it.next())) {
+					it.remove();
+					changes++;
+					if(policy == SlowConsumerPolicy.DROP_OLDEST) {
+						break;
+					}//end if
+				}//end if
+			}//end for
+			dropped += changes;
+			if(policy == SlowConsumerPolicy.COALESCE_LATEST && change.test(item)) {
+				//the whole content sent instead holds this change too
+				dropped++;
+				return false;
+			}//end if
+			if(changes == 0) {
+				//a lane full of answers that are not changes loses the oldest answer
+				lane.poll();
+				dropped++;
+			}//end if
+			lane.add(item);
+			notEmpty.signal();
+			return changes == 0;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end offerOrClear method
+
+	private boolean offer(ArrayDeque<T> lane, T item) {
+		lock.lock();
+		try {
+			if(closed) {
+				return true;
+			}//end if
+			if(lane.size() >= capacity) {
+				switch(policy) {
+				case DROP_OLDEST:
+					lane.poll();
+					dropped++;
+					break;
+				case COALESCE_LATEST:
+					dropped += lane.size();
+					lane.clear();
+					break;
+				case DISCONNECT:
+					return false;
+				}//end switch
+			}//end if
+			lane.add(item);
+			notEmpty.signal();
+			return true;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end offer method
+
+	/**
+	 * Method that puts an item in the latest-wins slot, replacing the one that is waiting.
+	 * It never blocks and never counts against the capacity of the queue
+	 * @param item Builds the item when it is taken, it can return null if there is nothing to write
+	 * */
+	public void offerLatest(Supplier<T> item) {
+		lock.lock();
+		try {
+			if(closed) {
+				return;
+			}//end if
+			if(latest != null) {
+				dropped++;
+			}//end if
+			latest = item;
+			notEmpty.signal();
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end offerLatest method
+
+	/**
+	 * Method that removes the first item of the bulk lane without waiting, the item of the
+	 * latest-wins slot is left for pollLatest
+	 * @return the first bulk item or null if the bulk lane is empty
+	 * */
+	public T pollBulk() {
+		lock.lock();
+		try {
+			T item = items.poll();
+			bulkInFlight |= item != null;
+			return item;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end pollBulk method
+
+	/**
+	 * Method that takes what builds the item of the latest-wins slot once the bulk lane is
+	 * empty, so the caller builds it on a thread that doesn't write for other clients. The
+	 * item is in flight from now until bulkWritten is called
+	 * @return the builder, or null if the slot is empty or bulk items are still waiting
+	 * */
+	public Supplier<T> pollLatest() {
+		lock.lock();
+		try {
+			if(!items.isEmpty() || latest == null) {
+				return null;
+			}//end if
+			Supplier<T> slot = latest;
+			latest = null;
+			bulkInFlight = true;
+			return slot;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end pollLatest method
+
+	/**
+	 * Method that removes the first item of the control lane without waiting, used by
+	 * the writer between the chunks of a big bulk item
+	 * @return the first control item or null if there is none
+	 * */
+	public T pollControl() {
+		lock.lock();
+		try {
+			return control.poll();
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end pollControl method
+
+	/**
+	 * Method that waits until there is an item in the queue and removes it, the control
+	 * lane first
+	 * @return the first item or null if the queue was closed, or finished and empty
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 * */
+	public T take() throws InterruptedException {
+		while(true) {
+			Supplier<T> slot;
+			lock.lock();
+			try {
+				while(control.isEmpty() && items.isEmpty() && latest == null && !closed && !finishing) {
+					notEmpty.await();
+				}//end while
+				if(closed) {
+					return null;
+				}//end if
+				if(!control.isEmpty()) {
+					return control.poll();
+				}//end if
+				if(!items.isEmpty()) {
+					bulkInFlight = true;
+					return items.poll();
+				}//end if
+				if(latest == null) {
+					//finishing and everything was written
+					return null;
+				}//end if
+				slot = latest;
+				latest = null;
+				bulkInFlight = true;
+			}finally {
+				lock.unlock();
+			}//end try finally
+			T item = slot.get();
+			if(item != null) {
+				return item;
+			}//end if
+			//the slot had nothing left to write, the writer has nothing in flight
+			bulkWritten();
+		}//end while
+	}//end take method
+
+	/**
+	 * Method that tells the queue that every bulk item that was taken was written
+	 * */
+	public void bulkWritten() {
+		lock.lock();
+		try {
+			bulkInFlight = false;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end bulkWritten method
+
+	/**
+	 * Method that tells if a bulk item is waiting or is being written. A change made
+	 * after such an item was built may be overwritten by it on the client
+	 * */
+	public boolean hasBulk() {
+		lock.lock();
+		try {
+			return bulkInFlight || !items.isEmpty() || latest != null;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end hasBulk method
+
+	/**
+	 * Method that lets the writer write the items that are waiting and then stops it,
+	 * take returns null once the queue is empty
+	 * */
+	public void finish() {
+		lock.lock();
+		try {
+			finishing = true;
+			notEmpty.signalAll();
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end finish method
+
+	/**
+	 * Method that closes the queue, forgets the waiting items and wakes up the writer
+	 * */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			items.clear();
+			control.clear();
+			latest = null;
+			notEmpty.signalAll();
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end close method
+
+	/**
+	 * Method that returns the number of items waiting in the queue and in the slot
+	 * */
+	public int size() {
+		lock.lock();
+		try {
+			return control.size() + items.size() + (latest != null ? 1 : 0);
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end size method
+
+	/**
+	 * Method that returns what happens when the queue is full
+	 * */
+	public SlowConsumerPolicy getPolicy() {
+		return policy;
+	}//end getPolicy method
+
+	/**
+	 * Method that returns the number of items that were dropped because the queue was full
+	 * or were replaced in the latest-wins slot
+	 * */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		}finally {
+			lock.unlock();
+		}//end try finally
+	}//end getDropped method
+}//end OutboundQueue class
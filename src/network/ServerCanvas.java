@@ -0,0 +1,207 @@
+package network;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import packet.MessageType;
+import packet.Packet;
+import packet.StrokeEngine;
+import packet.TiledCanvas;
+import packet.Tile;
+
+/**
+ * Class that holds the authoritative canvas of the session on the server. It has a fixed
+ * size and is stored in a {@link TiledCanvas}, so only the tiles that were drawn take memory
+ * and a big canvas costs little while it is mostly blank. The frames and drawing operations
+ * of the clients are applied on it and the clients that connect later receive a snapshot of
+ * the tiles that were drawn
+ * */
+public class ServerCanvas {
+
+	/**
+	 * The size in pixels of the side of a tile, the same as the one used by the clients
+	 * */
+	public static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+
+	/**
+	 * The default size of the canvas, big enough for a full HD client
+	 * */
+	public static final int DEFAULT_WIDTH = 1920;
+	public static final int DEFAULT_HEIGHT = 1080;
+
+	private final TiledCanvas canvas;
+	/**
+	 * The engine that draws the operations of the clients, only used under the lock of the server
+	 * */
+	private final StrokeEngine strokes;
+	private final int width, height;
+	private final int columns, rows;
+	/**
+	 * Incremented every time the canvas changes
+	 * */
+	private long version = 0;
+	/**
+	 * The tiles that were changed at least once, the other ones are blank on every client
+	 * */
+	private final BitSet changedTiles = new BitSet();
+
+	/**
+	 * Constructor for the ServerCanvas class
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 * */
+	public ServerCanvas(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		canvas = new TiledCanvas(width, height);
+		strokes = new StrokeEngine(canvas);
+	}//end ServerCanvas constructor
+
+	/**
+	 * Method that makes the whole canvas blank again
+	 * */
+	public void clear() {
+		canvas.clear();
+		version++;
+	}//end clear method
+
+	/**
+	 * Method that applies the content of a packet sent by a client on the canvas
+	 * @param packet The packet with a full image, some tiles or a drawing operation
+	 * @return the tiles that were changed by the packet
+	 * */
+	public BitSet apply(Packet packet) {
+		BitSet changed = new BitSet();
+		if(packet.getStroke() != null) {
+			Rectangle bounds = strokes.paint(packet.getStroke());
+			touch(changed, bounds.x, bounds.y, bounds.width, bounds.height);
+		}else if(packet.getTiles() != null) {
+			for(Tile tile : packet.getTiles()) {
+				write(changed, tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), tile.getPixels());
+			}//end for
+		}else if(packet.getImage() != null) {
+			write(changed, 0, 0, packet.getImageWidth(), packet.getImageHeight(), packet.getImage());
+		}//end if else
+		version++;
+		changedTiles.or(changed);
+		return changed;
+	}//end apply method
+
+	/**
+	 * Method that copies a region of pixels on the canvas, clipped to its bounds
+	 * @param x, y The top left corner of the region
+	 * @param w, h The size of the region
+	 * @param src The pixels of the region, row by row
+	 * */
+	private void write(BitSet changed, int x, int y, int w, int h, int[] src) {
+		Rectangle written = canvas.write(x, y, w, h, src, 0, w);
+		if(written != null) {
+			touch(changed, written.x, written.y, written.width, written.height);
+		}//end if
+	}//end write method
+
+	/**
+	 * Method that collects the tiles under a region that was changed
+	 * @param changed Where the changed tiles are collected
+	 * */
+	private void touch(BitSet changed, int x, int y, int w, int h) {
+		int x1 = Math.max(x, 0);
+		int y1 = Math.max(y, 0);
+		int x2 = Math.min(x + w, width);
+		int y2 = Math.min(y + h, height);
+		if(x1 >= x2 || y1 >= y2) {
+			return;
+		}//end if
+		int lastColumn = (x2 - 1) / TILE_SIZE;
+		for(int row = y1 / TILE_SIZE; row <= (y2 - 1) / TILE_SIZE; row++) {
+			changed.set(row * columns + x1 / TILE_SIZE, row * columns + lastColumn + 1);
+		}//end for
+	}//end touch method
+
+	/**
+	 * Method that tells if nothing was drawn on the canvas yet
+	 * */
+	public boolean isBlank() {
+		return canvas.getAllocatedTiles() == 0;
+	}//end isBlank method
+
+	/**
+	 * Method that returns the tiles that were drawn, the ones a client that has just
+	 * connected must receive
+	 * @return the indexes of the tiles, row by row
+	 * */
+	public BitSet getDrawnTiles() {
+		BitSet drawn = new BitSet();
+		for(int i = 0; i < columns * rows; i++) {
+			if(!canvas.isBlankTile(i % columns, i / columns)) {
+				drawn.set(i);
+			}//end if
+		}//end for
+		return drawn;
+	}//end getDrawnTiles method
+
+	/**
+	 * Method that returns the tiles that were changed at least once, the ones a client that
+	 * has missed some changes must receive again. A tile that was drawn and is blank again is one of them
+	 * @return a copy of the indexes of the tiles, row by row
+	 * */
+	public BitSet getChangedTiles() {
+		return (BitSet) changedTiles.clone();
+	}//end getChangedTiles method
+
+	/**
+	 * Method that takes the current content of some tiles in a packet. The whole tiles are
+	 * shared with the canvas without a copy, it copies them before it writes on them again,
+	 * so the packet can be encoded after the lock of the canvas was released
+	 * @param indexes The indexes of the tiles, row by row
+	 * @param pixelFormat How the pixels are encoded when the packet is sent
+	 * @return the packet with the tiles
+	 * */
+	public Packet snapshot(BitSet indexes, byte pixelFormat) {
+		List<Tile> tiles = new ArrayList<>();
+		for(int i = indexes.nextSetBit(0); i >= 0 && i < columns * rows; i = indexes.nextSetBit(i + 1)) {
+			int column = i % columns;
+			int row = i / columns;
+			int x = column * TILE_SIZE;
+			int y = row * TILE_SIZE;
+			int w = Math.min(TILE_SIZE, width - x);
+			int h = Math.min(TILE_SIZE, height - y);
+			int[] tilePixels = w == TILE_SIZE && h == TILE_SIZE ? canvas.share(column, row) : null;
+			if(tilePixels == null) {
+				//a blank tile or a tile cut by the border of the canvas
+				tilePixels = new int[w * h];
+				canvas.read(x, y, w, h, tilePixels, 0, w);
+			}//end if
+			tiles.add(new Tile(x, y, w, h, tilePixels));
+		}//end for
+		Packet packet = new Packet(MessageType.SHARE_TILES);
+		packet.setTiles(tiles);
+		packet.setPixelFormat(pixelFormat);
+		return packet;
+	}//end snapshot method
+
+	/**
+	 * Method that returns the number of bytes taken by the pixels of the tiles that were drawn
+	 * */
+	public long getMemorySize() {
+		return canvas.getMemorySize();
+	}//end getMemorySize method
+
+	//Getters for the size of the canvas
+	public int getWidth() {
+		return width;
+	}//end getWidth
+	public int getHeight() {
+		return height;
+	}//end getHeight
+	public int getTileCount() {
+		return columns * rows;
+	}//end getTileCount
+	public long getVersion() {
+		return version;
+	}//end getVersion
+}//end ServerCanvas class
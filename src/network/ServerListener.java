@@ -0,0 +1,33 @@
+package network;
+
+import java.util.List;
+
+/**
+ * Interface for what the network server reports while it runs, so it can run with the
+ * Swing window of the PaintServer, with the console of a headless server or with nothing
+ * */
+public interface ServerListener {
+
+	/**
+	 * Listener that ignores everything, for a server that must not write anything
+	 * */
+	public static final ServerListener NONE = new ServerListener() {
+		@Override
+		public void log(String message) {}
+		@Override
+		public void usersChanged(List<String> users) {}
+	};
+
+	/**
+	 * Method that receives a message of the server. It can be called from any thread
+	 * @param message The message that will be logged
+	 * */
+	void log(String message);
+
+	/**
+	 * Method that receives the users connected after one of them logged in or out.
+	 * It can be called from any thread
+	 * @param users The user names, in the order they logged in
+	 * */
+	void usersChanged(List<String> users);
+}//end ServerListener interface
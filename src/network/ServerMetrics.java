@@ -0,0 +1,180 @@
+package network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import packet.Trace;
+
+/**
+ * Class that counts what the server does. The counters are striped, so the network threads
+ * that update them at the same time don't fight over a single cache line, and they are only
+ * added up when a report is made
+ * */
+public class ServerMetrics {
+
+	private final LongAdder connectionsAccepted = new LongAdder();
+	private final LongAdder packetsIn = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder packetsOut = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	/**
+	 * The number of times a client fell so far behind that its backlog was replaced by the whole canvas
+	 * */
+	private final LongAdder resyncs = new LongAdder();
+	/**
+	 * The time spent decoding the received frames and encoding the sent ones
+	 * */
+	private final LatencyHistogram decodeNanos = new LatencyHistogram();
+	private final LatencyHistogram encodeNanos = new LatencyHistogram();
+	/**
+	 * The time from a share reaching the server to its tiles being ready for a recipient
+	 * */
+	private final LatencyHistogram fanoutNanos = new LatencyHistogram();
+	/**
+	 * The hops of the traced drawings that the server can see, from their capture to their
+	 * frame being queued for a recipient
+	 * */
+	private final HopLatencies hops = new HopLatencies();
+
+	/**
+	 * Method that counts an accepted connection
+	 * */
+	void connectionAccepted() {
+		connectionsAccepted.increment();
+	}//end connectionAccepted method
+
+	/**
+	 * Method that counts a received frame
+	 * @param bytes The size of the frame with its length
+	 * @param nanos The time it took to decode it
+	 * */
+	void packetReceived(int bytes, long nanos) {
+		packetsIn.increment();
+		bytesIn.add(bytes);
+		decodeNanos.record(nanos);
+	}//end packetReceived method
+
+	/**
+	 * Method that records the hops of a traced packet up to the server
+	 * @param trace The trace, stamped with the time the server received it
+	 * */
+	void traceReceived(Trace trace) {
+		hops.recordSender(trace);
+		hops.record(HopLatencies.Hop.UPLINK, (trace.getServerReceiveTime() - trace.getSentTime()) * 1000);
+	}//end traceReceived method
+
+	/**
+	 * Method that records the time a traced packet spent in the server
+	 * @param trace The trace, stamped with the time the packet was received
+	 * @param queuedTime The time the queues of the recipients accepted its frame, in microseconds of {@link Trace#now()}
+	 * */
+	void traceQueued(Trace trace, long queuedTime) {
+		hops.record(HopLatencies.Hop.SERVER_QUEUE, (queuedTime - trace.getServerReceiveTime()) * 1000);
+	}//end traceQueued method
+
+	/**
+	 * Method that counts frames written to a socket
+	 * @param frames The number of frames that were written completely
+	 * @param bytes The number of bytes that were written
+	 * */
+	void framesSent(int frames, long bytes) {
+		packetsOut.add(frames);
+		bytesOut.add(bytes);
+	}//end framesSent method
+
+	/**
+	 * Method that counts a client whose dropped backlog was replaced by the whole canvas
+	 * */
+	void clientResynced() {
+		resyncs.increment();
+	}//end clientResynced method
+
+	/**
+	 * Method that records the time it took to encode a frame
+	 * */
+	void encoded(long nanos) {
+		encodeNanos.record(nanos);
+	}//end encoded method
+
+	/**
+	 * Method that records the time a share waited before its tiles were ready for a recipient
+	 * */
+	void shareDelivered(long nanos) {
+		fanoutNanos.record(nanos);
+	}//end shareDelivered method
+
+	/**
+	 * Method that adds up the counters
+	 * @param activeConnections The number of connections open right now
+	 * */
+	Sample sample(int activeConnections) {
+		return new Sample(System.nanoTime(), connectionsAccepted.sum(), activeConnections,
+				packetsIn.sum(), bytesIn.sum(), packetsOut.sum(), bytesOut.sum(), resyncs.sum());
+	}//end sample method
+
+	//Getters for the histograms
+	public LatencyHistogram getDecodeNanos() {
+		return decodeNanos;
+	}//end getDecodeNanos
+	public LatencyHistogram getEncodeNanos() {
+		return encodeNanos;
+	}//end getEncodeNanos
+	public LatencyHistogram getFanoutNanos() {
+		return fanoutNanos;
+	}//end getFanoutNanos
+	public HopLatencies getHops() {
+		return hops;
+	}//end getHops
+
+	/**
+	 * Class that holds the counters at one moment, the rates are the difference
+	 * between two samples
+	 * */
+	public static class Sample {
+
+		private final long time;
+		private final long connectionsAccepted;
+		private final int activeConnections;
+		private final long packetsIn;
+		private final long bytesIn;
+		private final long packetsOut;
+		private final long bytesOut;
+		private final long resyncs;
+
+		Sample(long time, long connectionsAccepted, int activeConnections, long packetsIn, long bytesIn, long packetsOut, long bytesOut, long resyncs) {
+			this.time = time;
+			this.connectionsAccepted = connectionsAccepted;
+			this.activeConnections = activeConnections;
+			this.packetsIn = packetsIn;
+			this.bytesIn = bytesIn;
+			this.packetsOut = packetsOut;
+			this.bytesOut = bytesOut;
+			this.resyncs = resyncs;
+		}//end Sample constructor
+
+		//Getters for the attributes of the Sample class
+		public long getTime() {
+			return time;
+		}//end getTime
+		public long getConnectionsAccepted() {
+			return connectionsAccepted;
+		}//end getConnectionsAccepted
+		public int getActiveConnections() {
+			return activeConnections;
+		}//end getActiveConnections
+		public long getPacketsIn() {
+			return packetsIn;
+		}//end getPacketsIn
+		public long getBytesIn() {
+			return bytesIn;
+		}//end getBytesIn
+		public long getPacketsOut() {
+			return packetsOut;
+		}//end getPacketsOut
+		public long getBytesOut() {
+			return bytesOut;
+		}//end getBytesOut
+		public long getResyncs() {
+			return resyncs;
+		}//end getResyncs
+	}//end Sample inner class
+}//end ServerMetrics class
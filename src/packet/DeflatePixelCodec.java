@@ -0,0 +1,93 @@
+package packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec that compresses the bytes of the pixels with Deflate. The level only changes how
+ * the pixels are encoded, any level is decoded the same way. The deflater, the inflater and
+ * the buffer that holds the bytes of the pixels are reused from one frame to the next
+ * */
+public class DeflatePixelCodec extends PixelCodec {
+
+	private final Deflater deflater;
+	private final Inflater inflater = new Inflater();
+	/**
+	 * The bytes of the pixels before they are compressed or after they were decompressed
+	 * */
+	private byte[] raw = new byte[0];
+	private IntBuffer rawInts = IntBuffer.allocate(0);
+
+	/**
+	 * Constructor for the DeflatePixelCodec class
+	 * @param level The compression level, from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION
+	 * */
+	public DeflatePixelCodec(int level) {
+		super(PacketCodec.FORMAT_DEFLATE, "deflate:" + level);
+		deflater = new Deflater(level);
+	}//end DeflatePixelCodec constructor
+
+	@Override
+	public int encode(int[] pixels, int count) {
+		ensureRaw(count * 4);
+		rawInts.clear();
+		rawInts.put(pixels, 0, count);
+		deflater.reset();
+		deflater.setInput(raw, 0, count * 4);
+		deflater.finish();
+		//the pixels rarely grow, the buffer is made bigger when they do
+		ensureCapacity(count * 4 / 2 + 64);
+		int length = 0;
+		while(!deflater.finished()) {
+			if(length == buffer.length) {
+				ensureCapacity(buffer.length + buffer.length / 2);
+			}//end if
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}//end while
+		return length;
+	}//end encode method
+
+	@Override
+	public void decode(byte[] data, int length, int[] pixels, int count) throws IOException {
+		ensureRaw(count * 4);
+		inflater.reset();
+		inflater.setInput(data, 0, length);
+		int done = 0;
+		try {
+			while(done < count * 4 && !inflater.finished()) {
+				int n = inflater.inflate(raw, done, count * 4 - done);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}//end if
+				done += n;
+			}//end while
+		}catch(DataFormatException e) {
+			throw new IOException("Corrupted compressed pixels", e);
+		}//end try catch
+		if(done != count * 4) {
+			throw new IOException("Truncated compressed pixels");
+		}//end if
+		rawInts.clear();
+		rawInts.get(pixels, 0, count);
+	}//end decode method
+
+	@Override
+	public void close() {
+		deflater.end();
+		inflater.end();
+	}//end close method
+
+	/**
+	 * Method that makes sure the buffer of the raw bytes can hold at least capacity bytes
+	 * */
+	private void ensureRaw(int capacity) {
+		if(raw.length < capacity) {
+			raw = new byte[capacity];
+			rawInts = ByteBuffer.wrap(raw).asIntBuffer();
+		}//end if
+	}//end ensureRaw method
+}//end DeflatePixelCodec class
@@ -0,0 +1,60 @@
+package packet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class that puts back together the frames cut in chunks by a {@link FrameChunker}.
+ * The other frames are passed through as they are. An instance should only be used by
+ * the reader of one connection
+ * */
+public class FrameAssembler {
+
+	private byte[] buffer = new byte[0];
+	private int size = 0;
+
+	/**
+	 * Method that adds a frame read by readFrame
+	 * @param frame The frame, without its length
+	 * @return the frame itself if it is not a chunk, the whole frame if it is the last chunk
+	 * of a frame, null if more chunks are needed
+	 * @throws IOException if the chunk is malformed or the frame is too big
+	 * */
+	public byte[] add(byte[] frame) throws IOException {
+		if(frame.length == 0 || frame[0] != MessageType.CHUNK.getId()) {
+			return frame;
+		}//end if
+		return addChunk(frame, 0, frame.length);
+	}//end add method
+
+	/**
+	 * Method that adds a chunk
+	 * @param chunk The bytes that hold the chunk, without its length
+	 * @param offset Where the chunk starts
+	 * @param length The length of the chunk
+	 * @return the whole frame if it is the last chunk of a frame, null if more chunks are needed
+	 * @throws IOException if the chunk is malformed or the frame is too big
+	 * */
+	public byte[] addChunk(byte[] chunk, int offset, int length) throws IOException {
+		int header = FrameChunker.HEADER_SIZE - 4;
+		if(length < header || chunk[offset + 1] != 0 || chunk[offset + 2] != 0) {
+			throw new IOException("Invalid chunk");
+		}//end if
+		boolean last = chunk[offset + 3] != 0;
+		int part = length - header;
+		if((long) size + part > PacketCodec.MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid frame length " + ((long) size + part));
+		}//end if
+		if(buffer.length < size + part) {
+			buffer = Arrays.copyOf(buffer, Math.max(size + part, Math.min(PacketCodec.MAX_FRAME_LENGTH, buffer.length * 2)));
+		}//end if
+		System.arraycopy(chunk, offset + header, buffer, size, part);
+		size += part;
+		if(!last) {
+			return null;
+		}//end if
+		byte[] frame = Arrays.copyOf(buffer, size);
+		size = 0;
+		return frame;
+	}//end addChunk method
+}//end FrameAssembler class
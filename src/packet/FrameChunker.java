@@ -0,0 +1,78 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class that cuts an encoded frame that is too big to be written at once in chunks, so the
+ * small frames of the control lane can be written between two chunks instead of waiting
+ * for the whole frame. A chunk is a frame of the {@link MessageType#CHUNK} kind with an
+ * empty name, a byte that tells if it is the last one and a part of the frame without its
+ * length. Only one frame is cut at a time on a connection, so the chunks need no id.
+ * An instance reuses the buffer of its chunks and should only be used by one writer
+ * */
+public class FrameChunker {
+
+	/**
+	 * The biggest part of a frame carried by one chunk
+	 * */
+	public static final int CHUNK_SIZE = 64 * 1024;
+	/**
+	 * The size of the header of a chunk: its length, its kind, its empty name and the last flag
+	 * */
+	public static final int HEADER_SIZE = 4 + 1 + 2 + 1;
+
+	private ByteBuffer chunk;
+	private ByteBuffer frame;
+
+	/**
+	 * Method that tells if the encoded frame is big enough to be cut in chunks
+	 * @param frame The frame with its length
+	 * */
+	public static boolean needsChunking(ByteBuffer frame) {
+		return frame.remaining() > HEADER_SIZE + CHUNK_SIZE;
+	}//end needsChunking method
+
+	/**
+	 * Method that starts cutting a frame, the frame that was being cut is forgotten
+	 * @param frame The frame with its length, its position is moved as the chunks are made
+	 * */
+	public void start(ByteBuffer frame) {
+		if(chunk == null) {
+			chunk = ByteBuffer.allocate(HEADER_SIZE + CHUNK_SIZE);
+		}//end if
+		//the chunks carry the frame as readFrame returns it, without its length
+		frame.position(frame.position() + 4);
+		this.frame = frame;
+	}//end start method
+
+	/**
+	 * Method that tells if there are chunks left in the frame
+	 * */
+	public boolean isActive() {
+		return frame != null;
+	}//end isActive method
+
+	/**
+	 * Method that makes the next chunk of the frame. The chunk is in the buffer of the
+	 * chunker, so it must be written before the next one is made
+	 * @return the chunk, ready to be written
+	 * */
+	public ByteBuffer next() {
+		int length = Math.min(CHUNK_SIZE, frame.remaining());
+		boolean last = length == frame.remaining();
+		chunk.clear();
+		chunk.putInt(HEADER_SIZE - 4 + length);
+		chunk.put(MessageType.CHUNK.getId());
+		chunk.putShort((short) 0);
+		chunk.put((byte) (last ? 1 : 0));
+		ByteBuffer part = frame.duplicate();
+		part.limit(part.position() + length);
+		chunk.put(part);
+		frame.position(frame.position() + length);
+		chunk.flip();
+		if(last) {
+			frame = null;
+		}//end if
+		return chunk;
+	}//end next method
+}//end FrameChunker class
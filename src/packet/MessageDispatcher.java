@@ -0,0 +1,58 @@
+package packet;
+
+/**
+ * Class that sends every received message to the handler of its kind. The handlers are in
+ * an array indexed by the kind, so finding one costs the same whatever the number of kinds,
+ * and a kind without handler is ignored
+ * @param <C> What the messages are handled for, like the connection they were received from
+ * */
+public class MessageDispatcher<C> {
+
+	/**
+	 * The handlers indexed by kind, they are only set by on, so they all handle C
+	 * */
+	private final MessageHandler<?>[] handlers;
+
+	/**
+	 * Constructor for the MessageDispatcher class, without any handler
+	 * */
+	public MessageDispatcher() {
+		handlers = new MessageHandler<?>[MessageType.values().length];
+	}//end MessageDispatcher constructor
+
+	/**
+	 * Method that sets the handler of a kind of message, replacing the previous one
+	 * @param type The kind of message
+	 * @param handler The handler, null to ignore the kind
+	 * @return this dispatcher, so the handlers can be chained
+	 * */
+	public MessageDispatcher<C> on(MessageType type, MessageHandler<C> handler) {
+		handlers[type.ordinal()] = handler;
+		return this;
+	}//end on method
+
+	/**
+	 * Method that handles the message with the handler of its kind
+	 * @param packet The message
+	 * @param context What the message is handled for
+	 * @return false if there is no handler for the kind of the message
+	 * */
+	public boolean dispatch(Packet packet, C context) {
+		MessageHandler<C> handler = handler(packet.getType());
+		if(handler == null) {
+			return false;
+		}//end if
+		handler.handle(packet, context);
+		return true;
+	}//end dispatch method
+
+	/**
+	 * Method that returns the handler of a kind of message
+	 * @return the handler, or null if there is none
+	 * */
+	@SuppressWarnings("unchecked")
+	private MessageHandler<C> handler(MessageType type) {
+		//only on puts handlers in the array, and it only takes handlers of C
+		return (MessageHandler<C>)handlers[type.ordinal()];
+	}//end handler method
+}//end MessageDispatcher class
@@ -0,0 +1,15 @@
+package packet;
+
+/**
+ * Interface for the code that handles one kind of message
+ * @param <C> What the message is handled for, like the connection it was received from
+ * */
+public interface MessageHandler<C> {
+
+	/**
+	 * Method that handles a received message
+	 * @param packet The message
+	 * @param context What the message is handled for
+	 * */
+	void handle(Packet packet, C context);
+}//end MessageHandler interface
@@ -0,0 +1,81 @@
+package packet;
+
+/**
+ * Enum of the kinds of messages exchanged by the clients and the server. The id of a kind
+ * is the first byte of its frames and tells the {@link PacketCodec} which payload follows
+ * */
+public enum MessageType {
+	/** The login of a client with the pixel formats it can read, and the answer of the server */
+	HELLO(1, false, false),
+	/** The whole canvas */
+	SHARE_FULL(2, true, true),
+	/** Some tiles of the canvas */
+	SHARE_TILES(3, true, true),
+	/** A single drawing operation */
+	STROKE(4, true, false),
+	/** The position of the pointer of a client */
+	CURSOR(5, false, false),
+	/** A request for a pong, with the time it was sent */
+	PING(6, false, false),
+	/** The answer to a ping, with the time of the ping */
+	PONG(7, false, false),
+	/** The end of the session, sent before closing the connection */
+	BYE(8, false, false),
+	/**
+	 * A part of a frame too big to be written at once, see {@link FrameChunker}. The chunks
+	 * are put back together by a {@link FrameAssembler} and never decoded as a packet
+	 * */
+	CHUNK(9, false, false);
+
+	/**
+	 * The kinds indexed by their id
+	 * */
+	private static final MessageType[] BY_ID = new MessageType[values().length + 1];
+	static {
+		for(MessageType type : values()) {
+			BY_ID[type.id] = type;
+		}//end for
+	}//end static
+
+	private final byte id;
+	private final boolean drawing;
+	private final boolean bulk;
+
+	private MessageType(int id, boolean drawing, boolean bulk) {
+		this.id = (byte) id;
+		this.drawing = drawing;
+		this.bulk = bulk;
+	}//end MessageType constructor
+
+	/**
+	 * Method that returns the kind with the given id
+	 * @return the kind, or null if no kind has that id
+	 * */
+	public static MessageType fromId(byte id) {
+		return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+	}//end fromId method
+
+	/**
+	 * Method that returns the byte that identifies the kind on the wire
+	 * */
+	public byte getId() {
+		return id;
+	}//end getId method
+
+	/**
+	 * Method that tells if the messages of this kind change the canvas. They are the only
+	 * ones that carry a {@link Trace}
+	 * */
+	public boolean isDrawing() {
+		return drawing;
+	}//end isDrawing method
+
+	/**
+	 * Method that tells if the messages of this kind can be big. They are written on the
+	 * bulk lane of a connection, the other ones on the control lane, which is never stuck
+	 * behind them
+	 * */
+	public boolean isBulk() {
+		return bulk;
+	}//end isBulk method
+}//end MessageType enum
@@ -1,54 +1,99 @@
 package packet;
 
+import java.util.List;
+
 /**
  * Class that holds the information that will be sent to the server and from
- * the server to the client 
+ * the server to the client. It is written on the wire by the {@link PacketCodec}.
+ * Its type tells which of the attributes are its payload, the other ones are not sent
  * */
-public class Packet implements java.io.Serializable{
+public class Packet {
 
-	private static final long serialVersionUID = 8078668766933884822L;
-	
+	private final MessageType type;
 	private String userName = "";
-	private int[][] image;
+	/**
+	 * The pixels of the image, stored row by row (index = y * imageWidth + x)
+	 * */
+	private int[] image;
+	/**
+	 * The changed regions of the canvas, used instead of the whole image when only
+	 * a part of the canvas is shared
+	 * */
+	private List<Tile> tiles;
+	/**
+	 * The drawing operation, used instead of the pixels when a single stroke is sent
+	 * */
+	private StrokeOp stroke;
 	private int imageWidth, imageHeight;
-	private boolean imageState = false;
-	
 	/**
-	 * Constructor without parameter for the Packet class
+	 * The position of the pointer of a cursor message
+	 * */
+	private int cursorX, cursorY;
+	/**
+	 * The time a ping was sent, from System.nanoTime of the sender, echoed by the pong
+	 * */
+	private long pingTime;
+	/**
+	 * How the pixels are encoded on the wire, one of the pixel formats of the {@link PacketCodec}
+	 * */
+	private byte pixelFormat = PacketCodec.FORMAT_INT_RGB;
+	/**
+	 * The pixel formats sent with the login, the ones the client can read in the order it
+	 * prefers them, and in the answer of the server, the one it has chosen
 	 * */
-	public Packet() {}
+	private byte[] pixelFormats;
+	/**
+	 * The sequence number and the times of the packet on its way from the sender to the
+	 * recipients, only sent with the drawing messages, null for a packet that is not traced
+	 * */
+	private Trace trace;
 	
 	/**
 	 * Constructor with 1 parameter for the Packet class
-	 * @param name The userName of the client
+	 * @param type The kind of message
 	 * */
-	public Packet(String name) {
-		this.userName = name;
+	public Packet(MessageType type) {
+		this.type = type;
 	}//end Packet constructor
 	
 	/**
 	 * Constructor with 2 parameters for the Packet class
+	 * @param type The kind of message
 	 * @param name The userName of the client
-	 * @param image The array of pixels of the image taken from the canvas of the user
 	 * */
-	public Packet(String name, int[][] image) {
+	public Packet(MessageType type, String name) {
+		this.type = type;
 		this.userName = name;
-		this.image = image;
 	}//end Packet constructor
 	
 	//Setters and getters for the attributes of the Packet class
+	public MessageType getType() {
+		return type;
+	}//end getType
 	public void setUserName(String name) {
 		this.userName = name;
 	}//end setUserName
 	public String getUserName() {
 		return userName;
 	}//end getUserName
-	public void setImage(int[][] image) {
+	public void setImage(int[] image) {
 		this.image = image;
 	}//end setImage 
-	public int[][] getImage() {
+	public int[] getImage() {
 		return image;
 	}//end getImage
+	public void setTiles(List<Tile> tiles) {
+		this.tiles = tiles;
+	}//end setTiles
+	public List<Tile> getTiles() {
+		return tiles;
+	}//end getTiles
+	public void setStroke(StrokeOp stroke) {
+		this.stroke = stroke;
+	}//end setStroke
+	public StrokeOp getStroke() {
+		return stroke;
+	}//end getStroke
 	public void setImageHeight(int height) {
 		this.imageHeight = height;
 	}//end setImageHeight
@@ -61,10 +106,38 @@ public class Packet implements java.io.Serializable{
 	public int getImageWidth() {
 		return imageWidth;
 	}//end getImageWidth
-	public void setImageState(boolean state) {
-		this.imageState = state;
-	}//end setImageState
-	public boolean getImageState() {
-		return imageState;
-	}//end getImageState
+	public void setCursor(int x, int y) {
+		this.cursorX = x;
+		this.cursorY = y;
+	}//end setCursor
+	public int getCursorX() {
+		return cursorX;
+	}//end getCursorX
+	public int getCursorY() {
+		return cursorY;
+	}//end getCursorY
+	public void setPingTime(long pingTime) {
+		this.pingTime = pingTime;
+	}//end setPingTime
+	public long getPingTime() {
+		return pingTime;
+	}//end getPingTime
+	public void setPixelFormat(byte pixelFormat) {
+		this.pixelFormat = pixelFormat;
+	}//end setPixelFormat
+	public byte getPixelFormat() {
+		return pixelFormat;
+	}//end getPixelFormat
+	public void setPixelFormats(byte[] pixelFormats) {
+		this.pixelFormats = pixelFormats;
+	}//end setPixelFormats
+	public byte[] getPixelFormats() {
+		return pixelFormats;
+	}//end getPixelFormats
+	public void setTrace(Trace trace) {
+		this.trace = trace;
+	}//end setTrace
+	public Trace getTrace() {
+		return trace;
+	}//end getTrace
 }//end Packet class
\ No newline at end of file
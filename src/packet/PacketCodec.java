@@ -0,0 +1,855 @@
+package packet;
+
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Class that writes and reads the packets on the wire as length-prefixed binary frames.
+ * Every frame starts with its length and a header (kind, width, height, pixel format)
+ * and is followed by the flat pixel payload, so the cost of a frame only depends on the
+ * number of pixels. A frame can also carry only some tiles of the canvas, each one with
+ * its own coordinates, or a single drawing operation. The pixels are written as they are
+ * or encoded by one of the pixel codecs, the format byte of the frame tells which one.
+ * The first byte of a frame is the id of its {@link MessageType} and only the payload of
+ * that type follows the name of the sender, a drawing starting with its trace.
+ * An instance keeps scratch buffers and its own codecs, so it should only be used by one
+ * stream (one for reading and one for writing)
+ * */
+public class PacketCodec {
+
+	/**
+	 * The pixel formats of the payload. FORMAT_INT_RGB writes the pixels as they are,
+	 * the other ones are the pixel codecs
+	 * */
+	public static final byte FORMAT_INT_RGB = 1;
+	public static final byte FORMAT_DEFLATE = 2;
+	public static final byte FORMAT_RLE = 3;
+	public static final byte FORMAT_PALETTE = 4;
+	private static final String[] FORMAT_NAMES = {null, "raw", "deflate", "rle", "palette"};
+
+	/**
+	 * The biggest frame that is accepted from the other side of the connection
+	 * */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	private static final int SCRATCH_SIZE = 64 * 1024;
+	/**
+	 * The size from which a frame is encoded in a direct buffer. A small frame is cheaper to
+	 * allocate on the heap, a big one, like a snapshot shared by many clients, is written to
+	 * the sockets without being copied again
+	 * */
+	public static final int DIRECT_FRAME_SIZE = 64 * 1024;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final DirectColorModel RGB_MODEL = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+
+	private final byte[] scratch = new byte[SCRATCH_SIZE];
+	private final IntBuffer scratchInts = ByteBuffer.wrap(scratch).asIntBuffer();
+	/**
+	 * The codecs of this instance, indexed by their pixel format
+	 * */
+	private final PixelCodec[] codecs = new PixelCodec[FORMAT_NAMES.length];
+	/**
+	 * The pixels of all the tiles of a frame, one after the other, and the encoded
+	 * pixels that were received. Both grow to the biggest frame and are then reused
+	 * */
+	private int[] gathered = new int[0];
+	private byte[] received = new byte[0];
+	/**
+	 * The stream that reads the frames held in a buffer, reused for every frame
+	 * */
+	private final ByteBufferInputStream bufferInput = new ByteBufferInputStream();
+	private final DataInputStream bufferData = new DataInputStream(bufferInput);
+	/**
+	 * What happened the last time pixels were encoded
+	 * */
+	private String lastCodecName;
+	/**
+	 * The biggest image accepted in a full share, so a small encoded payload can't make the
+	 * reader allocate more pixels than the receiver can use
+	 * */
+	private int maxImageWidth = Integer.MAX_VALUE, maxImageHeight = Integer.MAX_VALUE;
+	private long lastRawBytes, lastEncodedBytes, lastEncodeNanos;
+
+	/**
+	 * Constructor for the PacketCodec class that compresses with the fastest Deflate level
+	 * */
+	public PacketCodec() {
+		this(Deflater.BEST_SPEED);
+	}//end PacketCodec constructor
+
+	/**
+	 * Constructor for the PacketCodec class
+	 * @param deflateLevel The level used when the pixels are compressed with Deflate
+	 * */
+	public PacketCodec(int deflateLevel) {
+		codecs[FORMAT_DEFLATE] = new DeflatePixelCodec(deflateLevel);
+		codecs[FORMAT_RLE] = new RlePixelCodec();
+		codecs[FORMAT_PALETTE] = new PalettePixelCodec();
+	}//end PacketCodec constructor
+
+	/**
+	 * Method that frees the native memory of the compressors of the codec, it can't be used anymore
+	 * */
+	public void close() {
+		for(PixelCodec codec : codecs) {
+			if(codec != null) {
+				codec.close();
+			}//end if
+		}//end for
+	}//end close method
+
+	/**
+	 * Method that returns the pixel formats this class can read and write, the preferred one first
+	 * */
+	public static byte[] supportedFormats() {
+		return new byte[] {FORMAT_DEFLATE, FORMAT_RLE, FORMAT_PALETTE, FORMAT_INT_RGB};
+	}//end supportedFormats method
+
+	/**
+	 * Method that returns the pixel format with the given name
+	 * @param name raw, deflate, rle or palette
+	 * @throws IllegalArgumentException if there is no pixel format with that name
+	 * */
+	public static byte formatOf(String name) {
+		for(byte format = 1; format < FORMAT_NAMES.length; format++) {
+			if(FORMAT_NAMES[format].equalsIgnoreCase(name)) {
+				return format;
+			}//end if
+		}//end for
+		throw new IllegalArgumentException("Unknown pixel format " + name);
+	}//end formatOf method
+
+	/**
+	 * Method that returns the name of the pixel format, or its number if it is unknown
+	 * */
+	public static String formatName(byte format) {
+		return format > 0 && format < FORMAT_NAMES.length ? FORMAT_NAMES[format] : String.valueOf(format);
+	}//end formatName method
+
+	/**
+	 * Method that writes the packet as one frame and flushes the stream
+	 * @param out The stream where the frame is written
+	 * @param packet The packet that will be written
+	 * @throws IOException
+	 * */
+	public void write(DataOutputStream out, Packet packet) throws IOException {
+		byte[] name = packet.getUserName().getBytes("UTF-8");
+		PixelCodec codec = codecOf(packet);
+		int encodedLength = codec == null ? 0 : encodePixels(packet, codec);
+		stampEncodeTime(packet, codec);
+		out.writeInt(frameLength(packet, name, encodedLength));
+		writeFrame(out, packet, name, codec, encodedLength);
+		out.flush();
+	}//end write method
+	
+	/**
+	 * Method that fills the encode time of the trace of the packet when the sender asked for it
+	 * @param codec The codec that has just encoded the pixels, null if they are written as they are
+	 * */
+	private void stampEncodeTime(Packet packet, PixelCodec codec) {
+		Trace trace = packet.getTrace();
+		if(trace != null && trace.getEncodeMicros() == Trace.MEASURE) {
+			trace.setEncodeMicros(codec == null ? 0 : (int) (lastEncodeNanos / 1000));
+		}//end if
+	}//end stampEncodeTime method
+	
+	/**
+	 * Method that writes the frame after its length
+	 * @param codec The codec that has encoded the pixels, null if they are written as they are
+	 * @param encodedLength The number of bytes in the buffer of the codec
+	 * */
+	private void writeFrame(DataOutputStream out, Packet packet, byte[] name, PixelCodec codec, int encodedLength) throws IOException {
+		MessageType type = packet.getType();
+		out.writeByte(type.getId());
+		writeName(out, name);
+		if(type.isDrawing()) {
+			writeTrace(out, packet.getTrace());
+		}//end if
+		switch(type) {
+		case HELLO:
+			byte[] formats = packet.getPixelFormats();
+			if(formats != null) {
+				out.writeByte(formats.length);
+				out.write(formats);
+			}//end if
+			break;
+		case STROKE:
+			writeStroke(out, packet.getStroke());
+			break;
+		case SHARE_TILES:
+			List<Tile> tiles = packet.getTiles();
+			if(codec == null) {
+				out.writeByte(FORMAT_INT_RGB);
+				out.writeInt(tiles.size());
+				for(Tile tile : tiles) {
+					writeTileHeader(out, tile);
+					writePixels(out, tile.getPixels(), tile.getWidth() * tile.getHeight());
+				}//end for
+			}else {
+				//the headers come first and the pixels of all the tiles are encoded together
+				out.writeByte(codec.getId());
+				out.writeInt(tiles.size());
+				for(Tile tile : tiles) {
+					writeTileHeader(out, tile);
+				}//end for
+				out.writeInt(encodedLength);
+				out.write(codec.getBuffer(), 0, encodedLength);
+			}//end if else
+			break;
+		case SHARE_FULL:
+			int width = packet.getImageWidth();
+			int height = packet.getImageHeight();
+			out.writeInt(width);
+			out.writeInt(height);
+			if(codec == null) {
+				out.writeByte(FORMAT_INT_RGB);
+				writePixels(out, packet.getImage(), width * height);
+			}else {
+				out.writeByte(codec.getId());
+				out.writeInt(encodedLength);
+				out.write(codec.getBuffer(), 0, encodedLength);
+			}//end if else
+			break;
+		case CURSOR:
+			out.writeInt(packet.getCursorX());
+			out.writeInt(packet.getCursorY());
+			break;
+		case PING:
+		case PONG:
+			out.writeLong(packet.getPingTime());
+			break;
+		case BYE:
+			break;
+		case CHUNK:
+			throw new IOException("The chunks are only written by a FrameChunker");
+		}//end switch
+	}//end writeFrame method
+	
+	private static void writeTileHeader(DataOutputStream out, Tile tile) throws IOException {
+		out.writeInt(tile.getX());
+		out.writeInt(tile.getY());
+		out.writeInt(tile.getWidth());
+		out.writeInt(tile.getHeight());
+	}//end writeTileHeader method
+	
+	/**
+	 * Method that returns the codec that encodes the pixels of the packet, or null if the
+	 * packet has no pixels or they are written as they are
+	 * */
+	private PixelCodec codecOf(Packet packet) throws IOException {
+		MessageType type = packet.getType();
+		if((type != MessageType.SHARE_FULL && type != MessageType.SHARE_TILES) || packet.getPixelFormat() == FORMAT_INT_RGB) {
+			return null;
+		}//end if
+		return codecFor(packet.getPixelFormat());
+	}//end codecOf method
+	
+	private PixelCodec codecFor(byte format) throws IOException {
+		if(format <= 0 || format >= codecs.length || codecs[format] == null) {
+			throw new IOException("Unknown pixel format " + format);
+		}//end if
+		return codecs[format];
+	}//end codecFor method
+	
+	/**
+	 * Method that encodes the pixels of the image or of all the tiles of the packet
+	 * in the buffer of the codec and remembers the ratio and the time it took
+	 * @return the number of encoded bytes
+	 * */
+	private int encodePixels(Packet packet, PixelCodec codec) {
+		long start = System.nanoTime();
+		int[] pixels;
+		int count;
+		if(packet.getType() == MessageType.SHARE_TILES) {
+			count = 0;
+			for(Tile tile : packet.getTiles()) {
+				count += tile.getWidth() * tile.getHeight();
+			}//end for
+			if(gathered.length < count) {
+				gathered = new int[count];
+			}//end if
+			int offset = 0;
+			for(Tile tile : packet.getTiles()) {
+				int n = tile.getWidth() * tile.getHeight();
+				System.arraycopy(tile.getPixels(), 0, gathered, offset, n);
+				offset += n;
+			}//end for
+			pixels = gathered;
+		}else {
+			pixels = packet.getImage();
+			count = packet.getImageWidth() * packet.getImageHeight();
+		}//end if else
+		int encodedLength = codec.encode(pixels, count);
+		lastEncodeNanos = System.nanoTime() - start;
+		lastCodecName = codec.getName();
+		lastRawBytes = (long) count * 4;
+		lastEncodedBytes = encodedLength;
+		return encodedLength;
+	}//end encodePixels method
+	
+	/**
+	 * Method that encodes the packet once in a buffer that can be shared by all the clients
+	 * that receive it, a direct one from DIRECT_FRAME_SIZE bytes. Every client should write
+	 * its own duplicate of the buffer
+	 * @param packet The packet that will be encoded
+	 * @return a read-only buffer that holds the whole frame
+	 * @throws IOException
+	 * */
+	public ByteBuffer encode(Packet packet) throws IOException {
+		byte[] name = packet.getUserName().getBytes("UTF-8");
+		//the pixels are encoded first, the length of the frame depends on them
+		PixelCodec codec = codecOf(packet);
+		int encodedLength = codec == null ? 0 : encodePixels(packet, codec);
+		stampEncodeTime(packet, codec);
+		int length = frameLength(packet, name, encodedLength);
+		ByteBuffer frame = 4 + length < DIRECT_FRAME_SIZE ? ByteBuffer.allocate(4 + length) : ByteBuffer.allocateDirect(4 + length);
+		DataOutputStream out = new DataOutputStream(new ByteBufferOutputStream(frame));
+		out.writeInt(length);
+		writeFrame(out, packet, name, codec, encodedLength);
+		frame.flip();
+		return frame.asReadOnlyBuffer();
+	}//end encode method
+	
+	/**
+	 * Method that returns the length of the frame of the packet, without the length itself
+	 * @param packet The packet that will be written
+	 * @param name The encoded userName of the packet
+	 * @param encodedLength The number of bytes of the encoded pixels, when they are encoded
+	 * */
+	private static int frameLength(Packet packet, byte[] name, int encodedLength) {
+		int length = 1 + 2 + name.length;
+		boolean encoded = packet.getPixelFormat() != FORMAT_INT_RGB;
+		if(packet.getType().isDrawing()) {
+			length += Trace.SIZE;
+		}//end if
+		switch(packet.getType()) {
+		case HELLO:
+			return packet.getPixelFormats() == null ? length : length + 1 + packet.getPixelFormats().length;
+		case STROKE:
+			StrokeOp stroke = packet.getStroke();
+			length += 26;
+			if(stroke.getTool() == StrokeOp.Tool.TEXT) {
+				length += 2 + fontName(stroke).length + 3 + 4 + 4 + stroke.getText().getBytes(UTF_8).length;
+			}//end if
+			return length;
+		case SHARE_TILES:
+			length += 5 + 16 * packet.getTiles().size();
+			if(encoded) {
+				return length + 4 + encodedLength;
+			}//end if
+			for(Tile tile : packet.getTiles()) {
+				length += tile.getWidth() * tile.getHeight() * 4;
+			}//end for
+			return length;
+		case SHARE_FULL:
+			if(encoded) {
+				return length + 9 + 4 + encodedLength;
+			}//end if
+			return length + 9 + packet.getImageWidth() * packet.getImageHeight() * 4;
+		case CURSOR:
+		case PING:
+		case PONG:
+			return length + 8;
+		default:
+			return length;
+		}//end switch
+	}//end frameLength method
+
+	/**
+	 * Method that reads the next frame from the stream and returns the packet
+	 * @param in The stream from where the frame is read
+	 * @return the packet that was read
+	 * @throws IOException if the frame is malformed or the stream is closed
+	 * */
+	public Packet read(DataInputStream in) throws IOException {
+		return readBody(in, readLength(in), null);
+	}//end read method
+
+	/**
+	 * Method that reads the frame that starts at the position of the buffer, with its length,
+	 * without copying it. The position is moved after the bytes that were read
+	 * @param frame The buffer that holds the whole frame
+	 * @return the packet that was read
+	 * @throws IOException if the frame is malformed or incomplete
+	 * */
+	public Packet read(ByteBuffer frame) throws IOException {
+		bufferInput.buffer = frame;
+		try {
+			return read(bufferData);
+		}finally {
+			bufferInput.buffer = null;
+		}//end try finally
+	}//end read method
+
+	/**
+	 * Method that reads the next frame from the stream without decoding it, so the
+	 * decoding can be done later or skipped when a newer frame replaces it
+	 * @param in The stream from where the frame is read
+	 * @return the bytes of the frame after its length
+	 * @throws IOException if the frame length is invalid or the stream is closed
+	 * */
+	public static byte[] readFrame(DataInputStream in) throws IOException {
+		byte[] frame = new byte[readLength(in)];
+		in.readFully(frame);
+		return frame;
+	}//end readFrame method
+
+	/**
+	 * Method that decodes a frame read by readFrame
+	 * @param frame The bytes of the frame after its length
+	 * @return the packet of the frame
+	 * @throws IOException if the frame is malformed
+	 * */
+	public Packet decode(byte[] frame) throws IOException {
+		return decode(frame, null);
+	}//end decode method
+
+	/**
+	 * Method that decodes a frame read by readFrame. When the frame holds a full image
+	 * of the same size as the given pixels, the image is decoded in them instead of a new array
+	 * @param frame The bytes of the frame after its length
+	 * @param imagePixels The pixels reused for an image, can be null
+	 * @return the packet of the frame
+	 * @throws IOException if the frame is malformed
+	 * */
+	public Packet decode(byte[] frame, int[] imagePixels) throws IOException {
+		return readBody(new DataInputStream(new ByteArrayInputStream(frame)), frame.length, imagePixels);
+	}//end decode method
+
+	/**
+	 * Method that returns the kind of a frame read by readFrame without decoding it
+	 * @return the kind, or null if it is unknown
+	 * */
+	public static MessageType kindOf(byte[] frame) {
+		return MessageType.fromId(frame[0]);
+	}//end kindOf method
+
+	/**
+	 * Method that returns the kind of an encoded frame, whose length comes first, without decoding it
+	 * @return the kind, or null if it is unknown
+	 * */
+	public static MessageType kindOf(ByteBuffer frame) {
+		return MessageType.fromId(frame.get(frame.position() + 4));
+	}//end kindOf method
+
+	private static int readLength(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length <= 0 || length > MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid frame length " + length);
+		}//end if
+		return length;
+	}//end readLength method
+
+	/**
+	 * Method that decodes the frame that follows its length
+	 * @param in The stream from where the frame is read
+	 * @param length The length of the frame
+	 * @param imagePixels The pixels reused for an image of the same size, can be null
+	 * */
+	private Packet readBody(DataInputStream in, int length, int[] imagePixels) throws IOException {
+		byte kind = in.readByte();
+		MessageType type = MessageType.fromId(kind);
+		if(type == null) {
+			throw new IOException("Unknown frame kind " + kind);
+		}//end if
+		Packet packet = new Packet(type, readName(in));
+		//the bytes of the frame that are left after the header
+		int remaining = length - (1 + 2 + packet.getUserName().getBytes(UTF_8).length);
+		if(type.isDrawing()) {
+			if(remaining < Trace.SIZE) {
+				throw new IOException("Missing trace");
+			}//end if
+			packet.setTrace(readTrace(in));
+			remaining -= Trace.SIZE;
+		}//end if
+		switch(type) {
+		case HELLO:
+			if(remaining > 0) {
+				byte[] formats = new byte[in.readUnsignedByte()];
+				in.readFully(formats);
+				packet.setPixelFormats(formats);
+			}//end if
+			break;
+		case SHARE_FULL:
+			int width = in.readInt();
+			int height = in.readInt();
+			byte format = in.readByte();
+			//an encoded image can be much smaller than its pixels, so its size is checked against
+			//the biggest image and the biggest frame before the pixels are allocated
+			long limit = format == FORMAT_INT_RGB ? length : MAX_FRAME_LENGTH;
+			if(width < 0 || height < 0 || width > maxImageWidth || height > maxImageHeight || (long) width * height * 4 > limit) {
+				throw new IOException("Invalid image size " + width + "x" + height);
+			}//end if
+			int[] pixels = imagePixels != null && imagePixels.length == width * height ? imagePixels : new int[width * height];
+			if(format == FORMAT_INT_RGB) {
+				readPixels(in, pixels, pixels.length);
+			}else {
+				readEncodedPixels(in, codecFor(format), remaining, pixels, pixels.length);
+			}//end if else
+			packet.setPixelFormat(format);
+			packet.setImageWidth(width);
+			packet.setImageHeight(height);
+			packet.setImage(pixels);
+			break;
+		case STROKE:
+			packet.setStroke(readStroke(in));
+			break;
+		case SHARE_TILES:
+			byte tilesFormat = in.readByte();
+			if(tilesFormat == FORMAT_INT_RGB) {
+				packet.setTiles(readTiles(in, length));
+			}else {
+				packet.setTiles(readEncodedTiles(in, codecFor(tilesFormat), remaining));
+			}//end if else
+			packet.setPixelFormat(tilesFormat);
+			break;
+		case CURSOR:
+			packet.setCursor(in.readInt(), in.readInt());
+			break;
+		case PING:
+		case PONG:
+			packet.setPingTime(in.readLong());
+			break;
+		case BYE:
+			break;
+		case CHUNK:
+			throw new IOException("A chunk must be put back together before it is decoded");
+		}//end switch
+		return packet;
+	}//end readBody method
+
+	/**
+	 * Method that reads the count of the tiles and then every tile with its pixels
+	 * @param in The stream from where the tiles are read
+	 * @param length The number of bytes available for the tiles, used to reject bad sizes
+	 * */
+	private List<Tile> readTiles(DataInputStream in, long length) throws IOException {
+		int count = in.readInt();
+		if(count < 0 || (long) count * 16 > length) {
+			throw new IOException("Invalid tile count " + count);
+		}//end if
+		List<Tile> tiles = new ArrayList<>(count);
+		long remaining = length;
+		for(int i = 0; i < count; i++) {
+			int x = in.readInt();
+			int y = in.readInt();
+			int w = in.readInt();
+			int h = in.readInt();
+			remaining -= (long) w * h * 4;
+			if(w < 0 || h < 0 || remaining < 0) {
+				throw new IOException("Invalid tile size " + w + "x" + h);
+			}//end if
+			int[] tilePixels = new int[w * h];
+			readPixels(in, tilePixels, tilePixels.length);
+			tiles.add(new Tile(x, y, w, h, tilePixels));
+		}//end for
+		return tiles;
+	}//end readTiles method
+
+	/**
+	 * Method that reads the headers of the tiles and then the pixels of all the tiles,
+	 * which were encoded together
+	 * @param in The stream from where the tiles are read
+	 * @param codec The codec that decodes the pixels
+	 * @param remaining The number of bytes left in the frame, used to reject bad sizes
+	 * */
+	private List<Tile> readEncodedTiles(DataInputStream in, PixelCodec codec, int remaining) throws IOException {
+		int count = in.readInt();
+		if(count < 0 || (long) count * 16 > remaining) {
+			throw new IOException("Invalid tile count " + count);
+		}//end if
+		int[] bounds = new int[count * 4];
+		long total = 0;
+		for(int i = 0; i < bounds.length; i += 4) {
+			bounds[i] = in.readInt();
+			bounds[i + 1] = in.readInt();
+			bounds[i + 2] = in.readInt();
+			bounds[i + 3] = in.readInt();
+			total += (long) bounds[i + 2] * bounds[i + 3];
+			if(bounds[i + 2] < 0 || bounds[i + 3] < 0 || total * 4 > MAX_FRAME_LENGTH) {
+				throw new IOException("Invalid tile size " + bounds[i + 2] + "x" + bounds[i + 3]);
+			}//end if
+		}//end for
+		if(gathered.length < total) {
+			gathered = new int[(int) total];
+		}//end if
+		readEncodedPixels(in, codec, remaining - 1 - 4 - count * 16, gathered, (int) total);
+		List<Tile> tiles = new ArrayList<>(count);
+		int offset = 0;
+		for(int i = 0; i < bounds.length; i += 4) {
+			int[] tilePixels = new int[bounds[i + 2] * bounds[i + 3]];
+			System.arraycopy(gathered, offset, tilePixels, 0, tilePixels.length);
+			offset += tilePixels.length;
+			tiles.add(new Tile(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3], tilePixels));
+		}//end for
+		return tiles;
+	}//end readEncodedTiles method
+
+	/**
+	 * Method that reads the length of the encoded pixels, then the encoded pixels, and decodes them
+	 * @param remaining The number of bytes left in the frame, used to reject bad lengths
+	 * @param pixels The destination of the pixels
+	 * @param count The number of pixels that are expected
+	 * */
+	private void readEncodedPixels(DataInputStream in, PixelCodec codec, int remaining, int[] pixels, int count) throws IOException {
+		int encodedLength = in.readInt();
+		if(encodedLength < 0 || encodedLength > remaining) {
+			throw new IOException("Invalid length of the encoded pixels " + encodedLength);
+		}//end if
+		if(received.length < encodedLength) {
+			received = new byte[encodedLength];
+		}//end if
+		in.readFully(received, 0, encodedLength);
+		codec.decode(received, encodedLength, pixels, count);
+	}//end readEncodedPixels method
+
+	/**
+	 * Method that writes the pixels in big chunks through the scratch buffer
+	 * @param out The stream where the pixels are written
+	 * @param pixels The source pixels
+	 * @param count The number of pixels that are written
+	 * */
+	private void writePixels(DataOutputStream out, int[] pixels, int count) throws IOException {
+		int chunk = SCRATCH_SIZE / 4;
+		for(int offset = 0; offset < count; offset += chunk) {
+			int n = Math.min(chunk, count - offset);
+			scratchInts.clear();
+			scratchInts.put(pixels, offset, n);
+			out.write(scratch, 0, n * 4);
+		}//end for
+	}//end writePixels method
+
+	/**
+	 * Method that reads the pixels in big chunks through the scratch buffer
+	 * @param in The stream from where the pixels are read
+	 * @param pixels The destination of the pixels
+	 * @param count The number of pixels that are read
+	 * */
+	private void readPixels(DataInputStream in, int[] pixels, int count) throws IOException {
+		int chunk = SCRATCH_SIZE / 4;
+		for(int offset = 0; offset < count; offset += chunk) {
+			int n = Math.min(chunk, count - offset);
+			in.readFully(scratch, 0, n * 4);
+			scratchInts.clear();
+			scratchInts.get(pixels, offset, n);
+		}//end for
+	}//end readPixels method
+
+	/**
+	 * Method that writes the fields of a drawing operation
+	 * @param out The stream where the operation is written
+	 * @param stroke The drawing operation
+	 * */
+	private static void writeStroke(DataOutputStream out, StrokeOp stroke) throws IOException {
+		out.writeByte(stroke.getTool().ordinal());
+		out.writeInt(stroke.getColor());
+		out.writeInt(stroke.getStrokeWidth());
+		out.writeByte(stroke.getLineType().ordinal());
+		out.writeInt(stroke.getX1());
+		out.writeInt(stroke.getY1());
+		out.writeInt(stroke.getX2());
+		out.writeInt(stroke.getY2());
+		if(stroke.getTool() == StrokeOp.Tool.TEXT) {
+			Font font = stroke.getFont();
+			writeName(out, fontName(stroke));
+			out.writeByte(font == null ? 0 : font.getStyle());
+			out.writeShort(font == null ? 0 : font.getSize());
+			out.writeInt(stroke.getWrapWidth());
+			byte[] text = stroke.getText().getBytes(UTF_8);
+			out.writeInt(text.length);
+			out.write(text);
+		}//end if
+	}//end writeStroke method
+
+	/**
+	 * Method that reads the fields of a drawing operation
+	 * @param in The stream from where the operation is read
+	 * @return the drawing operation
+	 * */
+	private static StrokeOp readStroke(DataInputStream in) throws IOException {
+		StrokeOp.Tool[] tools = StrokeOp.Tool.values();
+		StrokeOp.LineType[] lineTypes = StrokeOp.LineType.values();
+		int tool = in.readUnsignedByte();
+		if(tool >= tools.length) {
+			throw new IOException("Unknown tool " + tool);
+		}//end if
+		StrokeOp stroke = new StrokeOp();
+		stroke.setTool(tools[tool]);
+		stroke.setColor(in.readInt());
+		int width = in.readInt();
+		//the pen of a curve takes memory and time proportional to its width
+		if(width < 1 || width > StrokeEngine.MAX_CACHED_WIDTH) {
+			throw new IOException("Invalid stroke width " + width);
+		}//end if
+		stroke.setStrokeWidth(width);
+		int lineType = in.readUnsignedByte();
+		if(lineType >= lineTypes.length) {
+			throw new IOException("Unknown line type " + lineType);
+		}//end if
+		stroke.setLineType(lineTypes[lineType]);
+		stroke.setPoints(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		if(stroke.getTool() == StrokeOp.Tool.TEXT) {
+			String fontName = readName(in);
+			int style = in.readByte();
+			int size = in.readShort();
+			if(!fontName.isEmpty()) {
+				stroke.setFont(new Font(fontName, style, size));
+			}//end if
+			stroke.setWrapWidth(in.readInt());
+			int length = in.readInt();
+			if(length < 0 || length > MAX_FRAME_LENGTH) {
+				throw new IOException("Invalid text length " + length);
+			}//end if
+			byte[] text = new byte[length];
+			in.readFully(text);
+			stroke.setText(new String(text, UTF_8));
+		}//end if
+		return stroke;
+	}//end readStroke method
+
+	private static byte[] fontName(StrokeOp stroke) {
+		return stroke.getFont() == null ? new byte[0] : stroke.getFont().getName().getBytes(UTF_8);
+	}//end fontName method
+
+	private static void writeName(DataOutputStream out, byte[] name) throws IOException {
+		out.writeShort(name.length);
+		out.write(name);
+	}//end writeName method
+
+	private static String readName(DataInputStream in) throws IOException {
+		byte[] name = new byte[in.readUnsignedShort()];
+		in.readFully(name);
+		return new String(name, "UTF-8");
+	}//end readName method
+
+	/**
+	 * Method that writes the trace of a packet, a packet without trace is written with an empty one
+	 * */
+	private static void writeTrace(DataOutputStream out, Trace trace) throws IOException {
+		if(trace == null) {
+			out.write(new byte[Trace.SIZE]);
+			return;
+		}//end if
+		out.writeInt(trace.getSequence());
+		out.writeLong(trace.getOriginTime());
+		out.writeInt(trace.getCaptureMicros());
+		out.writeInt(trace.getEncodeMicros());
+		out.writeLong(trace.getServerReceiveTime());
+		out.writeLong(trace.getServerEnqueueTime());
+	}//end writeTrace method
+
+	private static Trace readTrace(DataInputStream in) throws IOException {
+		Trace trace = new Trace();
+		trace.setSequence(in.readInt());
+		trace.setOriginTime(in.readLong());
+		trace.setCaptureMicros(in.readInt());
+		trace.setEncodeMicros(in.readInt());
+		trace.setServerReceiveTime(in.readLong());
+		trace.setServerEnqueueTime(in.readLong());
+		return trace;
+	}//end readTrace method
+
+	/**
+	 * Method that sets the biggest image accepted in a full share, a bigger one is a malformed frame
+	 * @param width, height The biggest size
+	 * */
+	public void setMaxImageSize(int width, int height) {
+		maxImageWidth = width;
+		maxImageHeight = height;
+	}//end setMaxImageSize method
+
+	//Getters for what happened the last time pixels were encoded
+	public String getLastCodecName() {
+		return lastCodecName;
+	}//end getLastCodecName
+	public long getLastRawBytes() {
+		return lastRawBytes;
+	}//end getLastRawBytes
+	public long getLastEncodedBytes() {
+		return lastEncodedBytes;
+	}//end getLastEncodedBytes
+	public long getLastEncodeNanos() {
+		return lastEncodeNanos;
+	}//end getLastEncodeNanos
+
+	/**
+	 * Stream that writes straight into a buffer that is big enough for the whole frame
+	 * */
+	private static class ByteBufferOutputStream extends OutputStream {
+		private final ByteBuffer buffer;
+		ByteBufferOutputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}//end ByteBufferOutputStream constructor
+		@Override
+		public void write(int b) {
+			buffer.put((byte) b);
+		}//end write method
+		@Override
+		public void write(byte[] b, int off, int len) {
+			buffer.put(b, off, len);
+		}//end write method
+	}//end ByteBufferOutputStream class
+
+	/**
+	 * Stream that reads straight from a buffer, the buffer is changed for every frame
+	 * */
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}//end read method
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len == 0) {
+				return 0;
+			}//end if
+			if(!buffer.hasRemaining()) {
+				return -1;
+			}//end if
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}//end read method
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}//end available method
+	}//end ByteBufferInputStream class
+
+	/**
+	 * Method that returns the pixels of a TYPE_INT_RGB image without copying them
+	 * @param image The image whose pixels are returned
+	 * */
+	public static int[] getPixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}//end getPixels method
+
+	/**
+	 * Method that wraps the flat pixels in a TYPE_INT_RGB image without copying them
+	 * @param pixels The flat pixels, row by row
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * */
+	public static BufferedImage toImage(int[] pixels, int width, int height) {
+		DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+		WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, RGB_MODEL.getMasks(), null);
+		return new BufferedImage(RGB_MODEL, raster, false, null);
+	}//end toImage method
+}//end PacketCodec class
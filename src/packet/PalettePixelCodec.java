@@ -0,0 +1,178 @@
+package packet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Codec that writes a palette with the colors of the pixels and then the index of the
+ * color of every pixel, packed in 1, 2, 4 or 8 bits depending on the number of colors.
+ * It is meant for canvases with few colors, when there are more than MAX_COLORS colors
+ * the pixels are written as they are. The encoded data starts with the number of colors
+ * (0 for the pixels written as they are) followed by the colors, 4 bytes each
+ * */
+public class PalettePixelCodec extends PixelCodec {
+
+	/**
+	 * The biggest number of colors that fit in a palette
+	 * */
+	public static final int MAX_COLORS = 256;
+
+	private static final int TABLE_SIZE = 1024;
+	private static final int EMPTY = -1;
+
+	/**
+	 * Hash table from a color to its index in the palette, reused for every frame
+	 * */
+	private final int[] tableColors = new int[TABLE_SIZE];
+	private final int[] tableIndexes = new int[TABLE_SIZE];
+	private final int[] palette = new int[MAX_COLORS];
+
+	/**
+	 * Constructor for the PalettePixelCodec class
+	 * */
+	public PalettePixelCodec() {
+		super(PacketCodec.FORMAT_PALETTE, "palette");
+	}//end PalettePixelCodec constructor
+
+	@Override
+	public int encode(int[] pixels, int count) {
+		Arrays.fill(tableIndexes, EMPTY);
+		int colors = 0;
+		for(int i = 0; i < count; i++) {
+			if(indexOf(pixels[i]) == EMPTY) {
+				if(colors == MAX_COLORS) {
+					return encodeRaw(pixels, count);
+				}//end if
+				put(pixels[i], colors);
+				palette[colors++] = pixels[i];
+			}//end if
+		}//end for
+		int bits = bitsFor(colors);
+		int perByte = 8 / bits;
+		ensureCapacity(2 + colors * 4 + (count + perByte - 1) / perByte);
+		byte[] out = buffer;
+		int pos = 0;
+		out[pos++] = (byte) (colors >>> 8);
+		out[pos++] = (byte) colors;
+		for(int c = 0; c < colors; c++) {
+			int color = palette[c];
+			out[pos++] = (byte) (color >>> 24);
+			out[pos++] = (byte) (color >>> 16);
+			out[pos++] = (byte) (color >>> 8);
+			out[pos++] = (byte) color;
+		}//end for
+		int current = 0;
+		int filled = 0;
+		for(int i = 0; i < count; i++) {
+			current = (current << bits) | indexOf(pixels[i]);
+			if(++filled == perByte) {
+				out[pos++] = (byte) current;
+				current = 0;
+				filled = 0;
+			}//end if
+		}//end for
+		if(filled > 0) {
+			out[pos++] = (byte) (current << (bits * (perByte - filled)));
+		}//end if
+		return pos;
+	}//end encode method
+
+	/**
+	 * Method that writes the pixels as they are, when they have too many colors for a palette
+	 * */
+	private int encodeRaw(int[] pixels, int count) {
+		ensureCapacity(2 + count * 4);
+		byte[] out = buffer;
+		int pos = 0;
+		out[pos++] = 0;
+		out[pos++] = 0;
+		for(int i = 0; i < count; i++) {
+			int pixel = pixels[i];
+			out[pos++] = (byte) (pixel >>> 24);
+			out[pos++] = (byte) (pixel >>> 16);
+			out[pos++] = (byte) (pixel >>> 8);
+			out[pos++] = (byte) pixel;
+		}//end for
+		return pos;
+	}//end encodeRaw method
+
+	@Override
+	public void decode(byte[] data, int length, int[] pixels, int count) throws IOException {
+		if(length < 2) {
+			throw new IOException("Missing palette");
+		}//end if
+		int colors = (data[0] & 0xff) << 8 | (data[1] & 0xff);
+		int pos = 2;
+		if(colors == 0) {
+			if(length != 2 + (long) count * 4) {
+				throw new IOException("Invalid length of the pixels " + length);
+			}//end if
+			for(int i = 0; i < count; i++, pos += 4) {
+				pixels[i] = readInt(data, pos);
+			}//end for
+			return;
+		}//end if
+		int bits = bitsFor(colors);
+		int perByte = 8 / bits;
+		if(colors > MAX_COLORS || length != 2 + colors * 4 + ((long) count + perByte - 1) / perByte) {
+			throw new IOException("Invalid palette of " + colors + " colors");
+		}//end if
+		for(int c = 0; c < colors; c++, pos += 4) {
+			palette[c] = readInt(data, pos);
+		}//end for
+		int mask = (1 << bits) - 1;
+		for(int i = 0; i < count; i++) {
+			int shift = 8 - bits * (i % perByte + 1);
+			int index = (data[pos + i / perByte] >>> shift) & mask;
+			if(index >= colors) {
+				throw new IOException("Invalid color index " + index);
+			}//end if
+			pixels[i] = palette[index];
+		}//end for
+	}//end decode method
+
+	/**
+	 * Method that returns the index of the color in the palette, or EMPTY if it is not there yet
+	 * */
+	private int indexOf(int color) {
+		int slot = hash(color);
+		while(tableIndexes[slot] != EMPTY) {
+			if(tableColors[slot] == color) {
+				return tableIndexes[slot];
+			}//end if
+			slot = (slot + 1) & (TABLE_SIZE - 1);
+		}//end while
+		return EMPTY;
+	}//end indexOf method
+
+	private void put(int color, int index) {
+		int slot = hash(color);
+		while(tableIndexes[slot] != EMPTY) {
+			slot = (slot + 1) & (TABLE_SIZE - 1);
+		}//end while
+		tableColors[slot] = color;
+		tableIndexes[slot] = index;
+	}//end put method
+
+	private static int hash(int color) {
+		return (color * 0x9E3779B1) >>> 22;
+	}//end hash method
+
+	/**
+	 * Method that returns the number of bits needed for the index of one of the colors
+	 * */
+	private static int bitsFor(int colors) {
+		if(colors <= 2) {
+			return 1;
+		}else if(colors <= 4) {
+			return 2;
+		}else if(colors <= 16) {
+			return 4;
+		}//end if else
+		return 8;
+	}//end bitsFor method
+
+	private static int readInt(byte[] data, int pos) {
+		return (data[pos] & 0xff) << 24 | (data[pos + 1] & 0xff) << 16 | (data[pos + 2] & 0xff) << 8 | (data[pos + 3] & 0xff);
+	}//end readInt method
+}//end PalettePixelCodec class
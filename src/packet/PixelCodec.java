@@ -0,0 +1,74 @@
+package packet;
+
+import java.io.IOException;
+
+/**
+ * Class for the encodings of the pixel payload of a frame. An encoder writes into its own
+ * buffer, which grows to the biggest payload it has seen and is then reused, so encoding
+ * the frames of the same size again allocates nothing. An instance is not thread safe
+ * */
+public abstract class PixelCodec {
+
+	private final byte id;
+	private final String name;
+	/**
+	 * The encoded bytes of the last call of encode
+	 * */
+	protected byte[] buffer = new byte[0];
+
+	/**
+	 * Constructor for the PixelCodec class
+	 * @param id The pixel format written in the frames encoded by this codec
+	 * @param name The name of the codec, shown in the console
+	 * */
+	protected PixelCodec(byte id, String name) {
+		this.id = id;
+		this.name = name;
+	}//end PixelCodec constructor
+
+	/**
+	 * Method that encodes the pixels in the buffer of the codec
+	 * @param pixels The pixels, row by row
+	 * @param count The number of pixels that are encoded
+	 * @return the number of bytes of the buffer that hold the encoded pixels
+	 * */
+	public abstract int encode(int[] pixels, int count);
+
+	/**
+	 * Method that decodes pixels encoded by the same kind of codec
+	 * @param data The encoded bytes
+	 * @param length The number of encoded bytes
+	 * @param pixels The destination of the pixels
+	 * @param count The number of pixels that are expected
+	 * @throws IOException if the data is corrupted or doesn't hold count pixels
+	 * */
+	public abstract void decode(byte[] data, int length, int[] pixels, int count) throws IOException;
+
+	/**
+	 * Method that frees what the codec holds outside of the heap, it can't be used anymore
+	 * */
+	public void close() {
+	}//end close method
+
+	/**
+	 * Method that makes sure the buffer can hold at least capacity bytes, keeping its content
+	 * */
+	protected void ensureCapacity(int capacity) {
+		if(buffer.length < capacity) {
+			byte[] bigger = new byte[Math.max(capacity, buffer.length + buffer.length / 2)];
+			System.arraycopy(buffer, 0, bigger, 0, buffer.length);
+			buffer = bigger;
+		}//end if
+	}//end ensureCapacity method
+
+	//Getters for the attributes of the PixelCodec class
+	public byte[] getBuffer() {
+		return buffer;
+	}//end getBuffer
+	public byte getId() {
+		return id;
+	}//end getId
+	public String getName() {
+		return name;
+	}//end getName
+}//end PixelCodec class
@@ -0,0 +1,76 @@
+package packet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Codec that writes every run of identical pixels once, with its length. The flat
+ * regions of a canvas become a few bytes, while a region without runs grows by
+ * one byte every pixel. A run is written as its length in 7-bit groups, the low
+ * group first, followed by the 4 bytes of the pixel
+ * */
+public class RlePixelCodec extends PixelCodec {
+
+	/**
+	 * Constructor for the RlePixelCodec class
+	 * */
+	public RlePixelCodec() {
+		super(PacketCodec.FORMAT_RLE, "rle");
+	}//end RlePixelCodec constructor
+
+	@Override
+	public int encode(int[] pixels, int count) {
+		//the worst case is a run for every pixel, a longer run never takes more than 5 bytes a pixel
+		ensureCapacity(count * 5);
+		byte[] out = buffer;
+		int pos = 0;
+		int i = 0;
+		while(i < count) {
+			int pixel = pixels[i];
+			int run = 1;
+			while(i + run < count && pixels[i + run] == pixel) {
+				run++;
+			}//end while
+			i += run;
+			while(run > 127) {
+				out[pos++] = (byte) (0x80 | (run & 0x7f));
+				run >>>= 7;
+			}//end while
+			out[pos++] = (byte) run;
+			out[pos++] = (byte) (pixel >>> 24);
+			out[pos++] = (byte) (pixel >>> 16);
+			out[pos++] = (byte) (pixel >>> 8);
+			out[pos++] = (byte) pixel;
+		}//end while
+		return pos;
+	}//end encode method
+
+	@Override
+	public void decode(byte[] data, int length, int[] pixels, int count) throws IOException {
+		int pos = 0;
+		int done = 0;
+		while(done < count) {
+			int run = 0;
+			int shift = 0;
+			int b;
+			do {
+				if(pos >= length || shift > 28) {
+					throw new IOException("Corrupted run length");
+				}//end if
+				b = data[pos++];
+				run |= (b & 0x7f) << shift;
+				shift += 7;
+			}while((b & 0x80) != 0);
+			if(run <= 0 || run > count - done || pos + 4 > length) {
+				throw new IOException("Corrupted run of " + run + " pixels");
+			}//end if
+			int pixel = (data[pos] & 0xff) << 24 | (data[pos + 1] & 0xff) << 16 | (data[pos + 2] & 0xff) << 8 | (data[pos + 3] & 0xff);
+			pos += 4;
+			Arrays.fill(pixels, done, done + run, pixel);
+			done += run;
+		}//end while
+		if(pos != length) {
+			throw new IOException("Unexpected bytes after the pixels");
+		}//end if
+	}//end decode method
+}//end RlePixelCodec class
@@ -0,0 +1,293 @@
+package packet;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Class that draws the operations of the users on one canvas without producing garbage.
+ * The curves and the erased lines are walked with Bresenham and written straight into the
+ * tiles of the canvas, the other operations are drawn with a Graphics2D on every tile under
+ * them and with strokes that are cached by width and line type.
+ * Every canvas that receives the operations, on the clients and on the server, draws them
+ * with an engine, so they all end with the same pixels. An engine is not thread safe
+ * */
+public class StrokeEngine {
+
+	/**
+	 * The widths up to which the strokes are created once and shared
+	 * */
+	public static final int MAX_CACHED_WIDTH = 64;
+
+	/**
+	 * The dashed outline of the region selected by the user
+	 * */
+	public static final BasicStroke SELECTION = new BasicStroke(1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[] {20, 10}, 0);
+
+	/**
+	 * The cached strokes, indexed by line type and width. The curves use the STRAIGHT ones
+	 * */
+	private static final BasicStroke[][] STROKES = new BasicStroke[StrokeOp.LineType.values().length][MAX_CACHED_WIDTH + 1];
+	static {
+		for(StrokeOp.LineType type : StrokeOp.LineType.values()) {
+			for(int width = 1; width <= MAX_CACHED_WIDTH; width++) {
+				STROKES[type.ordinal()][width] = createStroke(width, type);
+			}//end for
+		}//end for
+	}//end static block
+
+	private final TiledCanvas canvas;
+	/**
+	 * A graphics on a scratch image, where a text is measured before it is drawn on the tiles
+	 * */
+	private final Graphics2D measure;
+	/**
+	 * What draws an operation on every tile under it
+	 * */
+	private final OpPainter painter = new OpPainter();
+	/**
+	 * The horizontal spans of the round pen of the last width used by a curve, two offsets
+	 * from the left of the pen for every row
+	 * */
+	private int[] pen = new int[0];
+	private int penWidth = -1;
+	/**
+	 * The points of the segment that is walked, clipped to the canvas, and the part of the
+	 * segment kept by the clipping
+	 * */
+	private int segmentX1, segmentY1, segmentX2, segmentY2;
+	private double clipStart, clipEnd;
+
+	/**
+	 * Class that draws the current operation on the graphics of a tile
+	 * */
+	private static class OpPainter implements TiledCanvas.Painter {
+		private StrokeOp op;
+
+		@Override
+		public void paint(Graphics2D g) {
+			op.paint(g, true);
+		}//end paint method
+	}//end OpPainter class
+
+	/**
+	 * Constructor for the StrokeEngine class
+	 * @param canvas The canvas the operations are drawn on
+	 * */
+	public StrokeEngine(TiledCanvas canvas) {
+		this.canvas = canvas;
+		this.measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+	}//end StrokeEngine constructor
+
+	/**
+	 * Method that returns the stroke that draws a line of the width and the line type
+	 * @param width The width of the pen
+	 * @param type The line type, STRAIGHT for the curves
+	 * @return the shared stroke, or a new one for the widths that are not cached
+	 * */
+	public static BasicStroke strokeOf(int width, StrokeOp.LineType type) {
+		if(width >= 1 && width <= MAX_CACHED_WIDTH) {
+			return STROKES[type.ordinal()][width];
+		}//end if
+		return createStroke(width, type);
+	}//end strokeOf method
+
+	private static BasicStroke createStroke(int width, StrokeOp.LineType type) {
+		switch(type) {
+		case DOTTED:
+			return new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[] {width, 10 * width}, 0);
+		case INTERRUPTED:
+			return new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[] {width}, 0);
+		default:
+			return new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_BEVEL);
+		}//end switch
+	}//end createStroke method
+
+	/**
+	 * Method that draws an operation on the canvas
+	 * @param op The drawing operation
+	 * @param bounds Where the region that was changed by the operation is written
+	 * */
+	public void paint(StrokeOp op, Rectangle bounds) {
+		if(op.getTool() == StrokeOp.Tool.CURVE) {
+			preparePen(op.getStrokeWidth());
+			drawPixels(op, false);
+			op.getBounds(bounds);
+			return;
+		}else if(op.getTool() == StrokeOp.Tool.ERASE) {
+			drawPixels(op, true);
+			op.getBounds(bounds);
+			return;
+		}else if(op.getTool() == StrokeOp.Tool.TEXT) {
+			//the region of a text is only known once it is laid out
+			bounds.setBounds(op.paint(measure, true));
+		}else {
+			op.getBounds(bounds);
+		}//end if else
+		painter.op = op;
+		canvas.paint(bounds, painter);
+		painter.op = null;
+	}//end paint method
+
+	/**
+	 * Method that draws an operation on the canvas
+	 * @return the region that was changed by the operation
+	 * */
+	public Rectangle paint(StrokeOp op) {
+		Rectangle bounds = new Rectangle();
+		paint(op, bounds);
+		return bounds;
+	}//end paint method
+
+	/**
+	 * Method that walks the points of the operation with Bresenham and puts the pen on every
+	 * one of them, a square block for the eraser and a round pen for the curves
+	 * */
+	private void drawPixels(StrokeOp op, boolean square) {
+		int size = square ? op.getStrokeWidth() : penWidth;
+		if(!clipSegment(op, size + 1)) {
+			return;
+		}//end if
+		int x = segmentX1, y = segmentY1;
+		int x2 = segmentX2, y2 = segmentY2;
+		int color = 0xff000000 | op.getColor();
+		int dx = Math.abs(x2 - x), sx = x < x2 ? 1 : -1;
+		int dy = -Math.abs(y2 - y), sy = y < y2 ? 1 : -1;
+		int error = dx + dy;
+		while(true) {
+			if(square) {
+				fillBlock(x - size / 2, y - size / 2, size, color);
+			}else {
+				fillPen(x - size / 2, y - size / 2, color);
+			}//end if else
+			if(x == x2 && y == y2) {
+				break;
+			}//end if
+			int e2 = 2 * error;
+			if(e2 >= dy) {
+				error += dy;
+				x += sx;
+			}//end if
+			if(e2 <= dx) {
+				error += dx;
+				y += sy;
+			}//end if
+		}//end while
+	}//end drawPixels method
+
+	/**
+	 * Method that clips the segment of an operation to the canvas enlarged by the pen, with
+	 * Liang-Barsky, so a segment that goes far outside of the canvas isn't walked point by point.
+	 * A segment that is already on the canvas keeps its points
+	 * @param pad The number of pixels the canvas is enlarged by on every side
+	 * @return false if no point of the segment is on the canvas
+	 * */
+	private boolean clipSegment(StrokeOp op, int pad) {
+		int x1 = op.getX1(), y1 = op.getY1();
+		int x2 = op.getX2(), y2 = op.getY2();
+		long minX = -pad, minY = -pad;
+		long maxX = (long) canvas.getWidth() + pad, maxY = (long) canvas.getHeight() + pad;
+		if(x1 >= minX && x1 <= maxX && x2 >= minX && x2 <= maxX && y1 >= minY && y1 <= maxY && y2 >= minY && y2 <= maxY) {
+			segmentX1 = x1;
+			segmentY1 = y1;
+			segmentX2 = x2;
+			segmentY2 = y2;
+			return true;
+		}//end if
+		double dx = (double) x2 - x1;
+		double dy = (double) y2 - y1;
+		clipStart = 0;
+		clipEnd = 1;
+		if(!clipEdge(-dx, x1 - minX) || !clipEdge(dx, maxX - x1) || !clipEdge(-dy, y1 - minY) || !clipEdge(dy, maxY - y1)) {
+			return false;
+		}//end if
+		segmentX1 = (int) Math.round(x1 + clipStart * dx);
+		segmentY1 = (int) Math.round(y1 + clipStart * dy);
+		segmentX2 = (int) Math.round(x1 + clipEnd * dx);
+		segmentY2 = (int) Math.round(y1 + clipEnd * dy);
+		return true;
+	}//end clipSegment method
+
+	/**
+	 * Method that clips the segment against one edge of the canvas
+	 * @param p The move of the segment towards the outside of the edge
+	 * @param q The distance of the first point to the edge, negative if it is outside
+	 * @return false if the segment is completely outside of the edge
+	 * */
+	private boolean clipEdge(double p, double q) {
+		if(p == 0) {
+			return q >= 0;
+		}//end if
+		double t = q / p;
+		if(p < 0) {
+			if(t > clipEnd) {
+				return false;
+			}//end if
+			clipStart = Math.max(clipStart, t);
+		}else {
+			if(t < clipStart) {
+				return false;
+			}//end if
+			clipEnd = Math.min(clipEnd, t);
+		}//end if else
+		return true;
+	}//end clipEdge method
+
+	/**
+	 * Method that fills a square block of pixels, clipped to the canvas
+	 * */
+	private void fillBlock(int left, int top, int size, int color) {
+		for(int y = top; y < top + size; y++) {
+			canvas.fillSpan(y, left, left + size, color);
+		}//end for
+	}//end fillBlock method
+
+	/**
+	 * Method that fills the round pen whose bounding square starts at (left, top), clipped to the canvas
+	 * */
+	private void fillPen(int left, int top, int color) {
+		for(int row = 0; row < penWidth; row++) {
+			canvas.fillSpan(top + row, left + pen[2 * row], left + pen[2 * row + 1], color);
+		}//end for
+	}//end fillPen method
+
+	/**
+	 * Method that computes the spans of the round pen of a width, the pixels whose center is
+	 * inside the circle inscribed in the square of the pen. Nothing is computed when the
+	 * width didn't change
+	 * */
+	private void preparePen(int size) {
+		size = Math.max(size, 1);
+		if(size == penWidth) {
+			return;
+		}//end if
+		pen = new int[2 * size];
+		double center = (size - 1) / 2.0;
+		double radius = size / 2.0;
+		for(int row = 0; row < size; row++) {
+			double dy = row - center;
+			double half = Math.sqrt(Math.max(0, radius * radius - dy * dy));
+			int start = (int) Math.ceil(center - half);
+			int end = (int) Math.floor(center + half) + 1;
+			//the rows at the top and the bottom of a small pen keep at least their center pixel
+			pen[2 * row] = Math.min(start, (int) center);
+			pen[2 * row + 1] = Math.max(end, (int) center + 1);
+		}//end for
+		penWidth = size;
+	}//end preparePen method
+
+	/**
+	 * Method that frees the graphics of the engine, it can't draw anymore
+	 * */
+	public void dispose() {
+		measure.dispose();
+	}//end dispose method
+
+	/**
+	 * Method that returns the canvas of the engine
+	 * */
+	public TiledCanvas getCanvas() {
+		return canvas;
+	}//end getCanvas method
+}//end StrokeEngine class
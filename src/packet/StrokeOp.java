@@ -0,0 +1,379 @@
+package packet;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.util.StringTokenizer;
+
+/**
+ * Class that holds one drawing operation made by the user (a curve segment, a shape,
+ * an erased line or a text) and knows how to draw it. The same code draws the operation
+ * on the canvas of the user that made it and replays it on the canvas of the other clients
+ * */
+public class StrokeOp {
+
+	/**
+	 * The tools that can be sent as operations
+	 * */
+	public enum Tool {CURVE, LINE, RECT, OVAL, FILLED_RECT, FILLED_OVAL, ERASE, TEXT};
+	/**
+	 * The types of lines that can be drawn with the LINE tool
+	 * */
+	public enum LineType {STRAIGHT, DOTTED, INTERRUPTED};
+
+	private Tool tool = Tool.CURVE;
+	private int color;
+	private int strokeWidth = 1;
+	private LineType lineType = LineType.STRAIGHT;
+	private int x1, y1, x2, y2;
+	private Font font;
+	private String text;
+	/**
+	 * The width after which the text is wrapped on the next line
+	 * */
+	private int wrapWidth;
+	/**
+	 * The color and the region of the last time the operation was drawn, reused so drawing
+	 * the same operation again, like a preview while the mouse is dragged, makes no garbage
+	 * */
+	private Color paintColor;
+	private Rectangle paintBounds;
+
+	/**
+	 * Constructor without parameter for the StrokeOp class
+	 * */
+	public StrokeOp() {}
+
+	/**
+	 * Constructor for the StrokeOp class
+	 * @param tool The tool that was used
+	 * @param color The rgb color of the operation
+	 * @param strokeWidth The width of the pen
+	 * @param x1, y1 The start point of the operation
+	 * @param x2, y2 The end point of the operation
+	 * */
+	public StrokeOp(Tool tool, int color, int strokeWidth, int x1, int y1, int x2, int y2) {
+		this.tool = tool;
+		this.color = color;
+		this.strokeWidth = strokeWidth;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.x2 = x2;
+		this.y2 = y2;
+	}//end StrokeOp constructor
+
+	/**
+	 * Method that returns a copy of the operation, for the listeners that keep an operation
+	 * the canvas reuses
+	 * */
+	public StrokeOp copy() {
+		StrokeOp copy = new StrokeOp(tool, color, strokeWidth, x1, y1, x2, y2);
+		copy.lineType = lineType;
+		copy.font = font;
+		copy.text = text;
+		copy.wrapWidth = wrapWidth;
+		return copy;
+	}//end copy method
+
+	/**
+	 * Method that draws the operation. The canvases that are shared draw the operations with
+	 * a {@link StrokeEngine}, this method is used for the previews and by the engine itself
+	 * @param g The graphics context where the operation is drawn
+	 * @return the region that was changed by the operation, reused by the next call
+	 * */
+	public Rectangle paint(Graphics g) {
+		return paint(g, true);
+	}//end paint method
+
+	/**
+	 * Method that draws the operation
+	 * @param g The graphics context where the operation is drawn
+	 * @param withColor false if the color of the graphics is already the one of the operation
+	 * @return the region that was changed by the operation, reused by the next call
+	 * */
+	Rectangle paint(Graphics g, boolean withColor) {
+		if(withColor) {
+			g.setColor(getPaintColor());
+		}//end if
+		switch(tool) {
+		case CURVE:
+		case LINE:
+			Graphics2D line = (Graphics2D) g;
+			Stroke previous = line.getStroke();
+			line.setStroke(StrokeEngine.strokeOf(strokeWidth, tool == Tool.CURVE ? LineType.STRAIGHT : lineType));
+			line.drawLine(x1, y1, x2, y2);
+			line.setStroke(previous);
+			break;
+		case OVAL:
+			putOval(g, false, x1, y1, x2, y2);
+			break;
+		case RECT:
+			putRect(g, false, x1, y1, x2, y2);
+			break;
+		case FILLED_OVAL:
+			putOval(g, true, x1, y1, x2, y2);
+			break;
+		case FILLED_RECT:
+			putRect(g, true, x1, y1, x2, y2);
+			break;
+		case ERASE:
+			eraseAlongLine(g);
+			break;
+		case TEXT:
+			return putText(g);
+		}//end switch
+		if(paintBounds == null) {
+			paintBounds = new Rectangle();
+		}//end if
+		getBounds(paintBounds);
+		return paintBounds;
+	}//end paint method
+
+	/**
+	 * Method that returns the color of the operation, made again only when it was changed
+	 * */
+	Color getPaintColor() {
+		if(paintColor == null || (paintColor.getRGB() & 0xffffff) != (color & 0xffffff)) {
+			paintColor = new Color(color);
+		}//end if
+		return paintColor;
+	}//end getPaintColor method
+
+	/**
+	 * Method that writes the region changed by the operation, enlarged by the size of the pen.
+	 * The region of a text is only known when it is drawn
+	 * @param bounds Where the region is written
+	 * */
+	public void getBounds(Rectangle bounds) {
+		int pad;
+		switch(tool) {
+		case ERASE:
+			pad = strokeWidth;
+			break;
+		case OVAL:
+		case RECT:
+		case FILLED_OVAL:
+		case FILLED_RECT:
+			pad = 2;
+			break;
+		default:
+			pad = Math.max(strokeWidth, 3) + 1;
+		}//end switch
+		bounds.setBounds(Math.min(x1, x2) - pad, Math.min(y1, y2) - pad, Math.abs(x2 - x1) + 2 * pad + 1, Math.abs(y2 - y1) + 2 * pad + 1);
+	}//end getBounds method
+
+	/**
+	 * When the ERASE tool is used and the mouse jumps from (x1,y1) to (x2,y2), the tool
+	 * has to be applied to a line of pixel positions between the two points in order to
+	 * cover the entire line that the mouse moves along. The points are the ones of Bresenham,
+	 * like the ones erased by the {@link StrokeEngine}
+	 * */
+	private void eraseAlongLine(Graphics g) {
+		int x = x1, y = y1;
+		int dx = Math.abs(x2 - x), sx = x < x2 ? 1 : -1;
+		int dy = -Math.abs(y2 - y), sy = y < y2 ? 1 : -1;
+		int error = dx + dy;
+		while(true) {
+			// Erase a block of pixels around (x,y) with the width of strokeWidth
+			g.fillRect(x - strokeWidth / 2, y - strokeWidth / 2, strokeWidth, strokeWidth);
+			if(x == x2 && y == y2) {
+				break;
+			}//end if
+			int e2 = 2 * error;
+			if(e2 >= dy) {
+				error += dy;
+				x += sx;
+			}//end if
+			if(e2 <= dx) {
+				error += dx;
+				y += sy;
+			}//end if
+		}//end while
+	}//end eraseAlongLine method
+
+	/**
+	 * This method draws a filled or unfilled rectangle with corners at the points (x1, y1)
+	 * and (x2, y2).
+	 * @param g the graphics context where the rectangle is drawn
+	 * @param filled tells if the rectangle is drawn filled or unfilled
+	 * */
+	private static void putRect(Graphics g, boolean filled, int x1, int y1, int x2, int y2) {
+		 if (x1 == x2 || y1 == y2)
+	         return;
+	      if (x2 < x1) {  // Swap x1,x2 if necessary to make x2 > x1.
+	         int temp = x1;
+	         x1 = x2;
+	         x2 = temp;
+	      }//end if
+	      if (y2 < y1) {  // Swap y1,y2 if necessary to make y2 > y1.
+	         int temp = y1;
+	         y1 = y2;
+	         y2 = temp;
+	      }//end if
+	      if (filled)
+	         g.fillRect(x1,y1,x2-x1,y2-y1);
+	      else
+	         g.drawRect(x1,y1,x2-x1,y2-y1);
+	}// end putRect method
+
+	 /**
+	  * Draws a filled or unfilled oval in the rectangle with corners at the
+	  * points (x1,y1) and (x2,y2).
+	  * @param g the graphics context where the oval is drawn
+	  * @param filled tells whether if the oval should be drawn filled or unfilled
+	  */
+	 private static void putOval(Graphics g, boolean filled, int x1, int y1, int x2, int y2) {
+	    if (x1 == x2 || y1 == y2)
+	       return;
+	    if (x2 < x1) {  // Swap x1,x2 if necessary to make x2 > x1.
+	       int temp = x1;
+	       x1 = x2;
+	       x2 = temp;
+	    }//end if
+	    if (y2 < y1) {  // Swap y1,y2 if necessary to make y2 > y1.
+	       int temp = y1;
+	       y1 = y2;
+	       y2 = temp;
+	    }//end if
+	    if (filled)
+	       g.fillOval(x1,y1,x2-x1,y2-y1);
+	    else
+	       g.drawOval(x1,y1,x2-x1,y2-y1);
+	 }//end putOval method
+
+	/**
+	 * Method that draws the text at (x1, y1), wrapping it on several lines when it
+	 * doesn't fit before the wrap width
+	 * @param g the graphics context where the text is drawn
+	 * @return the region that was changed by the text
+	 * */
+	private Rectangle putText(Graphics g) {
+		int startX = x1, startY = y1;
+		g.setFont(font);
+		FontMetrics fm = g.getFontMetrics();
+		StringBuffer wrapText = new StringBuffer();
+		int counter = 1;
+		if(startX + fm.stringWidth(text) >= wrapWidth) {
+			if(text.contains(" ")) {
+				StringTokenizer tokens = new StringTokenizer(text, " ");
+				while(tokens.hasMoreTokens()) {
+					String element = tokens.nextToken();
+					String test = new String(wrapText);
+					if(startX + fm.stringWidth(element) + fm.stringWidth(test) >= wrapWidth) {
+						wrapText.append("\n").append(element);
+					}else {
+						wrapText.append(element).append(" ");
+					}//end if else
+				}//end while
+				tokens = new StringTokenizer(new String(wrapText), "\n");
+				g.drawString(tokens.nextToken(), startX, startY);
+				while(tokens.hasMoreElements()) {
+					g.drawString(tokens.nextToken(), startX, startY + counter*fm.getAscent() + counter*fm.getDescent());
+					counter++;
+				}//end while
+			}else {
+				for(int i = 0; i < text.length(); i++) {
+					char c = text.charAt(i);
+					wrapText.append(c);
+					String test = new String(wrapText);
+					if(startX + fm.stringWidth(test) >= wrapWidth) {
+						wrapText.append("\n");
+					}//end if
+				}//end for
+				StringTokenizer tokenz = new StringTokenizer(new String(wrapText), "\n");
+				while(tokenz.hasMoreElements()) {
+					g.drawString(tokenz.nextToken(), startX, startY + counter*fm.getAscent() + counter*fm.getDescent());
+					counter++;
+				}//end while
+			}//end if else
+		}else {
+			g.drawString(text, startX, startY);
+		}//end if else
+		//the text can be wrapped on several lines up to the wrap width
+		int width = Math.max(wrapWidth - startX, fm.stringWidth(text));
+		if(paintBounds == null) {
+			paintBounds = new Rectangle();
+		}//end if
+		paintBounds.setBounds(startX, startY - fm.getAscent(), width, (counter + 1) * (fm.getAscent() + fm.getDescent()));
+		return paintBounds;
+	}//end putText method
+
+	/**
+	 * Method that converts the name of the line type used by the GUI
+	 * @param name The name of the line type, Straight, Dotted or Interupted
+	 * */
+	public static LineType lineTypeOf(String name) {
+		if(name.equals("Straight")) {
+			return LineType.STRAIGHT;
+		}else if(name.equals("Dotted")) {
+			return LineType.DOTTED;
+		}//end if else
+		return LineType.INTERRUPTED;
+	}//end lineTypeOf method
+
+	//Setters and getters for the attributes of the StrokeOp class
+	public void setTool(Tool tool) {
+		this.tool = tool;
+	}//end setTool
+	public Tool getTool() {
+		return tool;
+	}//end getTool
+	public void setColor(int color) {
+		this.color = color;
+	}//end setColor
+	public int getColor() {
+		return color;
+	}//end getColor
+	public void setStrokeWidth(int strokeWidth) {
+		this.strokeWidth = strokeWidth;
+	}//end setStrokeWidth
+	public int getStrokeWidth() {
+		return strokeWidth;
+	}//end getStrokeWidth
+	public void setLineType(LineType lineType) {
+		this.lineType = lineType;
+	}//end setLineType
+	public LineType getLineType() {
+		return lineType;
+	}//end getLineType
+	public void setPoints(int x1, int y1, int x2, int y2) {
+		this.x1 = x1;
+		this.y1 = y1;
+		this.x2 = x2;
+		this.y2 = y2;
+	}//end setPoints
+	public int getX1() {
+		return x1;
+	}//end getX1
+	public int getY1() {
+		return y1;
+	}//end getY1
+	public int getX2() {
+		return x2;
+	}//end getX2
+	public int getY2() {
+		return y2;
+	}//end getY2
+	public void setFont(Font font) {
+		this.font = font;
+	}//end setFont
+	public Font getFont() {
+		return font;
+	}//end getFont
+	public void setText(String text) {
+		this.text = text;
+	}//end setText
+	public String getText() {
+		return text;
+	}//end getText
+	public void setWrapWidth(int wrapWidth) {
+		this.wrapWidth = wrapWidth;
+	}//end setWrapWidth
+	public int getWrapWidth() {
+		return wrapWidth;
+	}//end getWrapWidth
+}//end StrokeOp class
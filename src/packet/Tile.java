@@ -0,0 +1,46 @@
+package packet;
+
+/**
+ * Class that holds a rectangular region of the canvas that is sent inside a packet
+ * */
+public class Tile {
+
+	private final int x, y, width, height;
+	/**
+	 * The pixels of the region, stored row by row (index = row * width + column)
+	 * */
+	private final int[] pixels;
+
+	/**
+	 * Constructor for the Tile class
+	 * @param x The left side of the region on the canvas
+	 * @param y The top side of the region on the canvas
+	 * @param width The width of the region
+	 * @param height The height of the region
+	 * @param pixels The flat array of pixels of the region
+	 * */
+	public Tile(int x, int y, int width, int height, int[] pixels) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+	}//end Tile constructor
+
+	//Getters for the attributes of the Tile class
+	public int getX() {
+		return x;
+	}//end getX
+	public int getY() {
+		return y;
+	}//end getY
+	public int getWidth() {
+		return width;
+	}//end getWidth
+	public int getHeight() {
+		return height;
+	}//end getHeight
+	public int[] getPixels() {
+		return pixels;
+	}//end getPixels
+}//end Tile class
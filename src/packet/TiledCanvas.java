@@ -0,0 +1,542 @@
+package packet;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Class that stores a canvas as a sparse grid of square tiles. A tile that was never written
+ * is the shared blank tile, white, and takes no memory; a tile gets its own pixels the first
+ * time something that isn't blank is written on it. The canvas can grow, which only grows the
+ * grid of references, so it can be much larger than the window and its memory is
+ * proportional to what was drawn. The tiles are always TILE_SIZE pixels wide and high, the
+ * ones on the right and bottom edges have pixels outside of the canvas that are never read.
+ * The pixels of a tile can be shared with a listener, like an undo history, the canvas copies
+ * them before it writes on them again. The canvas is not thread safe
+ * */
+public class TiledCanvas {
+
+	/**
+	 * The size in pixels of the side of a tile
+	 * */
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * The color of the pixels that were never drawn, white as Java2D writes it
+	 * */
+	public static final int BLANK = 0xffffffff;
+
+	/**
+	 * The number of bytes of the pixels of a tile
+	 * */
+	public static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+	/**
+	 * The pixels of every tile that was never written, they must never be changed
+	 * */
+	private static final int[] BLANK_TILE = new int[TILE_SIZE * TILE_SIZE];
+	static {
+		Arrays.fill(BLANK_TILE, BLANK);
+	}//end static block
+
+	/**
+	 * Interface for the code that draws on the canvas with a Graphics2D
+	 * */
+	public interface Painter {
+		/**
+		 * Method that draws on the canvas
+		 * @param g The graphics of one tile, translated so the coordinates are the ones of the canvas
+		 * */
+		void paint(Graphics2D g);
+	}//end Painter interface
+
+	/**
+	 * Interface for the code that keeps the tiles as they were before they were changed
+	 * */
+	public interface TileListener {
+		/**
+		 * Method called before the first write on a tile since the last change was started
+		 * @param column, row The tile
+		 * @param pixels The pixels of the tile before the write, null if it was blank. The
+		 * canvas never writes on them anymore, so they can be kept without a copy
+		 * */
+		void beforeWrite(int column, int row, int[] pixels);
+	}//end TileListener interface
+
+	private int width, height;
+	private int columns, rows;
+	/**
+	 * The pixels of the tiles, indexed by row * columns + column, the blank tile for the ones never written
+	 * */
+	private int[][] tiles;
+	/**
+	 * The images wrapping the pixels of the tiles, made the first time a tile is drawn with a Graphics2D
+	 * */
+	private BufferedImage[] images;
+	private int allocated;
+	/**
+	 * The tiles whose pixels are also held by someone else, they are copied before they are written
+	 * */
+	private boolean[] shared;
+	/**
+	 * The change during which every tile was last given to the listener, and the current change
+	 * */
+	private int[] changes;
+	private int change = 1;
+	private TileListener listener;
+
+	/**
+	 * Constructor for the TiledCanvas class, the canvas is blank
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 * */
+	public TiledCanvas(int width, int height) {
+		tiles = new int[0][];
+		images = new BufferedImage[0];
+		shared = new boolean[0];
+		changes = new int[0];
+		resize(width, height);
+	}//end TiledCanvas constructor
+
+	/**
+	 * Method that changes the size of the canvas. The tiles that are still inside keep their
+	 * pixels, the new ones are blank and the ones outside are freed
+	 * @param width The new width
+	 * @param height The new height
+	 * */
+	public void resize(int width, int height) {
+		int newColumns = (Math.max(width, 0) + TILE_SIZE - 1) / TILE_SIZE;
+		int newRows = (Math.max(height, 0) + TILE_SIZE - 1) / TILE_SIZE;
+		int[][] newTiles = new int[newColumns * newRows][];
+		BufferedImage[] newImages = new BufferedImage[newTiles.length];
+		boolean[] newShared = new boolean[newTiles.length];
+		int[] newChanges = new int[newTiles.length];
+		Arrays.fill(newTiles, BLANK_TILE);
+		allocated = 0;
+		for(int row = 0; row < Math.min(rows, newRows); row++) {
+			for(int column = 0; column < Math.min(columns, newColumns); column++) {
+				int[] tile = tiles[row * columns + column];
+				newTiles[row * newColumns + column] = tile;
+				newImages[row * newColumns + column] = images[row * columns + column];
+				newShared[row * newColumns + column] = shared[row * columns + column];
+				newChanges[row * newColumns + column] = changes[row * columns + column];
+				if(tile != BLANK_TILE) {
+					allocated++;
+				}//end if
+			}//end for
+		}//end for
+		this.width = width;
+		this.height = height;
+		this.columns = newColumns;
+		this.rows = newRows;
+		this.tiles = newTiles;
+		this.images = newImages;
+		this.shared = newShared;
+		this.changes = newChanges;
+	}//end resize method
+
+	/**
+	 * Method that makes the canvas bigger if it is smaller than the size, it never shrinks
+	 * @return true if the canvas grew
+	 * */
+	public boolean ensureSize(int width, int height) {
+		if(width <= this.width && height <= this.height) {
+			return false;
+		}//end if
+		resize(Math.max(width, this.width), Math.max(height, this.height));
+		return true;
+	}//end ensureSize method
+
+	/**
+	 * Method that makes the whole canvas blank again and frees all the tiles
+	 * */
+	public void clear() {
+		if(listener != null) {
+			for(int index = 0; index < tiles.length; index++) {
+				if(tiles[index] != BLANK_TILE) {
+					report(index);
+				}//end if
+			}//end for
+		}//end if
+		Arrays.fill(tiles, BLANK_TILE);
+		Arrays.fill(shared, false);
+		Arrays.fill(images, null);
+		allocated = 0;
+	}//end clear method
+
+	/**
+	 * Method that returns the pixels of a tile that can be written, they are allocated the
+	 * first time the tile is written and copied when they are shared
+	 * */
+	private int[] writableTile(int index) {
+		if(listener != null) {
+			report(index);
+		}//end if
+		int[] tile = tiles[index];
+		if(tile == BLANK_TILE) {
+			tile = BLANK_TILE.clone();
+			tiles[index] = tile;
+			allocated++;
+		}else if(shared[index]) {
+			tile = tile.clone();
+			tiles[index] = tile;
+			//the image wraps the pixels that are shared
+			images[index] = null;
+			shared[index] = false;
+		}//end if else
+		return tile;
+	}//end writableTile method
+	
+	/**
+	 * Method that gives a tile to the listener the first time it is written during the current
+	 * change, its pixels become shared
+	 * */
+	private void report(int index) {
+		if(changes[index] == change) {
+			return;
+		}//end if
+		changes[index] = change;
+		int[] tile = tiles[index];
+		listener.beforeWrite(index % columns, index / columns, tile == BLANK_TILE ? null : tile);
+		shared[index] = tile != BLANK_TILE;
+	}//end report method
+	
+	/**
+	 * Method that starts a new change, the listener is given again every tile that is written
+	 * */
+	public void startChange() {
+		change++;
+	}//end startChange method
+	
+	/**
+	 * Method that returns the pixels of a tile without a copy. They become shared, so the
+	 * canvas never writes on them anymore
+	 * @param column, row The tile
+	 * @return the pixels, or null if the tile is blank or outside of the canvas
+	 * */
+	public int[] share(int column, int row) {
+		if(column < 0 || row < 0 || column >= columns || row >= rows) {
+			return null;
+		}//end if
+		int index = row * columns + column;
+		if(tiles[index] == BLANK_TILE) {
+			return null;
+		}//end if
+		shared[index] = true;
+		return tiles[index];
+	}//end share method
+	
+	/**
+	 * Method that puts back pixels that were shared in a tile, without a copy
+	 * @param column, row The tile, nothing is done if it is outside of the canvas
+	 * @param pixels The pixels, null to make the tile blank. They stay shared
+	 * */
+	public void restore(int column, int row, int[] pixels) {
+		if(column < 0 || row < 0 || column >= columns || row >= rows) {
+			return;
+		}//end if
+		int index = row * columns + column;
+		if(tiles[index] != BLANK_TILE) {
+			allocated--;
+		}//end if
+		tiles[index] = pixels == null ? BLANK_TILE : pixels;
+		images[index] = null;
+		shared[index] = pixels != null;
+		if(pixels != null) {
+			allocated++;
+		}//end if
+	}//end restore method
+
+	/**
+	 * Method that gives the pixels of a tile back to the blank tile when they are all blank.
+	 * A tile on the right or bottom edge is only tested inside the canvas, a drawing that went
+	 * past the edge left pixels there that are never shown
+	 * */
+	private void releaseIfBlank(int index) {
+		int[] tile = tiles[index];
+		if(tile == BLANK_TILE) {
+			return;
+		}//end if
+		int w = Math.min(TILE_SIZE, width - (index % columns) * TILE_SIZE);
+		int h = Math.min(TILE_SIZE, height - (index / columns) * TILE_SIZE);
+		if(isBlankRegion(tile, 0, w, h, TILE_SIZE)) {
+			tiles[index] = BLANK_TILE;
+			images[index] = null;
+			shared[index] = false;
+			allocated--;
+		}//end if
+	}//end releaseIfBlank method
+
+	private static boolean isBlank(int[] pixels, int from, int to) {
+		for(int i = from; i < to; i++) {
+			//the alpha byte of a TYPE_INT_RGB pixel can be 0 or 255
+			if((pixels[i] & 0xffffff) != 0xffffff) {
+				return false;
+			}//end if
+		}//end for
+		return true;
+	}//end isBlank method
+
+	/**
+	 * Method that returns the color of a pixel
+	 * @return the rgb color, BLANK outside of the canvas
+	 * */
+	public int getRGB(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height) {
+			return BLANK;
+		}//end if
+		return tiles[(y / TILE_SIZE) * columns + x / TILE_SIZE][(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+	}//end getRGB method
+
+	/**
+	 * Method that fills the pixels from x1 to x2 of a row, clipped to the canvas. It makes no
+	 * garbage once the tiles under the row are allocated
+	 * @param y The row
+	 * @param x1 The first pixel
+	 * @param x2 The pixel after the last one
+	 * @param color The rgb color
+	 * */
+	public void fillSpan(int y, int x1, int x2, int color) {
+		if(y < 0 || y >= height) {
+			return;
+		}//end if
+		x1 = Math.max(x1, 0);
+		x2 = Math.min(x2, width);
+		int rowIndex = (y / TILE_SIZE) * columns;
+		int offset = (y % TILE_SIZE) * TILE_SIZE;
+		while(x1 < x2) {
+			int column = x1 / TILE_SIZE;
+			int end = Math.min(x2, (column + 1) * TILE_SIZE);
+			int[] tile = writableTile(rowIndex + column);
+			int start = offset + x1 - column * TILE_SIZE;
+			Arrays.fill(tile, start, start + end - x1, color);
+			x1 = end;
+		}//end while
+	}//end fillSpan method
+
+	/**
+	 * Method that copies a region of the canvas, the pixels outside of the canvas are blank
+	 * @param x, y The top left corner of the region
+	 * @param w, h The size of the region
+	 * @param dst Where the pixels are written, row by row
+	 * @param offset The index in dst of the first pixel
+	 * @param stride The number of pixels of a row of dst
+	 * */
+	public void read(int x, int y, int w, int h, int[] dst, int offset, int stride) {
+		for(int row = 0; row < h; row++) {
+			int py = y + row;
+			int index = offset + row * stride;
+			if(py < 0 || py >= height) {
+				Arrays.fill(dst, index, index + w, BLANK);
+				continue;
+			}//end if
+			int rowIndex = (py / TILE_SIZE) * columns;
+			int tileOffset = (py % TILE_SIZE) * TILE_SIZE;
+			int px = x;
+			while(px < x + w) {
+				if(px < 0 || px >= width) {
+					int end = px < 0 ? Math.min(0, x + w) : x + w;
+					Arrays.fill(dst, index + px - x, index + end - x, BLANK);
+					px = end;
+					continue;
+				}//end if
+				int column = px / TILE_SIZE;
+				int end = Math.min(Math.min(x + w, width), (column + 1) * TILE_SIZE);
+				System.arraycopy(tiles[rowIndex + column], tileOffset + px - column * TILE_SIZE, dst, index + px - x, end - px);
+				px = end;
+			}//end while
+		}//end for
+	}//end read method
+
+	/**
+	 * Method that writes a region of pixels on the canvas, clipped to its bounds. A blank
+	 * tile that would only receive blank pixels stays blank, and a tile that the blank pixels
+	 * made all blank is freed
+	 * @param x, y The top left corner of the region
+	 * @param w, h The size of the region
+	 * @param src The pixels of the region, row by row
+	 * @param offset The index in src of the first pixel
+	 * @param stride The number of pixels of a row of src
+	 * @return the region of the canvas that was written, or null if it is outside of the canvas
+	 * */
+	public Rectangle write(int x, int y, int w, int h, int[] src, int offset, int stride) {
+		int x1 = Math.max(x, 0);
+		int y1 = Math.max(y, 0);
+		int x2 = Math.min(x + w, width);
+		int y2 = Math.min(y + h, height);
+		if(x1 >= x2 || y1 >= y2) {
+			return null;
+		}//end if
+		for(int row = y1 / TILE_SIZE; row <= (y2 - 1) / TILE_SIZE; row++) {
+			int ty1 = Math.max(y1, row * TILE_SIZE);
+			int ty2 = Math.min(y2, (row + 1) * TILE_SIZE);
+			for(int column = x1 / TILE_SIZE; column <= (x2 - 1) / TILE_SIZE; column++) {
+				int tx1 = Math.max(x1, column * TILE_SIZE);
+				int tx2 = Math.min(x2, (column + 1) * TILE_SIZE);
+				int index = row * columns + column;
+				boolean blank = isBlankRegion(src, offset + (ty1 - y) * stride + tx1 - x, tx2 - tx1, ty2 - ty1, stride);
+				if(blank && tiles[index] == BLANK_TILE) {
+					continue;
+				}//end if
+				int[] tile = writableTile(index);
+				for(int py = ty1; py < ty2; py++) {
+					System.arraycopy(src, offset + (py - y) * stride + tx1 - x, tile, (py - row * TILE_SIZE) * TILE_SIZE + tx1 - column * TILE_SIZE, tx2 - tx1);
+				}//end for
+				//the listener already has the pixels from before the write, and the written ones
+				//are not shared anymore, so they can be given back to the blank tile
+				if(blank) {
+					releaseIfBlank(index);
+				}//end if
+			}//end for
+		}//end for
+		return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+	}//end write method
+
+	private static boolean isBlankRegion(int[] src, int start, int w, int h, int stride) {
+		for(int row = 0; row < h; row++) {
+			if(!isBlank(src, start + row * stride, start + row * stride + w)) {
+				return false;
+			}//end if
+		}//end for
+		return true;
+	}//end isBlankRegion method
+
+	/**
+	 * Method that writes an image on the canvas
+	 * @param image The image, of any type
+	 * @param x, y Where the top left corner of the image goes
+	 * @return the region of the canvas that was written, or null if it is outside of the canvas
+	 * */
+	public Rectangle write(BufferedImage image, int x, int y) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] pixels = image.getType() == BufferedImage.TYPE_INT_RGB ? PacketCodec.getPixels(image) : image.getRGB(0, 0, w, h, null, 0, w);
+		return write(x, y, w, h, pixels, 0, w);
+	}//end write method
+
+	/**
+	 * Method that draws on the tiles under a region with a Graphics2D. The painter is called
+	 * once for every tile, the tiles it left blank are freed again
+	 * @param region The region the painter can change
+	 * @param painter What draws on the canvas
+	 * */
+	public void paint(Rectangle region, Painter painter) {
+		int x1 = Math.max(region.x, 0);
+		int y1 = Math.max(region.y, 0);
+		int x2 = Math.min(region.x + region.width, width);
+		int y2 = Math.min(region.y + region.height, height);
+		if(x1 >= x2 || y1 >= y2) {
+			return;
+		}//end if
+		for(int row = y1 / TILE_SIZE; row <= (y2 - 1) / TILE_SIZE; row++) {
+			for(int column = x1 / TILE_SIZE; column <= (x2 - 1) / TILE_SIZE; column++) {
+				int index = row * columns + column;
+				Graphics2D g = image(index).createGraphics();
+				g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+				painter.paint(g);
+				g.dispose();
+				//an outline or a text leaves many of the tiles under its region untouched
+				releaseIfBlank(index);
+			}//end for
+		}//end for
+	}//end paint method
+
+	/**
+	 * Method that returns the image wrapping the pixels of a tile, which are allocated if the tile is blank
+	 * */
+	private BufferedImage image(int index) {
+		int[] tile = writableTile(index);
+		if(images[index] == null) {
+			images[index] = PacketCodec.toImage(tile, TILE_SIZE, TILE_SIZE);
+		}//end if
+		return images[index];
+	}//end image method
+
+	/**
+	 * Method that draws a region of the canvas with a graphics, the blank tiles are filled with white
+	 * @param g The graphics where the region is drawn, at the same coordinates
+	 * @param region The region to draw
+	 * */
+	public void draw(Graphics g, Rectangle region) {
+		int x1 = Math.max(region.x, 0);
+		int y1 = Math.max(region.y, 0);
+		int x2 = Math.min(region.x + region.width, width);
+		int y2 = Math.min(region.y + region.height, height);
+		if(x1 >= x2 || y1 >= y2) {
+			return;
+		}//end if
+		g.setColor(Color.WHITE);
+		for(int row = y1 / TILE_SIZE; row <= (y2 - 1) / TILE_SIZE; row++) {
+			int ty1 = Math.max(y1, row * TILE_SIZE);
+			int ty2 = Math.min(y2, (row + 1) * TILE_SIZE);
+			for(int column = x1 / TILE_SIZE; column <= (x2 - 1) / TILE_SIZE; column++) {
+				int tx1 = Math.max(x1, column * TILE_SIZE);
+				int tx2 = Math.min(x2, (column + 1) * TILE_SIZE);
+				int index = row * columns + column;
+				if(tiles[index] == BLANK_TILE) {
+					g.fillRect(tx1, ty1, tx2 - tx1, ty2 - ty1);
+					continue;
+				}//end if
+				if(images[index] == null) {
+					images[index] = PacketCodec.toImage(tiles[index], TILE_SIZE, TILE_SIZE);
+				}//end if
+				int left = column * TILE_SIZE;
+				int top = row * TILE_SIZE;
+				g.drawImage(images[index], tx1, ty1, tx2, ty2, tx1 - left, ty1 - top, tx2 - left, ty2 - top, null);
+			}//end for
+		}//end for
+	}//end draw method
+
+	/**
+	 * Method that copies the whole canvas in a new image, for the code that needs one, like
+	 * the saving of a file. It takes the memory of the full canvas
+	 * */
+	public BufferedImage toImage() {
+		BufferedImage image = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_RGB);
+		read(0, 0, width, height, PacketCodec.getPixels(image), 0, Math.max(width, 1));
+		return image;
+	}//end toImage method
+
+	/**
+	 * Method that tells if a tile was never written, or holds only blank pixels since it was last freed
+	 * @param column, row The tile
+	 * */
+	public boolean isBlankTile(int column, int row) {
+		return tiles[row * columns + column] == BLANK_TILE;
+	}//end isBlankTile method
+
+	/**
+	 * Method that returns the number of bytes taken by the pixels of the allocated tiles
+	 * */
+	public long getMemorySize() {
+		return (long) allocated * TILE_BYTES;
+	}//end getMemorySize method
+
+	/**
+	 * Method that sets the listener that is given the tiles before they are changed
+	 * @param listener The listener, null to stop giving the tiles
+	 * */
+	public void setTileListener(TileListener listener) {
+		this.listener = listener;
+	}//end setTileListener method
+	
+	//Getters for the size of the canvas
+	public int getWidth() {
+		return width;
+	}//end getWidth
+	public int getHeight() {
+		return height;
+	}//end getHeight
+	public int getColumns() {
+		return columns;
+	}//end getColumns
+	public int getRows() {
+		return rows;
+	}//end getRows
+	public int getAllocatedTiles() {
+		return allocated;
+	}//end getAllocatedTiles
+}//end TiledCanvas class
@@ -0,0 +1,127 @@
+package packet;
+
+/**
+ * Class that follows a drawing from the client that made it to the clients that see it.
+ * The sender numbers its packets and writes when the drawing was captured and how long the
+ * capture and the encoding took, the server writes when it received the packet and when it
+ * queued it for the recipients. The times are microseconds since the epoch, so the hops
+ * between two machines are only as exact as their clocks are synchronized
+ * */
+public class Trace {
+
+	/**
+	 * The number of bytes of a trace in a frame
+	 * */
+	public static final int SIZE = 4 + 8 + 4 + 4 + 8 + 8;
+
+	/**
+	 * The encode time that is filled in by the codec when it writes the packet
+	 * */
+	public static final int MEASURE = -1;
+
+	/**
+	 * The epoch time in microseconds when System.nanoTime was 0, so the time can be taken
+	 * from the monotonic clock with a microsecond precision and without allocating
+	 * */
+	private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+
+	private int sequence;
+	private long originTime;
+	private int captureMicros;
+	private int encodeMicros;
+	private long serverReceiveTime;
+	private long serverEnqueueTime;
+
+	/**
+	 * Constructor without parameter for the Trace class
+	 * */
+	public Trace() {}
+
+	/**
+	 * Constructor for the Trace class that starts it now
+	 * @param originTime When the drawing was captured, in microseconds since the epoch
+	 * */
+	public Trace(long originTime) {
+		this.originTime = originTime;
+	}//end Trace constructor
+
+	/**
+	 * Method that returns the current time in microseconds since the epoch
+	 * */
+	public static long now() {
+		return at(System.nanoTime());
+	}//end now method
+
+	/**
+	 * Method that returns a time taken from System.nanoTime in microseconds since the epoch
+	 * */
+	public static long at(long nanoTime) {
+		return EPOCH_OFFSET + nanoTime / 1000;
+	}//end at method
+
+	/**
+	 * Method that returns a copy of the trace, so the server can stamp it for every frame it builds
+	 * */
+	public Trace copy() {
+		Trace copy = new Trace(originTime);
+		copy.sequence = sequence;
+		copy.captureMicros = captureMicros;
+		copy.encodeMicros = encodeMicros;
+		copy.serverReceiveTime = serverReceiveTime;
+		copy.serverEnqueueTime = serverEnqueueTime;
+		return copy;
+	}//end copy method
+
+	/**
+	 * Method that tells if the trace was started by a sender, the frames built by the server
+	 * for a client that just logged in have an empty trace
+	 * */
+	public boolean isStarted() {
+		return originTime != 0;
+	}//end isStarted method
+
+	/**
+	 * Method that returns when the sender handed the packet to the network, after it was encoded
+	 * */
+	public long getSentTime() {
+		return originTime + captureMicros + Math.max(0, encodeMicros);
+	}//end getSentTime method
+
+	//Setters and getters for the attributes of the Trace class
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}//end setSequence
+	public int getSequence() {
+		return sequence;
+	}//end getSequence
+	public void setOriginTime(long originTime) {
+		this.originTime = originTime;
+	}//end setOriginTime
+	public long getOriginTime() {
+		return originTime;
+	}//end getOriginTime
+	public void setCaptureMicros(int captureMicros) {
+		this.captureMicros = captureMicros;
+	}//end setCaptureMicros
+	public int getCaptureMicros() {
+		return captureMicros;
+	}//end getCaptureMicros
+	public void setEncodeMicros(int encodeMicros) {
+		this.encodeMicros = encodeMicros;
+	}//end setEncodeMicros
+	public int getEncodeMicros() {
+		return encodeMicros;
+	}//end getEncodeMicros
+	public void setServerReceiveTime(long serverReceiveTime) {
+		this.serverReceiveTime = serverReceiveTime;
+	}//end setServerReceiveTime
+	public long getServerReceiveTime() {
+		return serverReceiveTime;
+	}//end getServerReceiveTime
+	public void setServerEnqueueTime(long serverEnqueueTime) {
+		this.serverEnqueueTime = serverEnqueueTime;
+	}//end setServerEnqueueTime
+	public long getServerEnqueueTime() {
+		return serverEnqueueTime;
+	}//end getServerEnqueueTime
+}//end Trace class
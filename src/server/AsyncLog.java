@@ -0,0 +1,220 @@
+package server;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class that logs asynchronously. The threads that log only put the time and the message in
+ * a ring of fixed size, claiming a slot with a compare and set, so logging never blocks and
+ * allocates nothing. A single writer thread takes the messages out, formats their time and
+ * hands them to the output in batches. When the ring is full the messages are dropped and
+ * the writer reports how many were lost
+ * */
+public class AsyncLog {
+
+	/**
+	 * Interface for where the batches of formatted lines are written
+	 * */
+	public interface Output {
+		/**
+		 * Method that writes the lines, it is called on the writer thread
+		 * @param lines The lines, each one ending with a new line
+		 * */
+		void write(String lines);
+	}//end Output interface
+
+	/**
+	 * The default number of messages that fit in the ring
+	 * */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * The time the writer waits after a batch, so that the messages logged meanwhile
+	 * are written together
+	 * */
+	private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private static final DateTimeFormatter DATE_FORMAT =
+			DateTimeFormatter.ofPattern("yyyy/MM/dd - HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	private final Output output;
+	private final int mask;
+	private final long[] times;
+	private final String[] messages;
+	/**
+	 * The sequence of every slot. A slot can be claimed by the producer whose position equals
+	 * its sequence, and read by the writer when the sequence is one past its position
+	 * */
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writer;
+
+	//the state of the writer thread
+	private long head;
+	private long reportedDropped;
+	private long lastSecond = -1;
+	private String lastStamp;
+	private final StringBuilder lines = new StringBuilder();
+
+	private volatile boolean waiting;
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor for the AsyncLog class, with the default capacity
+	 * @param output Where the lines are written
+	 * */
+	public AsyncLog(Output output) {
+		this(output, DEFAULT_CAPACITY);
+	}//end AsyncLog constructor
+
+	/**
+	 * Constructor for the AsyncLog class
+	 * @param output Where the lines are written
+	 * @param capacity The number of messages that fit in the ring, rounded up to a power of two
+	 * */
+	public AsyncLog(Output output, int capacity) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}//end if
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.output = output;
+		mask = size - 1;
+		times = new long[size];
+		messages = new String[size];
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}//end for
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}//end run
+		}, "Log writer");
+		writer.setDaemon(true);
+		writer.start();
+	}//end AsyncLog constructor
+
+	/**
+	 * Method that logs the message with the current time. It can be called from any thread
+	 * @param message The message
+	 * @return false if the ring was full and the message was dropped
+	 * */
+	public boolean log(String message) {
+		long time = System.currentTimeMillis();
+		long position = tail.get();
+		while(true) {
+			int slot = (int) position & mask;
+			long difference = sequences.get(slot) - position;
+			if(difference == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					times[slot] = time;
+					messages[slot] = message;
+					//a volatile write, so either the writer sees the message or it is seen waiting
+					sequences.set(slot, position + 1);
+					if(waiting) {
+						LockSupport.unpark(writer);
+					}//end if
+					return true;
+				}//end if
+				position = tail.get();
+			}else if(difference < 0) {
+				//the writer has not read this slot yet, so the ring is full
+				dropped.incrementAndGet();
+				return false;
+			}else {
+				position = tail.get();
+			}//end if else
+		}//end while
+	}//end log method
+
+	/**
+	 * Method that stops the writer thread after it wrote the messages that are in the ring
+	 * */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(1000);
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}//end try catch
+	}//end close method
+
+	/**
+	 * Method that returns the number of messages dropped because the ring was full
+	 * */
+	public long getDropped() {
+		return dropped.get();
+	}//end getDropped method
+
+	/**
+	 * Method run by the writer thread, it writes a batch, waits for the next messages
+	 * and sleeps while there are none
+	 * */
+	private void writeLoop() {
+		while(true) {
+			if(drain()) {
+				output.write(lines.toString());
+				lines.setLength(0);
+				//a ring that is filling up is drained again right away instead of waiting
+				if(tail.get() - head < (mask + 1) / 2) {
+					LockSupport.parkNanos(BATCH_NANOS);
+				}//end if
+			}else if(!running) {
+				return;
+			}else {
+				waiting = true;
+				//the writer sets waiting then reads the sequence, a producer sets the sequence then
+				//reads waiting, so either the message is seen here or the producer unparks the writer
+				if(!hasMessage() && running) {
+					LockSupport.park();
+				}//end if
+				waiting = false;
+			}//end if else
+		}//end while
+	}//end writeLoop method
+
+	private boolean hasMessage() {
+		return sequences.get((int) head & mask) == head + 1;
+	}//end hasMessage method
+
+	/**
+	 * Method that formats the messages of the ring in the lines, at most a ring of them
+	 * so that a batch stays bounded while the messages keep coming
+	 * @return true if there was something to write
+	 * */
+	private boolean drain() {
+		long lost = dropped.get();
+		if(lost != reportedDropped) {
+			appendLine(System.currentTimeMillis(), (lost - reportedDropped) + " log messages were dropped");
+			reportedDropped = lost;
+		}//end if
+		for(int n = 0; n <= mask && hasMessage(); n++) {
+			int slot = (int) head & mask;
+			String message = messages[slot];
+			messages[slot] = null;
+			long time = times[slot];
+			sequences.lazySet(slot, head + mask + 1);
+			head++;
+			appendLine(time, message);
+		}//end for
+		return lines.length() > 0;
+	}//end drain method
+
+	private void appendLine(long time, String message) {
+		//the messages of the same second share their time stamp
+		long second = time / 1000;
+		if(second != lastSecond) {
+			lastSecond = second;
+			lastStamp = DATE_FORMAT.format(Instant.ofEpochMilli(time));
+		}//end if
+		lines.append(lastStamp).append(' ').append(message).append('\n');
+	}//end appendLine method
+}//end AsyncLog class
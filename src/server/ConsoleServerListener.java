@@ -0,0 +1,46 @@
+package server;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import network.ServerListener;
+
+/**
+ * Class that writes what the server reports on a stream, used by the headless server.
+ * The messages are written asynchronously, so a slow terminal never holds the network threads
+ * */
+public class ConsoleServerListener implements ServerListener {
+
+	private final AsyncLog asyncLog;
+
+	/**
+	 * Constructor for the ConsoleServerListener class
+	 * @param out The stream where the messages are written
+	 * */
+	public ConsoleServerListener(final PrintStream out) {
+		asyncLog = new AsyncLog(new AsyncLog.Output() {
+			@Override
+			public void write(String lines) {
+				out.print(lines);
+				out.flush();
+			}//end write
+		});
+	}//end ConsoleServerListener constructor
+
+	@Override
+	public void log(String message) {
+		asyncLog.log(message);
+	}//end log method
+
+	@Override
+	public void usersChanged(List<String> users) {
+		log("Connected users: " + users);
+	}//end usersChanged method
+
+	/**
+	 * Method that writes the messages still queued and stops the log writer
+	 * */
+	public void close() {
+		asyncLog.close();
+	}//end close method
+}//end ConsoleServerListener class
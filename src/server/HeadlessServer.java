@@ -0,0 +1,56 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import network.NetworkServer;
+import network.ServerListener;
+
+/**
+ * Entry point of the server without any window, for machines without a display.
+ * It takes the same options as the PaintServer and never loads Swing
+ * */
+public class HeadlessServer {
+
+	/**
+	 * Main entry of the headless server
+	 * @param args The options of the server, see {@link ServerOptions#parse(String[])}
+	 * */
+	public static void main(String[] args) {
+		//the canvas of the server uses java.awt.image, which doesn't need a display
+		System.setProperty("java.awt.headless", "true");
+		ServerOptions options = ServerOptions.parse(args);
+		final ConsoleServerListener console = options.getLog().equals("none") ? null : new ConsoleServerListener(System.out);
+		ServerListener listener = console == null ? ServerListener.NONE : console;
+		final NetworkServer server = options.createServer(listener);
+		server.startServer();
+		final MetricsEndpoint metrics = options.getMetricsPort() < 0 ? null : startMetrics(server, options.getMetricsAddress(), options.getMetricsPort(), listener);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.stopServer();
+				if(metrics != null) {
+					metrics.stop();
+				}//end if
+				if(console != null) {
+					console.close();
+				}//end if
+			}//end run
+		}));
+	}//end main method
+
+	/**
+	 * Method that starts serving the metrics of the server, the server keeps running without them
+	 * if the port can't be opened
+	 * */
+	private static MetricsEndpoint startMetrics(NetworkServer server, InetAddress address, int port, ServerListener listener) {
+		try {
+			MetricsEndpoint metrics = new MetricsEndpoint(server, address, port);
+			listener.log("Metrics served on " + address.getHostAddress() + ":" + port + " at " + MetricsEndpoint.PATH);
+			return metrics;
+		}catch(IOException e) {
+			listener.log("Couldn't serve the metrics on " + address.getHostAddress() + ":" + port + ": " + e.getMessage());
+			return null;
+		}//end try catch
+	}//end startMetrics method
+}//end HeadlessServer class
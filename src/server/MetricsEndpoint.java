@@ -0,0 +1,59 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import network.MetricsReporter;
+import network.NetworkServer;
+
+/**
+ * Class that serves the metrics of a headless server over HTTP as plain text, so they
+ * can be scraped or read with curl. It runs on its own thread, away from the network threads
+ * */
+public class MetricsEndpoint {
+
+	/**
+	 * The path where the metrics are served
+	 * */
+	public static final String PATH = "/metrics";
+
+	private final HttpServer http;
+
+	/**
+	 * Constructor for the MetricsEndpoint class that starts serving the metrics
+	 * @param server The server whose metrics are served
+	 * @param address The address of the HTTP server, the metrics are only reachable through it
+	 * @param port The port of the HTTP server
+	 * @throws IOException if the port couldn't be opened
+	 * */
+	public MetricsEndpoint(NetworkServer server, InetAddress address, int port) throws IOException {
+		final MetricsReporter reporter = new MetricsReporter(server);
+		http = HttpServer.create(new InetSocketAddress(address, port), 0);
+		http.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = reporter.report().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try(OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}//end try
+			}//end handle
+		});
+		http.start();
+	}//end MetricsEndpoint constructor
+
+	/**
+	 * Method that stops serving the metrics
+	 * */
+	public void stop() {
+		http.stop(0);
+	}//end stop method
+}//end MetricsEndpoint class
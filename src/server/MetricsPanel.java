@@ -0,0 +1,63 @@
+package server;
+
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import network.MetricsReporter;
+import network.NetworkServer;
+
+/**
+ * Panel that shows the metrics of the server and refreshes them every second
+ * */
+public class MetricsPanel extends JPanel {
+
+	private static final long serialVersionUID = -2217795304912046341L;
+
+	/**
+	 * The time between two refreshes of the metrics in milliseconds
+	 * */
+	public static final int REFRESH_INTERVAL = 1000;
+
+	private final JTextArea text = new JTextArea();
+	private final Timer timer;
+
+	/**
+	 * Constructor for the MetricsPanel class
+	 * @param server The server whose metrics are shown
+	 * */
+	public MetricsPanel(NetworkServer server) {
+		super(new BorderLayout());
+		final MetricsReporter reporter = new MetricsReporter(server);
+		text.setEditable(false);
+		text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		add(new JScrollPane(text), BorderLayout.CENTER);
+		timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				//the report only adds up the counters, it is cheap enough for the EDT
+				text.setText(reporter.report());
+				text.setCaretPosition(0);
+			}//end actionPerformed
+		});
+		timer.setInitialDelay(0);
+	}//end MetricsPanel constructor
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		timer.start();
+	}//end addNotify method
+
+	@Override
+	public void removeNotify() {
+		timer.stop();
+		super.removeNotify();
+	}//end removeNotify method
+}//end MetricsPanel class
@@ -4,8 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
@@ -13,47 +12,74 @@ import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
 
 import network.NetworkServer;
+import network.ServerListener;
 
 /**
  * Project's server class that holds all the graphical components
  * @author Somlea Mihai
  * @since 06.01.2019
  * */
-public class PaintServer extends JFrame implements WindowListener {
+public class PaintServer extends JFrame implements WindowListener, ServerListener {
 	
 	private static final long serialVersionUID = 3401392058990169109L;
 
-	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy/MM/dd - HH:mm:ss");
-	
 	public static final String TITLE = "Paint Server";
 	private static PaintServer instance;
 	
-	private static final String newline = "\n";
+	/**
+	 * The number of lines kept in the console, the oldest ones are removed
+	 * */
+	public static final int MAX_CONSOLE_LINES = 5000;
 	
 	//creating the server network
 	private NetworkServer server;
+	private AsyncLog asyncLog;
 	
 	
 	private JTextArea console;
 	private JList<String> listUsers;
+	private JTabbedPane tabs;
 	
 	/**
 	 * PaintServer constructor that initializes the instance of the server 
 	 * and starts it
 	 * */
 	public PaintServer(){
+		this(new ServerOptions());
+	}//end PaintServer constructor
+	
+	/**
+	 * PaintServer constructor that initializes the instance of the server 
+	 * and starts it with the given options
+	 * @param options The options of the server given on the command line
+	 * */
+	public PaintServer(ServerOptions options){
 		//initialize the server instance to be this for later reference
 		instance = this;
 		
 		createView();
 		
-		server = new NetworkServer(this, 1501);
+		asyncLog = new AsyncLog(new AsyncLog.Output() {
+			@Override
+			public void write(final String lines) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						appendToConsole(lines);
+					}//end run
+				});
+			}//end write
+		});
+		server = options.createServer(this);
 		server.startServer();
+		tabs.addTab("Metrics", new MetricsPanel(server));
 		
 		setTitle(TITLE);
 		setSize(700, 500);
@@ -75,7 +101,9 @@ public class PaintServer extends JFrame implements WindowListener {
 		  ((DefaultCaret) console.getCaret()).setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
 		  JScrollPane consoleSP = new JScrollPane(console);
 		  consoleSP.setBorder(BorderFactory.createTitledBorder("Console Output"));
-		  panel.add(consoleSP, BorderLayout.CENTER);
+		  tabs = new JTabbedPane();
+		  tabs.addTab("Console", consoleSP);
+		  panel.add(tabs, BorderLayout.CENTER);
 		  
 		  listUsers = new JList<String>();
 		  JScrollPane listUsersSP = new JScrollPane(listUsers);
@@ -87,14 +115,21 @@ public class PaintServer extends JFrame implements WindowListener {
 	
 	/**
 	 * Method that updates the view of the connect users list on the server
+	 * @param users The user names of the connected clients
 	 * */
-	public void updateView() {
-		DefaultListModel<String> model = new DefaultListModel<>();
-		for(String nickname : server.getConnectedClientMap().keySet()) {
-			model.addElement(nickname);
-		}//end for
-		listUsers.setModel(model);
-	}//end updateView method
+	@Override
+	public void usersChanged(final List<String> users) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				DefaultListModel<String> model = new DefaultListModel<>();
+				for(String nickname : users) {
+					model.addElement(nickname);
+				}//end for
+				listUsers.setModel(model);
+			}//end run
+		});
+	}//end usersChanged method
 	
 	
 	/**
@@ -106,23 +141,45 @@ public class PaintServer extends JFrame implements WindowListener {
 	
 	
 	/**
-	 * Method that logs a message to the console
+	 * Method that logs a message to the console. The message is only queued, it is written
+	 * later by the log writer, so it can be called from any thread
 	 *@param message The message that will be logged in the console
 	 * */
+	@Override
 	public void log(String message) {
-		console.append(DATE_FORMAT.format(new Date()) + " " +  message + newline);
+		asyncLog.log(message);
 	}//end log method
 	
 	
+	/**
+	 * Method that appends a batch of lines to the console and removes the oldest lines
+	 * over MAX_CONSOLE_LINES, it must be called on the EDT
+	 * */
+	private void appendToConsole(String lines) {
+		console.append(lines);
+		//the console ends with a new line, so its last line is always empty
+		int excess = console.getLineCount() - 1 - MAX_CONSOLE_LINES;
+		if(excess > 0) {
+			try {
+				console.replaceRange(null, 0, console.getLineStartOffset(excess));
+			}catch(BadLocationException e) {
+				e.printStackTrace();
+			}//end try catch
+		}//end if
+	}//end appendToConsole method
+	
+	
 	/**
 	 * Main entry in the program
+	 * @param args The options of the server, see {@link ServerOptions#parse(String[])}
 	 * */
 	public static void main(String[] args) {
+		final ServerOptions options = ServerOptions.parse(args);
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
 				//UIManager.put("swing.boldMetal", Boolean.FALSE);
-				instance = new PaintServer();
+				instance = new PaintServer(options);
 				instance.setVisible(true);
 			}//end run
 		});
@@ -138,6 +195,7 @@ public class PaintServer extends JFrame implements WindowListener {
 	@Override
 	public void windowClosing(WindowEvent e) {
 		server.stopServer();
+		asyncLog.close();
 		System.exit(0);
 	}//end windowsClosing
 
@@ -0,0 +1,173 @@
+package server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.zip.Deflater;
+
+import network.NetworkServer;
+import network.OutboundQueue;
+import network.ServerCanvas;
+import network.ServerListener;
+import packet.PacketCodec;
+
+/**
+ * Class that holds the options of the server that can be given on the command line
+ * */
+public class ServerOptions {
+
+	/**
+	 * The port where the server listens when no port is given
+	 * */
+	public static final int DEFAULT_PORT = 1501;
+
+	private int port = DEFAULT_PORT;
+	/**
+	 * Where a headless server writes its logs, console or none
+	 * */
+	private String log = "console";
+	/**
+	 * The port where a headless server serves its metrics as plain text, -1 for none
+	 * */
+	private int metricsPort = -1;
+	/**
+	 * The address where the metrics are served, the loopback so only the same machine can read them
+	 * */
+	private InetAddress metricsAddress = InetAddress.getLoopbackAddress();
+	private NetworkServer.Engine engine = NetworkServer.Engine.THREAD;
+	private int outboundCapacity = OutboundQueue.DEFAULT_CAPACITY;
+	private OutboundQueue.SlowConsumerPolicy slowConsumerPolicy = OutboundQueue.SlowConsumerPolicy.DROP_OLDEST;
+	private int sendBufferSize = NetworkServer.DEFAULT_SEND_BUFFER;
+	private int canvasWidth = ServerCanvas.DEFAULT_WIDTH;
+	private int canvasHeight = ServerCanvas.DEFAULT_HEIGHT;
+	private byte pixelFormat = PacketCodec.FORMAT_DEFLATE;
+	private int deflateLevel = Deflater.BEST_SPEED;
+
+	/**
+	 * Method that reads the options from the arguments of the program.
+	 * The known options are --port=number, --engine=thread|virtual|nio, --queue=size,
+	 * --slow-consumer=drop_oldest|coalesce_latest|disconnect, --send-buffer=bytes, --canvas=widthxheight,
+	 * --codec=raw|rle|palette|deflate[:level] and, for the headless server, --log=console|none
+	 * --metrics-port=number and --metrics-address=host, 0.0.0.0 for every interface. The virtual engine is refused on a JVM older than Java 21
+	 * @param args The arguments of the program
+	 * @return the options, with the default value for the ones that are missing
+	 * */
+	public static ServerOptions parse(String[] args) {
+		ServerOptions options = new ServerOptions();
+		for(String arg : args) {
+			if(arg.startsWith("--port=")) {
+				options.port = Integer.parseInt(value(arg));
+				if(options.port < 0 || options.port > 65535) {
+					throw new IllegalArgumentException("Invalid port " + value(arg));
+				}//end if
+			}else if(arg.startsWith("--log=")) {
+				options.log = value(arg).toLowerCase();
+				if(!options.log.equals("console") && !options.log.equals("none")) {
+					throw new IllegalArgumentException("Unknown log " + value(arg));
+				}//end if
+			}else if(arg.startsWith("--metrics-port=")) {
+				options.metricsPort = Integer.parseInt(value(arg));
+				if(options.metricsPort < 0 || options.metricsPort > 65535) {
+					throw new IllegalArgumentException("Invalid port " + value(arg));
+				}//end if
+			}else if(arg.startsWith("--metrics-address=")) {
+				try {
+					options.metricsAddress = InetAddress.getByName(value(arg));
+				}catch(UnknownHostException e) {
+					throw new IllegalArgumentException("Unknown metrics address " + value(arg));
+				}//end try catch
+			}else if(arg.startsWith("--engine=")) {
+				options.engine = NetworkServer.Engine.valueOf(value(arg).toUpperCase());
+				if(options.engine == NetworkServer.Engine.VIRTUAL && !NetworkServer.hasVirtualThreads()) {
+					throw new IllegalArgumentException("The virtual engine needs Java 21, use --engine=thread or --engine=nio");
+				}//end if
+			}else if(arg.startsWith("--queue=")) {
+				options.outboundCapacity = Integer.parseInt(value(arg));
+			}else if(arg.startsWith("--slow-consumer=")) {
+				options.slowConsumerPolicy = OutboundQueue.SlowConsumerPolicy.valueOf(value(arg).toUpperCase());
+			}else if(arg.startsWith("--send-buffer=")) {
+				options.sendBufferSize = Integer.parseInt(value(arg));
+				if(options.sendBufferSize <= 0) {
+					throw new IllegalArgumentException("Invalid send buffer " + value(arg));
+				}//end if
+			}else if(arg.startsWith("--canvas=")) {
+				String[] size = value(arg).toLowerCase().split("x");
+				if(size.length != 2) {
+					throw new IllegalArgumentException("Invalid canvas size " + value(arg));
+				}//end if
+				options.canvasWidth = Integer.parseInt(size[0]);
+				options.canvasHeight = Integer.parseInt(size[1]);
+				if(options.canvasWidth <= 0 || options.canvasHeight <= 0) {
+					throw new IllegalArgumentException("Invalid canvas size " + value(arg));
+				}//end if
+			}else if(arg.startsWith("--codec=")) {
+				String[] codec = value(arg).split(":");
+				options.pixelFormat = PacketCodec.formatOf(codec[0]);
+				if(codec.length > 1) {
+					options.deflateLevel = Integer.parseInt(codec[1]);
+					if(options.deflateLevel < Deflater.BEST_SPEED || options.deflateLevel > Deflater.BEST_COMPRESSION) {
+						throw new IllegalArgumentException("Invalid Deflate level " + codec[1]);
+					}//end if
+				}//end if
+			}else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}//end if else
+		}//end for
+		return options;
+	}//end parse method
+
+	private static String value(String arg) {
+		return arg.substring(arg.indexOf('=') + 1);
+	}//end value method
+
+	/**
+	 * Method that creates the network server configured with these options
+	 * @param listener What receives the logs and the connected users of the server
+	 * */
+	public NetworkServer createServer(ServerListener listener) {
+		NetworkServer server = new NetworkServer(listener, port, engine);
+		server.setOutboundCapacity(outboundCapacity);
+		server.setSlowConsumerPolicy(slowConsumerPolicy);
+		server.setSendBufferSize(sendBufferSize);
+		server.setCanvasSize(canvasWidth, canvasHeight);
+		server.setPixelCodec(pixelFormat, deflateLevel);
+		return server;
+	}//end createServer method
+
+	//Getters for the options
+	public int getPort() {
+		return port;
+	}//end getPort
+	public String getLog() {
+		return log;
+	}//end getLog
+	public int getMetricsPort() {
+		return metricsPort;
+	}//end getMetricsPort
+	public InetAddress getMetricsAddress() {
+		return metricsAddress;
+	}//end getMetricsAddress
+	public NetworkServer.Engine getEngine() {
+		return engine;
+	}//end getEngine
+	public int getOutboundCapacity() {
+		return outboundCapacity;
+	}//end getOutboundCapacity
+	public OutboundQueue.SlowConsumerPolicy getSlowConsumerPolicy() {
+		return slowConsumerPolicy;
+	}//end getSlowConsumerPolicy
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}//end getSendBufferSize
+	public int getCanvasWidth() {
+		return canvasWidth;
+	}//end getCanvasWidth
+	public int getCanvasHeight() {
+		return canvasHeight;
+	}//end getCanvasHeight
+	public byte getPixelFormat() {
+		return pixelFormat;
+	}//end getPixelFormat
+	public int getDeflateLevel() {
+		return deflateLevel;
+	}//end getDeflateLevel
+}//end ServerOptions class